@@ -2,9 +2,29 @@ package com.rickiyang.redis.config;
 
 import com.google.common.collect.Sets;
 import com.rickiyang.redis.annotation.EnableRedisSentinel;
+import com.rickiyang.redis.redis.AsyncRedisClient;
+import com.rickiyang.redis.redis.AutoPipeliner;
 import com.rickiyang.redis.redis.RedisClient;
+import com.rickiyang.redis.redis.balance.EwmaReaderSelector;
+import com.rickiyang.redis.redis.balance.LeastOutstandingPoolSelector;
+import com.rickiyang.redis.redis.bigkey.BigReplyDetector;
+import com.rickiyang.redis.redis.cache.NearCache;
+import com.rickiyang.redis.redis.counter.CounterAggregator;
+import com.rickiyang.redis.redis.codec.SmileCodec;
+import com.rickiyang.redis.redis.codec.ValueCompressor;
+import com.rickiyang.redis.redis.hotkey.HotKeyDetector;
+import com.rickiyang.redis.redis.lock.RedisLockManager;
+import com.rickiyang.redis.redis.monitor.CommandListener;
+import com.rickiyang.redis.redis.monitor.MicrometerCommandMetrics;
+import com.rickiyang.redis.redis.monitor.MicrometerPoolMetrics;
+import com.rickiyang.redis.redis.monitor.PoolMetrics;
 import com.rickiyang.redis.redis.sentinel.RedisSentinelFactory;
+import com.rickiyang.redis.redis.slowlog.SlowLog;
+import com.rickiyang.redis.redis.writebehind.WriteBehindQueue;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
@@ -14,6 +34,9 @@ import org.springframework.context.annotation.Configuration;
 import javax.annotation.Resource;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static com.rickiyang.redis.config.RedisSentinelClientProperties.SENTINEL_PREFIX;
 
@@ -41,13 +64,152 @@ public class RedisSentinelClientAutoConfiguration {
         redisSentinelClientFactory.setMasterName(redisSentinelClientProperties.getMasterName());
         redisSentinelClientFactory.setServers(Sets.newHashSet(sentinels));
         reflectProperties(redisSentinelClientFactory);
+        if ("least-outstanding".equalsIgnoreCase(redisSentinelClientProperties.getReaderStrategy())) {
+            redisSentinelClientFactory.setReaderSelector(LeastOutstandingPoolSelector.INSTANCE);
+        }
         log.info("[init redis sentinel factory, redisSentinelClientProperties={}]", redisSentinelClientProperties);
         return redisSentinelClientFactory;
     }
 
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = SENTINEL_PREFIX, name = "auto-pipeline-enabled", havingValue = "true")
+    public AutoPipeliner autoPipeliner(RedisSentinelFactory redisSentinelFactory) {
+        // 等待结果的时间覆盖借连接的等待和一次读写超时，另留一个超时用于排队执行
+        long timeoutMillis = 2L * redisSentinelFactory.getTimeout()
+                + Math.max(0, redisSentinelFactory.getMaxWaitMillis());
+        return new AutoPipeliner(redisSentinelClientProperties.getAutoPipelineMaxBatchSize(),
+                redisSentinelClientProperties.getAutoPipelineWindowMicros(), timeoutMillis);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = SENTINEL_PREFIX, name = "near-cache-enabled", havingValue = "true")
+    public NearCache nearCache(RedisSentinelFactory redisSentinelFactory) {
+        String prefixes = redisSentinelClientProperties.getNearCacheKeyPrefixes();
+        List<String> keyPrefixes = new ArrayList<>();
+        if (prefixes != null) {
+            for (String prefix : prefixes.split(",")) {
+                if (!"".equals(prefix.trim())) {
+                    keyPrefixes.add(prefix.trim());
+                }
+            }
+        }
+        NearCache nearCache = new NearCache(redisSentinelClientProperties.getNearCacheMaximumSize(),
+                redisSentinelClientProperties.getNearCacheMaxTtlMillis(), keyPrefixes,
+                redisSentinelClientProperties.getNearCacheChannel());
+        nearCache.start(redisSentinelFactory::getMasterPool);
+        return nearCache;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = SENTINEL_PREFIX, name = "hot-key-enabled", havingValue = "true")
+    public HotKeyDetector hotKeyDetector(RedisSentinelFactory redisSentinelFactory) {
+        HotKeyDetector hotKeyDetector = new HotKeyDetector(redisSentinelFactory,
+                redisSentinelClientProperties.getHotKeySampleRate(), redisSentinelClientProperties.getHotKeyTopK(),
+                redisSentinelClientProperties.getHotKeyWindowMillis(),
+                redisSentinelClientProperties.getHotKeyThresholdQps());
+        hotKeyDetector.registerMBean();
+        return hotKeyDetector;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = SENTINEL_PREFIX, name = "big-reply-enabled", havingValue = "true")
+    public BigReplyDetector bigReplyDetector(RedisSentinelFactory redisSentinelFactory) {
+        String guardMode = redisSentinelClientProperties.getBigReplyGuardMode();
+        BigReplyDetector bigReplyDetector = new BigReplyDetector(redisSentinelFactory,
+                redisSentinelClientProperties.getBigReplyMaxBytes(), redisSentinelClientProperties.getBigReplyMaxElements(),
+                guardMode == null || "".equals(guardMode.trim()) ? BigReplyDetector.GuardMode.NONE
+                        : BigReplyDetector.GuardMode.valueOf(guardMode.trim().toUpperCase()),
+                redisSentinelClientProperties.getBigReplyRejectTtlMillis());
+        bigReplyDetector.registerMBean();
+        return bigReplyDetector;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = SENTINEL_PREFIX, name = "metrics-enabled", havingValue = "true")
+    public PoolMetrics poolMetrics(RedisSentinelFactory redisSentinelFactory) {
+        PoolMetrics poolMetrics = new PoolMetrics(redisSentinelFactory,
+                redisSentinelClientProperties.getPoolMetricsWindowMillis());
+        poolMetrics.registerMBean();
+        return poolMetrics;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = SENTINEL_PREFIX, name = "slow-log-enabled", havingValue = "true")
+    public SlowLog slowLog(RedisSentinelFactory redisSentinelFactory) {
+        SlowLog slowLog = new SlowLog(redisSentinelFactory,
+                TimeUnit.MILLISECONDS.toMicros(redisSentinelClientProperties.getSlowLogThresholdMillis()),
+                redisSentinelClientProperties.getSlowLogCapacity(), redisSentinelClientProperties.getSlowLogSampleRate(),
+                redisSentinelClientProperties.isSlowLogHashKeys());
+        slowLog.registerMBean();
+        return slowLog;
+    }
+
     @Bean
-    public RedisClient redisClient(RedisSentinelFactory redisSentinelFactory) throws Exception {
-        return new RedisClient(redisSentinelFactory);
+    @ConditionalOnProperty(prefix = SENTINEL_PREFIX, name = "reader-strategy", havingValue = "ewma")
+    public EwmaReaderSelector ewmaReaderSelector(RedisSentinelFactory redisSentinelFactory) {
+        EwmaReaderSelector readerSelector = new EwmaReaderSelector(redisSentinelFactory,
+                redisSentinelClientProperties.getReaderEwmaDecayMillis(),
+                redisSentinelClientProperties.getReaderProbeRate());
+        redisSentinelFactory.setReaderSelector(readerSelector);
+        return readerSelector;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public RedisClient redisClient(RedisSentinelFactory redisSentinelFactory,
+                                   ObjectProvider<AutoPipeliner> autoPipeliner,
+                                   ObjectProvider<NearCache> nearCache,
+                                   ObjectProvider<BigReplyDetector> bigReplyDetector,
+                                   ObjectProvider<CommandListener> commandListeners) throws Exception {
+        RedisClient redisClient = new RedisClient(redisSentinelFactory);
+        redisClient.setAutoPipeliner(autoPipeliner.getIfAvailable());
+        redisClient.setNearCache(nearCache.getIfAvailable());
+        redisClient.setBigReplyDetector(bigReplyDetector.getIfAvailable());
+        commandListeners.orderedStream().forEach(redisClient::addCommandListener);
+        if ("smile".equalsIgnoreCase(redisSentinelClientProperties.getCodec())) {
+            redisClient.setCodec(new SmileCodec());
+        }
+        if (redisSentinelClientProperties.getMultiKeyChunkSize() != 0) {
+            redisClient.setMultiKeyChunkSize(redisSentinelClientProperties.getMultiKeyChunkSize());
+        }
+        redisClient.setMultiKeyParallelism(redisSentinelClientProperties.getMultiKeyParallelism());
+        if (redisSentinelClientProperties.isCompressionEnabled()) {
+            redisClient.setCompressor(new ValueCompressor(redisSentinelClientProperties.getCompressionThreshold(),
+                    redisSentinelClientProperties.getCompressionLevel()));
+        }
+        redisSentinelFactory.addMasterSwitchListener(redisClient.getScriptRegistry());
+        return redisClient;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = SENTINEL_PREFIX, name = "lock-enabled", havingValue = "true")
+    public RedisLockManager redisLockManager(RedisClient redisClient) {
+        RedisLockManager redisLockManager = new RedisLockManager(redisClient, redisSentinelClientProperties.getLockDbIndex(),
+                redisSentinelClientProperties.getLockWatchdogLeaseMillis(), redisSentinelClientProperties.getLockChannel());
+        redisLockManager.start();
+        return redisLockManager;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = SENTINEL_PREFIX, name = "counter-enabled", havingValue = "true")
+    public CounterAggregator counterAggregator(RedisClient redisClient) {
+        return new CounterAggregator(redisClient, redisSentinelClientProperties.getCounterDbIndex(),
+                redisSentinelClientProperties.getCounterFlushIntervalMillis(),
+                redisSentinelClientProperties.getCounterMaxPendingKeys());
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnProperty(prefix = SENTINEL_PREFIX, name = "write-behind-enabled", havingValue = "true")
+    public WriteBehindQueue writeBehindQueue(RedisClient redisClient) {
+        return new WriteBehindQueue(redisClient, redisSentinelClientProperties.getWriteBehindDbIndex(),
+                redisSentinelClientProperties.getWriteBehindFlushIntervalMillis(),
+                redisSentinelClientProperties.getWriteBehindMaxPending(),
+                redisSentinelClientProperties.getWriteBehindOfferTimeoutMillis());
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public AsyncRedisClient asyncRedisClient(RedisClient redisClient) {
+        return new AsyncRedisClient(redisClient, redisSentinelClientProperties.getAsyncCorePoolSize(),
+                redisSentinelClientProperties.getAsyncMaxPoolSize(), redisSentinelClientProperties.getAsyncQueueCapacity());
     }
 
     private String createGetMethodName(Field propertiesField, String fieldName) {
@@ -64,6 +226,14 @@ public class RedisSentinelClientAutoConfiguration {
         return value == null || "0".equals(value.toString()) || "false".equals(value.toString());
     }
 
+    private Method findSetMethod(String methodName, Class<?> type) {
+        try {
+            return RedisSentinelFactory.class.getMethod(methodName, type);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
     private void reflectProperties(RedisSentinelFactory redisSentinelClientFactory) throws Exception {
         Field[] propertiesFields = RedisSentinelClientProperties.class.getDeclaredFields();
         for (Field propertiesField : propertiesFields) {
@@ -71,13 +241,40 @@ public class RedisSentinelClientAutoConfiguration {
             if ("masterName".equals(fieldName) || "sentinels".equals(fieldName) || "SENTINEL_PREFIX".equals(fieldName)) {
                 continue;
             }
+            Method setMethod = findSetMethod(createSetMethodName(fieldName), propertiesField.getType());
+            if (setMethod == null) {
+                // 非连接池相关的配置，由对应的 bean 自行读取
+                continue;
+            }
             Method getMethod = RedisSentinelClientProperties.class.getMethod(createGetMethodName(propertiesField, fieldName));
             Object value = getMethod.invoke(redisSentinelClientProperties);
             if (!isPropertyBlank(value)) {
-                Method setMethod = RedisSentinelFactory.class.getMethod(createSetMethodName(fieldName), propertiesField.getType());
                 setMethod.invoke(redisSentinelClientFactory, value);
             }
         }
     }
-}
 
+    /**
+     * classpath 中有 Micrometer 时才加载，容器中没有 MeterRegistry 时注册到 Metrics.globalRegistry
+     */
+    @Configuration
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    @ConditionalOnProperty(prefix = SENTINEL_PREFIX, name = "metrics-enabled", havingValue = "true")
+    static class RedisMetricsConfiguration {
+
+        @Bean
+        public MicrometerCommandMetrics micrometerCommandMetrics(RedisSentinelFactory redisSentinelFactory,
+                                                                 ObjectProvider<MeterRegistry> meterRegistry) {
+            return new MicrometerCommandMetrics(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry),
+                    redisSentinelFactory);
+        }
+
+        @Bean(destroyMethod = "shutdown")
+        public MicrometerPoolMetrics micrometerPoolMetrics(RedisSentinelFactory redisSentinelFactory,
+                                                           PoolMetrics poolMetrics,
+                                                           ObjectProvider<MeterRegistry> meterRegistry) {
+            return new MicrometerPoolMetrics(meterRegistry.getIfAvailable(() -> Metrics.globalRegistry), poolMetrics,
+                    redisSentinelFactory);
+        }
+    }
+}
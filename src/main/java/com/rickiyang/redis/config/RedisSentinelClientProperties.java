@@ -29,4 +29,109 @@ public class RedisSentinelClientProperties {
     private long softMinEvictableIdleTimeMillis;
     private long timeBetweenEvictionRunsMillis;
     private byte whenExhaustedAction;
+    /**
+     * 异步客户端线程池配置，为0时使用默认值
+     */
+    private int asyncCorePoolSize;
+    private int asyncMaxPoolSize;
+    private int asyncQueueCapacity;
+    /**
+     * 自动管道配置，开启后并发的单key get/set 会合并成pipeline发送
+     */
+    private boolean autoPipelineEnabled;
+    private int autoPipelineMaxBatchSize;
+    private long autoPipelineWindowMicros;
+    /**
+     * 近端缓存配置，keyPrefixes 以逗号分隔，为空时缓存所有key
+     */
+    private boolean nearCacheEnabled;
+    private long nearCacheMaximumSize;
+    private long nearCacheMaxTtlMillis;
+    private String nearCacheKeyPrefixes;
+    private String nearCacheChannel;
+    /**
+     * set(key, T)/get(key, Class) 使用的编解码：json(默认) 或 smile
+     */
+    private String codec;
+    /**
+     * byte[]/codec 路径的 value 压缩，threshold 为触发压缩的字节数，level 为 deflate 压缩级别，为0时使用默认值
+     */
+    private boolean compressionEnabled;
+    private int compressionThreshold;
+    private int compressionLevel;
+    /**
+     * mget/mset 拆分的每片key数量，为0时使用默认值，小于0时不拆分；parallelism 为mget分片并行的线程数，为0时顺序执行
+     */
+    private int multiKeyChunkSize;
+    private int multiKeyParallelism;
+    /**
+     * 分布式锁配置，watchdogLeaseMillis 为不指定租期时自动续期的租期，为0时使用默认值
+     */
+    private boolean lockEnabled;
+    private int lockDbIndex;
+    private long lockWatchdogLeaseMillis;
+    private String lockChannel;
+    /**
+     * 计数聚合配置，flushIntervalMillis 为计数写入redis的最大延迟，为0时使用默认值
+     */
+    private boolean counterEnabled;
+    private int counterDbIndex;
+    private long counterFlushIntervalMillis;
+    private int counterMaxPendingKeys;
+    /**
+     * 异步写缓冲配置，maxPending 为最多待写条目数，队列满时写入最多阻塞 offerTimeoutMillis，为0时使用默认值
+     */
+    private boolean writeBehindEnabled;
+    private int writeBehindDbIndex;
+    private long writeBehindFlushIntervalMillis;
+    private int writeBehindMaxPending;
+    private long writeBehindOfferTimeoutMillis;
+    /**
+     * 热点key探测，sampleRate 为采样率，thresholdQps 为触发回调的每秒访问次数，为0时使用默认值或不回调
+     */
+    private boolean hotKeyEnabled;
+    private double hotKeySampleRate;
+    private int hotKeyTopK;
+    private long hotKeyWindowMillis;
+    private long hotKeyThresholdQps;
+    /**
+     * 超大回复检测，guardMode 为 none(默认)、reject 或 truncate，阈值为0时使用默认值
+     */
+    private boolean bigReplyEnabled;
+    private long bigReplyMaxBytes;
+    private int bigReplyMaxElements;
+    private String bigReplyGuardMode;
+    private long bigReplyRejectTtlMillis;
+    /**
+     * 命令耗时、连接池等 Micrometer 指标，连接池指标同时注册到JMX，Micrometer 指标需要 classpath 中有 micrometer-core
+     */
+    private boolean metricsEnabled;
+    /**
+     * 借连接耗时百分位的统计窗口，为0时使用默认值60秒
+     */
+    private long poolMetricsWindowMillis;
+    /**
+     * 客户端慢命令日志，按借连接到解析完回复的总耗时判断，阈值为0时使用默认值10ms，
+     * sampleRate 为慢命令的采样率，为0时全部记录，hashKeys 为true时只记录key的散列值
+     */
+    private boolean slowLogEnabled;
+    private long slowLogThresholdMillis;
+    private int slowLogCapacity;
+    private double slowLogSampleRate;
+    private boolean slowLogHashKeys;
+    /**
+     * 读请求选择从库的策略：random(默认)、ewma 或 least-outstanding，ewma 按观测到的延迟选择，
+     * least-outstanding 选择正在使用和等待连接的请求最少的从库，
+     * decayMillis 为衰减时间常数，probeRate 为随机探测的比例，为0时使用默认值
+     */
+    private String readerStrategy = "random";
+    private long readerEwmaDecayMillis;
+    private double readerProbeRate;
+    /**
+     * 复制延迟检查，落后超过字节数或秒数阈值、和主库断开的从库不参与读请求，两个阈值都为0时不检查，
+     * 检查间隔为0时为1秒
+     */
+    private long replicaMaxLagBytes;
+    private long replicaMaxLagSeconds;
+    private long replicaLagCheckIntervalMillis;
 }
@@ -1,6 +1,10 @@
 package com.rickiyang.redis.redis;
 import redis.clients.jedis.JedisPool;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * @date: 2021/11/16 10:01 上午
  * @author: rickiyang
@@ -24,4 +28,78 @@ public abstract class AbstractClientFactory extends JedisPoolConfigAdapter {
      */
     public abstract JedisPool getSlavePool();
 
+    /**
+     * 获取主库指定db的连接池，池中连接已选中该db
+     * @param dbIndex
+     * @return
+     */
+    public abstract JedisPool getMasterPool(int dbIndex);
+
+    /**
+     * 获取从库指定db的连接池，池中连接已选中该db
+     * @param dbIndex
+     * @return
+     */
+    public abstract JedisPool getSlavePool(int dbIndex);
+
+    /**
+     * 获取所有可读实例上指定db的连接池，用于把大批量读拆分到多个从库并行执行
+     * @param dbIndex
+     * @return 没有从库时只包含主库的连接池
+     */
+    public List<JedisPool> getSlavePools(int dbIndex) {
+        return Collections.singletonList(getSlavePool(dbIndex));
+    }
+
+    /**
+     * 获取复制偏移量已经达到 minOffset 的从库上指定db的连接池，用于读自己写
+     * @param dbIndex
+     * @param minOffset {@link #getMasterReplicationOffset()} 返回的主库偏移量
+     * @return 无法确认从库偏移量时返回主库的连接池
+     */
+    public JedisPool getSlavePool(int dbIndex, long minOffset) {
+        return getMasterPool(dbIndex);
+    }
+
+    /**
+     * 查询主库当前的复制偏移量
+     * @return 不支持时返回-1
+     */
+    public long getMasterReplicationOffset() {
+        return -1;
+    }
+
+    /**
+     * 查询连接池指向的实例和角色
+     * @param pool 由本工厂创建的连接池
+     * @return 不认识的连接池或者已经被替换的连接池返回null
+     */
+    public PoolInfo describePool(JedisPool pool) {
+        return null;
+    }
+
+    /**
+     * 当前在使用的所有连接池，包括按需创建的db连接池，用于采集连接池指标
+     * @return 连接池列表的快照
+     */
+    public List<JedisPool> getPools() {
+        JedisPool master = getMasterPool();
+        JedisPool slave = getSlavePool();
+        return master == slave ? Collections.singletonList(master) : Arrays.asList(master, slave);
+    }
+
+    /**
+     * @return 各个从库最近一次检查的复制状态，没有开启复制延迟检查时为空
+     */
+    public List<ReplicaLag> getReplicaLags() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return 读请求因为没有可用从库而改为访问主库的次数
+     */
+    public long getReaderFallbackCount() {
+        return 0;
+    }
+
 }
\ No newline at end of file
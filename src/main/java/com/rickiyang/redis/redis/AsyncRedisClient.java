@@ -0,0 +1,883 @@
+package com.rickiyang.redis.redis;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rickiyang.redis.exception.CsRedisRuntimeException;
+import com.rickiyang.redis.redis.script.RedisScript;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Tuple;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * @date: 2021/12/06 10:12 上午
+ * @author: rickiyang
+ * @Description: RedisClient 的异步视图，所有命令返回 CompletableFuture
+ * </br>
+ * 命令在有界线程池中执行，连接仍从 {@link RedisClient#getFactory()} 的 master/slave 池中获取。
+ * 线程池队列满时由调用线程执行该命令，以此对调用方形成背压
+ */
+public class AsyncRedisClient {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncRedisClient.class);
+
+    public static final int DEFAULT_CORE_POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+
+    public static final int DEFAULT_MAX_POOL_SIZE = Runtime.getRuntime().availableProcessors() * 8;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private final RedisClient redisClient;
+
+    private final ThreadPoolExecutor executor;
+
+    public AsyncRedisClient(RedisClient redisClient) {
+        this(redisClient, DEFAULT_CORE_POOL_SIZE, DEFAULT_MAX_POOL_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param redisClient   同步客户端
+     * @param corePoolSize  核心线程数，小于等于0时使用默认值
+     * @param maxPoolSize   最大线程数，小于等于0时使用默认值
+     * @param queueCapacity 等待队列长度，小于等于0时使用默认值
+     */
+    public AsyncRedisClient(RedisClient redisClient, int corePoolSize, int maxPoolSize, int queueCapacity) {
+        if (redisClient == null) {
+            throw new IllegalArgumentException("redisClient should not be null");
+        }
+        this.redisClient = redisClient;
+        int core = corePoolSize > 0 ? corePoolSize : DEFAULT_CORE_POOL_SIZE;
+        int max = Math.max(core, maxPoolSize > 0 ? maxPoolSize : DEFAULT_MAX_POOL_SIZE);
+        int capacity = queueCapacity > 0 ? queueCapacity : DEFAULT_QUEUE_CAPACITY;
+        this.executor = new ThreadPoolExecutor(core, max, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(capacity),
+                new ThreadFactoryBuilder().setNameFormat("redis-async-%d").setDaemon(true).build(),
+                (task, pool) -> {
+                    // 线程池满时在调用线程执行；已关闭时抛出，由 supplyAsync 转为失败的 future
+                    if (pool.isShutdown()) {
+                        throw new RejectedExecutionException("async redis executor is shutdown");
+                    }
+                    task.run();
+                });
+    }
+
+    public RedisClient getRedisClient() {
+        return redisClient;
+    }
+
+    public ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                rejectQueued(executor.shutdownNow());
+            }
+        } catch (InterruptedException e) {
+            rejectQueued(executor.shutdownNow());
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.info("AsyncRedisClient shutdown...");
+    }
+
+    /**
+     * shutdownNow 丢弃的任务不会再执行，让它们的 future 失败，避免调用方一直等待
+     */
+    private static void rejectQueued(List<Runnable> tasks) {
+        for (Runnable task : tasks) {
+            if (task instanceof AsyncTask) {
+                ((AsyncTask<?>) task).reject();
+            }
+        }
+    }
+
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(new AsyncTask<>(supplier, future));
+        } catch (RejectedExecutionException e) {
+            // 线程池已关闭时不抛出，交由 future 传递异常
+            future.completeExceptionally(new CsRedisRuntimeException("async redis executor rejected", e));
+        }
+        return future;
+    }
+
+    private CompletableFuture<Void> runAsync(Runnable runnable) {
+        return supplyAsync(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * 并发获取多个key的值，每个key一个请求，在一个往返时延内完成
+     * </br>
+     * 与 mget 不同，各key可以落在不同的从库上
+     *
+     * @param dbIndex db的索引值
+     * @param keys    需要获取的key
+     * @return key到value的映射，保持keys的迭代顺序，不存在的key对应value为null
+     */
+    public CompletableFuture<Map<String, String>> getAll(final int dbIndex, final Collection<String> keys) {
+        final List<String> keyList = new ArrayList<>(keys);
+        final List<CompletableFuture<String>> futures = new ArrayList<>(keyList.size());
+        for (String key : keyList) {
+            futures.add(getAndReturn(dbIndex, key));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(v -> {
+            Map<String, String> result = new LinkedHashMap<>(keyList.size() * 2);
+            for (int i = 0; i < keyList.size(); i++) {
+                result.put(keyList.get(i), futures.get(i).join());
+            }
+            return result;
+        });
+    }
+
+    /**
+     * 并发获取默认db下多个key的值
+     *
+     * @param keys 需要获取的key
+     * @return key到value的映射
+     */
+    public CompletableFuture<Map<String, String>> getAll(final Collection<String> keys) {
+        return getAll(0, keys);
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#setAndReturn(int, String, String)}
+     */
+    public CompletableFuture<String> setAndReturn(final int dbIndex, final String key, final String value) {
+        return supplyAsync(() -> redisClient.setAndReturn(dbIndex, key, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#setAndReturn(String, String)}
+     */
+    public CompletableFuture<String> setAndReturn(final String key, final String value) {
+        return supplyAsync(() -> redisClient.setAndReturn(key, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#setnx(int, String, String, int)}
+     */
+    public CompletableFuture<Long> setnx(final int dbIndex, final String key, final String value, final int expire) {
+        return supplyAsync(() -> redisClient.setnx(dbIndex, key, value, expire));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#ttl(int, String)}
+     */
+    public CompletableFuture<Long> ttl(final int dbIndex, final String key) {
+        return supplyAsync(() -> redisClient.ttl(dbIndex, key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#eval(int, boolean, String, List, List)}
+     */
+    public CompletableFuture<Object> eval(final int dbIndex, final boolean readonly, final String script,
+            final List<String> keys, final List<String> args) {
+        return supplyAsync(() -> redisClient.eval(dbIndex, readonly, script, keys, args));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#doStreamingPipline(int, int, long, RedisClient.StreamingPiplineAction, Consumer)}
+     */
+    public CompletableFuture<Long> doStreamingPipline(final int dbIndex, final int maxCommands, final long maxBytes,
+            final RedisClient.StreamingPiplineAction action, final Consumer<Object> resultConsumer) {
+        return supplyAsync(() -> redisClient.doStreamingPipline(dbIndex, maxCommands, maxBytes, action, resultConsumer));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#set(int, String, Object)}
+     */
+    public <T> CompletableFuture<String> set(final int dbIndex, final String key, final T value) {
+        return supplyAsync(() -> redisClient.set(dbIndex, key, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#set(int, String, Object, int)}
+     */
+    public <T> CompletableFuture<String> set(final int dbIndex, final String key, final T value, final int seconds) {
+        return supplyAsync(() -> redisClient.set(dbIndex, key, value, seconds));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#get(int, String, Class)}
+     */
+    public <T> CompletableFuture<T> get(final int dbIndex, final String key, final Class<T> type) {
+        return supplyAsync(() -> redisClient.get(dbIndex, key, type));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#evalsha(int, RedisScript, List, List)}
+     */
+    public CompletableFuture<Object> evalsha(final int dbIndex, final RedisScript script, final List<String> keys,
+            final List<String> args) {
+        return supplyAsync(() -> redisClient.evalsha(dbIndex, script, keys, args));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#setAndReturn(int, String, String, int)}
+     */
+    public CompletableFuture<String> setAndReturn(final int dbIndex, final String key, final String value,
+            final int seconds) {
+        return supplyAsync(() -> redisClient.setAndReturn(dbIndex, key, value, seconds));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#setAndReturn(String, String, int)}
+     */
+    public CompletableFuture<String> setAndReturn(final String key, final String value, final int seconds) {
+        return supplyAsync(() -> redisClient.setAndReturn(key, value, seconds));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#setAndReturn(int, byte[], byte[], int)}
+     */
+    public CompletableFuture<String> setAndReturn(final int dbIndex, final byte[] key, final byte[] value,
+            final int seconds) {
+        return supplyAsync(() -> redisClient.setAndReturn(dbIndex, key, value, seconds));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#setAndReturn(byte[], byte[], int)}
+     */
+    public CompletableFuture<String> setAndReturn(final byte[] key, final byte[] value, final int seconds) {
+        return supplyAsync(() -> redisClient.setAndReturn(key, value, seconds));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#infoAndReturn()}
+     */
+    public CompletableFuture<String> infoAndReturn() {
+        return supplyAsync(() -> redisClient.infoAndReturn());
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#getAndReturn(int, String)}
+     */
+    public CompletableFuture<String> getAndReturn(final int dbIndex, final String key) {
+        return supplyAsync(() -> redisClient.getAndReturn(dbIndex, key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#getAndReturnFromMaster(int, String)}
+     */
+    public CompletableFuture<String> getAndReturnFromMaster(final int dbIndex, final String key) {
+        return supplyAsync(() -> redisClient.getAndReturnFromMaster(dbIndex, key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#getAndReturnFromMaster(String)}
+     */
+    public CompletableFuture<String> getAndReturnFromMaster(final String key) {
+        return supplyAsync(() -> redisClient.getAndReturnFromMaster(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#getAndReturn(String)}
+     */
+    public CompletableFuture<String> getAndReturn(final String key) {
+        return supplyAsync(() -> redisClient.getAndReturn(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#setAndReturn(int, byte[], byte[])}
+     */
+    public CompletableFuture<String> setAndReturn(final int dbIndex, final byte[] key, final byte[] value) {
+        return supplyAsync(() -> redisClient.setAndReturn(dbIndex, key, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#setAndReturn(byte[], byte[])}
+     */
+    public CompletableFuture<String> setAndReturn(final byte[] key, final byte[] value) {
+        return supplyAsync(() -> redisClient.setAndReturn(key, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#getAndReturn(int, byte[])}
+     */
+    public CompletableFuture<byte[]> getAndReturn(final int dbIndex, final byte[] key) {
+        return supplyAsync(() -> redisClient.getAndReturn(dbIndex, key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#getAndReturn(byte[])}
+     */
+    public CompletableFuture<byte[]> getAndReturn(final byte[] key) {
+        return supplyAsync(() -> redisClient.getAndReturn(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#mSetAndReturn(int, String...)}
+     */
+    public CompletableFuture<String> mSetAndReturn(final int dbIndex, final String... keysValues) {
+        return supplyAsync(() -> redisClient.mSetAndReturn(dbIndex, keysValues));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#mSetAndReturn(String...)}
+     */
+    public CompletableFuture<String> mSetAndReturn(final String... keysValues) {
+        return supplyAsync(() -> redisClient.mSetAndReturn(keysValues));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#mGetAndReturn(int, String...)}
+     */
+    public CompletableFuture<List<String>> mGetAndReturn(final int dbIndex, final String... keys) {
+        return supplyAsync(() -> redisClient.mGetAndReturn(dbIndex, keys));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#mGetAndReturn(String...)}
+     */
+    public CompletableFuture<List<String>> mGetAndReturn(final String... keys) {
+        return supplyAsync(() -> redisClient.mGetAndReturn(keys));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#mSetAndReturn(int, byte[]...)}
+     */
+    public CompletableFuture<String> mSetAndReturn(final int dbIndex, final byte[]... keysValues) {
+        return supplyAsync(() -> redisClient.mSetAndReturn(dbIndex, keysValues));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#mSetAndReturn(byte[]...)}
+     */
+    public CompletableFuture<String> mSetAndReturn(final byte[]... keysValues) {
+        return supplyAsync(() -> redisClient.mSetAndReturn(keysValues));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#mGetAndReturn(int, byte[]...)}
+     */
+    public CompletableFuture<List<byte[]>> mGetAndReturn(final int dbIndex, final byte[]... keys) {
+        return supplyAsync(() -> redisClient.mGetAndReturn(dbIndex, keys));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#mGetAndReturn(byte[]...)}
+     */
+    public CompletableFuture<List<byte[]>> mGetAndReturn(final byte[]... keys) {
+        return supplyAsync(() -> redisClient.mGetAndReturn(keys));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#smembers(String)}
+     */
+    public CompletableFuture<Set<String>> smembers(final String key) {
+        return supplyAsync(() -> redisClient.smembers(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#smembers(int, String)}
+     */
+    public CompletableFuture<Set<String>> smembers(final int dbIndex, final String key) {
+        return supplyAsync(() -> redisClient.smembers(dbIndex, key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#sadd(String, String...)}
+     */
+    public CompletableFuture<Long> sadd(final String key, final String... values) {
+        return supplyAsync(() -> redisClient.sadd(key, values));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#sadd(int, String, String...)}
+     */
+    public CompletableFuture<Long> sadd(final int dbIndex, final String key, final String... values) {
+        return supplyAsync(() -> redisClient.sadd(dbIndex, key, values));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#srem(String, String...)}
+     */
+    public CompletableFuture<Long> srem(final String key, final String... values) {
+        return supplyAsync(() -> redisClient.srem(key, values));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#srem(int, String, String...)}
+     */
+    public CompletableFuture<Long> srem(final int dbIndex, final String key, final String... values) {
+        return supplyAsync(() -> redisClient.srem(dbIndex, key, values));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#scard(String)}
+     */
+    public CompletableFuture<Long> scard(final String key) {
+        return supplyAsync(() -> redisClient.scard(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#scard(int, String)}
+     */
+    public CompletableFuture<Long> scard(final int dbIndex, final String key) {
+        return supplyAsync(() -> redisClient.scard(dbIndex, key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#sismember(String, String)}
+     */
+    public CompletableFuture<Boolean> sismember(final String key, final String value) {
+        return supplyAsync(() -> redisClient.sismember(key, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#sismember(int, String, String)}
+     */
+    public CompletableFuture<Boolean> sismember(final int dbIndex, final String key, final String value) {
+        return supplyAsync(() -> redisClient.sismember(dbIndex, key, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#hset(String, String, String)}
+     */
+    public CompletableFuture<Long> hset(final String key, final String field, final String value) {
+        return supplyAsync(() -> redisClient.hset(key, field, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#hset(int, String, String, String)}
+     */
+    public CompletableFuture<Long> hset(final int dbIndex, final String key, final String field, final String value) {
+        return supplyAsync(() -> redisClient.hset(dbIndex, key, field, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#hmset(String, Map)}
+     */
+    public CompletableFuture<String> hmset(final String key, final Map<String, String> value) {
+        return supplyAsync(() -> redisClient.hmset(key, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#hmset(int, String, Map)}
+     */
+    public CompletableFuture<String> hmset(final int dbIndex, final String key, final Map<String, String> value) {
+        return supplyAsync(() -> redisClient.hmset(dbIndex, key, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#hget(String, String)}
+     */
+    public CompletableFuture<String> hget(final String key, final String field) {
+        return supplyAsync(() -> redisClient.hget(key, field));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#hget(int, String, String)}
+     */
+    public CompletableFuture<String> hget(final int dbIndex, final String key, final String field) {
+        return supplyAsync(() -> redisClient.hget(dbIndex, key, field));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#hgetAll(String)}
+     */
+    public CompletableFuture<Map<String, String>> hgetAll(final String key) {
+        return supplyAsync(() -> redisClient.hgetAll(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#hgetAll(int, String)}
+     */
+    public CompletableFuture<Map<String, String>> hgetAll(final int dbIndex, final String key) {
+        return supplyAsync(() -> redisClient.hgetAll(dbIndex, key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#hmget(String, String...)}
+     */
+    public CompletableFuture<List<String>> hmget(final String key, final String... fields) {
+        return supplyAsync(() -> redisClient.hmget(key, fields));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#hmget(int, String, String...)}
+     */
+    public CompletableFuture<List<String>> hmget(final int dbIndex, final String key, final String... fields) {
+        return supplyAsync(() -> redisClient.hmget(dbIndex, key, fields));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#remove(String)}
+     */
+    public CompletableFuture<Long> remove(final String key) {
+        return supplyAsync(() -> redisClient.remove(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#remove(int, String)}
+     */
+    public CompletableFuture<Long> remove(final int dbIndex, final String key) {
+        return supplyAsync(() -> redisClient.remove(dbIndex, key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#rename(String, String)}
+     */
+    public CompletableFuture<String> rename(final String oldkey, final String newkey) {
+        return supplyAsync(() -> redisClient.rename(oldkey, newkey));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#rename(int, String, String)}
+     */
+    public CompletableFuture<String> rename(final int dbIndex, final String oldkey, final String newkey) {
+        return supplyAsync(() -> redisClient.rename(dbIndex, oldkey, newkey));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#exists(String)}
+     */
+    public CompletableFuture<Boolean> exists(final String key) {
+        return supplyAsync(() -> redisClient.exists(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#exists(int, String)}
+     */
+    public CompletableFuture<Boolean> exists(final int dbIndex, final String key) {
+        return supplyAsync(() -> redisClient.exists(dbIndex, key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#ping()}
+     */
+    public CompletableFuture<String> ping() {
+        return supplyAsync(() -> redisClient.ping());
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#doTransaction(RedisClient.TransactionAction)}
+     */
+    public CompletableFuture<List<Object>> doTransaction(final RedisClient.TransactionAction transactionAction) {
+        return supplyAsync(() -> redisClient.doTransaction(transactionAction));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#doPipline(RedisClient.PiplineAction)}
+     */
+    public CompletableFuture<Void> doPipline(final RedisClient.PiplineAction piplineAction) {
+        return runAsync(() -> redisClient.doPipline(piplineAction));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#doPiplineAndReturn(RedisClient.PiplineAction)}
+     */
+    public CompletableFuture<List<Object>> doPiplineAndReturn(final RedisClient.PiplineAction piplineAction) {
+        return supplyAsync(() -> redisClient.doPiplineAndReturn(piplineAction));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#keys(int, String)}
+     */
+    public CompletableFuture<Set<String>> keys(final int dbIndex, final String pattern) {
+        return supplyAsync(() -> redisClient.keys(dbIndex, pattern));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#lpush(String, String...)}
+     */
+    public CompletableFuture<Long> lpush(final String key, final String... values) {
+        return supplyAsync(() -> redisClient.lpush(key, values));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#lpush(int, String, String...)}
+     */
+    public CompletableFuture<Long> lpush(final int dbIndex, final String key, final String... values) {
+        return supplyAsync(() -> redisClient.lpush(dbIndex, key, values));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#rpush(String, String...)}
+     */
+    public CompletableFuture<Long> rpush(final String key, final String... values) {
+        return supplyAsync(() -> redisClient.rpush(key, values));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#rpush(int, String, String...)}
+     */
+    public CompletableFuture<Long> rpush(final int dbIndex, final String key, final String... values) {
+        return supplyAsync(() -> redisClient.rpush(dbIndex, key, values));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#lrange(String, long, long)}
+     */
+    public CompletableFuture<List<String>> lrange(final String key, final long start, final long end) {
+        return supplyAsync(() -> redisClient.lrange(key, start, end));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#lrange(int, String, long, long)}
+     */
+    public CompletableFuture<List<String>> lrange(final int dbIndex, final String key, final long start,
+            final long end) {
+        return supplyAsync(() -> redisClient.lrange(dbIndex, key, start, end));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#lset(String, long, String)}
+     */
+    public CompletableFuture<String> lset(final String key, final long index, final String value) {
+        return supplyAsync(() -> redisClient.lset(key, index, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#lset(int, String, long, String)}
+     */
+    public CompletableFuture<String> lset(final int dbIndex, final String key, final long index, final String value) {
+        return supplyAsync(() -> redisClient.lset(dbIndex, key, index, value));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#ltrim(String, long, long)}
+     */
+    public CompletableFuture<String> ltrim(final String key, final long start, final long end) {
+        return supplyAsync(() -> redisClient.ltrim(key, start, end));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#ltrim(int, String, long, long)}
+     */
+    public CompletableFuture<String> ltrim(final int dbIndex, final String key, final long start, final long end) {
+        return supplyAsync(() -> redisClient.ltrim(dbIndex, key, start, end));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#expire(String, int)}
+     */
+    public CompletableFuture<Long> expire(final String key, final int seconds) {
+        return supplyAsync(() -> redisClient.expire(key, seconds));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#expire(int, String, int)}
+     */
+    public CompletableFuture<Long> expire(final int dbIndex, final String key, final int seconds) {
+        return supplyAsync(() -> redisClient.expire(dbIndex, key, seconds));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#del(int, String)}
+     */
+    public CompletableFuture<Long> del(final int dbIndex, final String key) {
+        return supplyAsync(() -> redisClient.del(dbIndex, key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#del(String)}
+     */
+    public CompletableFuture<Long> del(final String key) {
+        return supplyAsync(() -> redisClient.del(key));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zadd(int, String, Map)}
+     */
+    public CompletableFuture<Long> zadd(final int dbIndex, final String key, final Map<String, Double> scoreMembers) {
+        return supplyAsync(() -> redisClient.zadd(dbIndex, key, scoreMembers));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zadd(String, Map)}
+     */
+    public CompletableFuture<Long> zadd(final String key, final Map<String, Double> scoreMembers) {
+        return supplyAsync(() -> redisClient.zadd(key, scoreMembers));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zadd(int, String, double, String)}
+     */
+    public CompletableFuture<Long> zadd(final int dbIndex, final String key, final double score, final String member) {
+        return supplyAsync(() -> redisClient.zadd(dbIndex, key, score, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zadd(String, double, String)}
+     */
+    public CompletableFuture<Long> zadd(final String key, final double score, final String member) {
+        return supplyAsync(() -> redisClient.zadd(key, score, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zincrby(int, String, double, String)}
+     */
+    public CompletableFuture<Double> zincrby(final int dbIndex, final String key, final double score,
+            final String member) {
+        return supplyAsync(() -> redisClient.zincrby(dbIndex, key, score, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zincrby(String, double, String)}
+     */
+    public CompletableFuture<Double> zincrby(final String key, final double score, final String member) {
+        return supplyAsync(() -> redisClient.zincrby(key, score, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zrangeWithScores(int, String, long, long)}
+     */
+    public CompletableFuture<Set<Tuple>> zrangeWithScores(final int dbIndex, final String key,
+            final long start, final long end) {
+        return supplyAsync(() -> redisClient.zrangeWithScores(dbIndex, key, start, end));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zrangeWithScores(String, long, long)}
+     */
+    public CompletableFuture<Set<Tuple>> zrangeWithScores(final String key, final long start, final long end) {
+        return supplyAsync(() -> redisClient.zrangeWithScores(key, start, end));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zrevrangeWithScores(int, String, long, long)}
+     */
+    public CompletableFuture<Set<Tuple>> zrevrangeWithScores(final int dbIndex, final String key,
+            final long start, final long end) {
+        return supplyAsync(() -> redisClient.zrevrangeWithScores(dbIndex, key, start, end));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zrevrangeWithScores(String, long, long)}
+     */
+    public CompletableFuture<Set<Tuple>> zrevrangeWithScores(final String key, final long start, final long end) {
+        return supplyAsync(() -> redisClient.zrevrangeWithScores(key, start, end));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zscore(int, String, String)}
+     */
+    public CompletableFuture<Double> zscore(final int dbIndex, final String key, final String member) {
+        return supplyAsync(() -> redisClient.zscore(dbIndex, key, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zscore(String, String)}
+     */
+    public CompletableFuture<Double> zscore(final String key, final String member) {
+        return supplyAsync(() -> redisClient.zscore(key, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zrank(int, String, String)}
+     */
+    public CompletableFuture<Long> zrank(final int dbIndex, final String key, final String member) {
+        return supplyAsync(() -> redisClient.zrank(dbIndex, key, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zrank(String, String)}
+     */
+    public CompletableFuture<Long> zrank(final String key, final String member) {
+        return supplyAsync(() -> redisClient.zrank(key, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zrevrank(int, String, String)}
+     */
+    public CompletableFuture<Long> zrevrank(final int dbIndex, final String key, final String member) {
+        return supplyAsync(() -> redisClient.zrevrank(dbIndex, key, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zrevrank(String, String)}
+     */
+    public CompletableFuture<Long> zrevrank(final String key, final String member) {
+        return supplyAsync(() -> redisClient.zrevrank(key, member));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zrem(int, String, String...)}
+     */
+    public CompletableFuture<Long> zrem(final int dbIndex, final String key, final String... members) {
+        return supplyAsync(() -> redisClient.zrem(dbIndex, key, members));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zrem(String, String...)}
+     */
+    public CompletableFuture<Long> zrem(final String key, final String... members) {
+        return supplyAsync(() -> redisClient.zrem(key, members));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zremrangeByRank(int, String, long, long)}
+     */
+    public CompletableFuture<Long> zremrangeByRank(final int dbIndex, final String key, final long start,
+            final long end) {
+        return supplyAsync(() -> redisClient.zremrangeByRank(dbIndex, key, start, end));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#zremrangeByRank(String, long, long)}
+     */
+    public CompletableFuture<Long> zremrangeByRank(final String key, final long start, final long end) {
+        return supplyAsync(() -> redisClient.zremrangeByRank(key, start, end));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#publish(int, String, String)}
+     */
+    public CompletableFuture<Long> publish(final int dbIndex, final String channel, final String message) {
+        return supplyAsync(() -> redisClient.publish(dbIndex, channel, message));
+    }
+
+    /**
+     * 异步执行 {@link RedisClient#publish(String, String)}
+     */
+    public CompletableFuture<Long> publish(final String channel, final String message) {
+        return supplyAsync(() -> redisClient.publish(channel, message));
+    }
+
+    private static final class AsyncTask<T> implements Runnable {
+
+        private final Supplier<T> supplier;
+
+        private final CompletableFuture<T> future;
+
+        AsyncTask(Supplier<T> supplier, CompletableFuture<T> future) {
+            this.supplier = supplier;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        void reject() {
+            future.completeExceptionally(new CsRedisRuntimeException("async redis executor is shutdown"));
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.rickiyang.redis.redis;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rickiyang.redis.exception.CsRedisRuntimeException;
+import com.rickiyang.redis.redis.monitor.CommandContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * @date: 2021/12/08 3:20 下午
+ * @author: rickiyang
+ * @Description: 自动管道，把并发提交到同一个连接池的单key命令合并成一个pipeline发送
+ * </br>
+ * 调度线程在 windowMicros 时间窗口内或攒够 maxBatchSize 条命令后，按连接池分组，
+ * 每组借用一个连接执行一次 pipeline，再把结果交还给等待中的调用线程
+ */
+public class AutoPipeliner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AutoPipeliner.class);
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 128;
+
+    public static final long DEFAULT_WINDOW_MICROS = 200;
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 65536;
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 2L * Protocol.DEFAULT_TIMEOUT;
+
+    private final int maxBatchSize;
+
+    private final long windowNanos;
+
+    private final long timeoutMillis;
+
+    private final BlockingQueue<PipelinedCommand<?>> queue = new LinkedBlockingQueue<>(DEFAULT_QUEUE_CAPACITY);
+
+    private final ExecutorService flushExecutor;
+
+    private final Thread dispatcher;
+
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    public AutoPipeliner() {
+        this(DEFAULT_MAX_BATCH_SIZE, DEFAULT_WINDOW_MICROS);
+    }
+
+    /**
+     * @param maxBatchSize 单个pipeline最多合并的命令数，小于等于0时使用默认值
+     * @param windowMicros 收集命令的时间窗口(微秒)，小于等于0时使用默认值
+     */
+    public AutoPipeliner(int maxBatchSize, long windowMicros) {
+        this(maxBatchSize, windowMicros, 0);
+    }
+
+    /**
+     * @param maxBatchSize  单个pipeline最多合并的命令数，小于等于0时使用默认值
+     * @param windowMicros  收集命令的时间窗口(微秒)，小于等于0时使用默认值
+     * @param timeoutMillis 调用线程等待结果的最长时间，应大于借连接的等待时间加上 socket timeout，小于等于0时使用默认值
+     */
+    public AutoPipeliner(int maxBatchSize, long windowMicros, long timeoutMillis) {
+        this.maxBatchSize = maxBatchSize > 0 ? maxBatchSize : DEFAULT_MAX_BATCH_SIZE;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros > 0 ? windowMicros : DEFAULT_WINDOW_MICROS);
+        this.timeoutMillis = timeoutMillis > 0 ? timeoutMillis : DEFAULT_TIMEOUT_MILLIS;
+        this.flushExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new ThreadFactoryBuilder().setNameFormat("redis-auto-pipeline-flush-%d").setDaemon(true).build());
+        this.dispatcher = new Thread(this::dispatch, "redis-auto-pipeline-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * 提交一条命令并等待其结果
+     *
+     * @param jedisPool 命令需要发往的连接池
+     * @param dbIndex   db的索引值
+     * @param command   在pipeline上追加命令的函数
+     * @return 命令的返回值
+     */
+    public <T> T execute(JedisPool jedisPool, int dbIndex, Function<Pipeline, Response<T>> command) {
+        return execute(jedisPool, dbIndex, command, null);
+    }
+
+    /**
+     * 提交一条命令并等待其结果，命令所在的 pipeline 借到连接时记录到 context
+     *
+     * @param context 调用线程上已经开始的命令上下文，可以为null
+     */
+    public <T> T execute(JedisPool jedisPool, int dbIndex, Function<Pipeline, Response<T>> command,
+                         CommandContext context) {
+        if (!running.get()) {
+            throw new CsRedisRuntimeException("auto pipeliner has been shutdown");
+        }
+        PipelinedCommand<T> pipelinedCommand = new PipelinedCommand<>(jedisPool, dbIndex, command);
+        try {
+            queue.put(pipelinedCommand);
+            // 通过上面的检查后 shutdown 可能已经结束，调度线程不会再取走这条命令
+            if (!running.get() && queue.remove(pipelinedCommand)) {
+                throw new CsRedisRuntimeException("auto pipeliner has been shutdown");
+            }
+            T result;
+            try {
+                result = pipelinedCommand.future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } finally {
+                long borrowedNanos = pipelinedCommand.borrowedNanos;
+                if (context != null && borrowedNanos != 0) {
+                    context.borrowed(borrowedNanos);
+                }
+            }
+            return result;
+        } catch (TimeoutException e) {
+            throw new CsRedisRuntimeException("timeout waiting for pipelined reply after " + timeoutMillis + "ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CsRedisRuntimeException("interrupted while waiting for pipelined reply", e);
+        } catch (ExecutionException e) {
+            throw new CsRedisRuntimeException("pipelined command fail", e.getCause());
+        }
+    }
+
+    private void dispatch() {
+        List<PipelinedCommand<?>> batch = new ArrayList<>(maxBatchSize);
+        while (running.get() || !queue.isEmpty()) {
+            try {
+                PipelinedCommand<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatchSize) {
+                    // 先把已经到达的命令一次性取走，队列空了再等待窗口剩余时间
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PipelinedCommand<?> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                submit(batch);
+                batch = new ArrayList<>(maxBatchSize);
+            } catch (InterruptedException e) {
+                if (!running.get()) {
+                    break;
+                }
+            } catch (Throwable e) {
+                LOGGER.error("auto pipeline dispatch error", e);
+                failAll(batch, e);
+                batch = new ArrayList<>(maxBatchSize);
+            }
+        }
+        // 被中断退出时队列里可能还有命令，全部置为失败
+        List<PipelinedCommand<?>> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        batch.addAll(remaining);
+        failAll(batch, new CsRedisRuntimeException("auto pipeliner has been shutdown"));
+    }
+
+    private void submit(List<PipelinedCommand<?>> batch) {
+        Map<JedisPool, List<PipelinedCommand<?>>> groups = new IdentityHashMap<>();
+        for (PipelinedCommand<?> command : batch) {
+            List<PipelinedCommand<?>> group = groups.get(command.jedisPool);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(command.jedisPool, group);
+            }
+            group.add(command);
+        }
+        for (Map.Entry<JedisPool, List<PipelinedCommand<?>>> entry : groups.entrySet()) {
+            final JedisPool jedisPool = entry.getKey();
+            final List<PipelinedCommand<?>> group = entry.getValue();
+            try {
+                flushExecutor.execute(() -> flush(jedisPool, group));
+            } catch (Exception e) {
+                failAll(group, e);
+            }
+        }
+    }
+
+    private void flush(JedisPool jedisPool, List<PipelinedCommand<?>> group) {
+        Jedis jedis = null;
+        try {
+            jedis = jedisPool.getResource();
+            long borrowedNanos = System.nanoTime();
+            for (PipelinedCommand<?> command : group) {
+                command.borrowedNanos = borrowedNanos;
+            }
+            Pipeline pipeline = jedis.pipelined();
+            long currentDb = jedis.getDB();
+            List<Response<?>> responses = new ArrayList<>(group.size());
+            for (PipelinedCommand<?> command : group) {
+                if (command.dbIndex != currentDb) {
+                    pipeline.select(command.dbIndex);
+                    currentDb = command.dbIndex;
+                }
+                responses.add(command.command.apply(pipeline));
+            }
+            pipeline.sync();
+            for (int i = 0; i < group.size(); i++) {
+                group.get(i).complete(responses.get(i));
+            }
+        } catch (Exception e) {
+            failAll(group, e);
+        } finally {
+            if (jedis != null) {
+                try {
+                    jedis.close();
+                } catch (Exception e) {
+                    LOGGER.warn("jedis.close failed", e);
+                }
+            }
+        }
+    }
+
+    private void failAll(List<PipelinedCommand<?>> commands, Throwable cause) {
+        for (PipelinedCommand<?> command : commands) {
+            command.future.completeExceptionally(cause);
+        }
+    }
+
+    public void shutdown() {
+        running.set(false);
+        dispatcher.interrupt();
+        try {
+            dispatcher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushExecutor.shutdown();
+        LOGGER.info("AutoPipeliner shutdown...");
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getWindowMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(windowNanos);
+    }
+
+    private static final class PipelinedCommand<T> {
+        private final JedisPool jedisPool;
+        private final int dbIndex;
+        private final Function<Pipeline, Response<T>> command;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        /**
+         * 所在 pipeline 借到连接的时间，为0表示还没有借到
+         */
+        private volatile long borrowedNanos;
+
+        private PipelinedCommand(JedisPool jedisPool, int dbIndex, Function<Pipeline, Response<T>> command) {
+            this.jedisPool = jedisPool;
+            this.dbIndex = dbIndex;
+            this.command = command;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete(Response<?> response) {
+            try {
+                future.complete(((Response<T>) response).get());
+            } catch (Exception e) {
+                // 单条命令返回错误时，不影响同一个pipeline中的其他命令
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
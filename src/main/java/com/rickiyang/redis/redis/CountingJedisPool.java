@@ -0,0 +1,61 @@
+package com.rickiyang.redis.redis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @date: 2022/01/07 10:00 上午
+ * @author: rickiyang
+ * @Description: 统计未完成请求数的连接池
+ * </br>
+ * 从调用 getResource 开始到连接归还为止计为一个未完成请求，包括在池中排队等待的调用方；
+ * commons-pool 的 getNumActive/getNumWaiters 读取时需要加锁，这里用原子计数代替，供选择连接池时无锁读取。
+ * 同一个实例上各个db的连接池共用一个计数器
+ */
+public class CountingJedisPool extends JedisPool {
+
+    private final AtomicInteger outstanding;
+
+    public CountingJedisPool(JedisPoolConfig poolConfig, String host, int port, int timeout,
+                             String password, int database, AtomicInteger outstanding) {
+        super(poolConfig, host, port, timeout, password, database);
+        this.outstanding = outstanding;
+    }
+
+    @Override
+    public Jedis getResource() {
+        outstanding.incrementAndGet();
+        try {
+            return super.getResource();
+        } catch (RuntimeException e) {
+            outstanding.decrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    public void returnResource(Jedis resource) {
+        if (resource != null) {
+            outstanding.decrementAndGet();
+        }
+        super.returnResource(resource);
+    }
+
+    @Override
+    public void returnBrokenResource(Jedis resource) {
+        if (resource != null) {
+            outstanding.decrementAndGet();
+        }
+        super.returnBrokenResource(resource);
+    }
+
+    /**
+     * @return 所在实例上正在使用或等待连接的请求数
+     */
+    public int getOutstanding() {
+        return Math.max(outstanding.get(), 0);
+    }
+}
@@ -0,0 +1,148 @@
+package com.rickiyang.redis.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @date: 2021/12/10 11:05 上午
+ * @author: rickiyang
+ * @Description: 同一个redis实例按db划分的连接池
+ * </br>
+ * 非默认db的连接池在第一次使用时创建，池中的连接在建立时就已经 select 到对应的db，
+ * 访问非默认db的命令不再需要额外的 select 往返
+ */
+public class DatabasePools {
+
+    private static final Logger log = LoggerFactory.getLogger(DatabasePools.class);
+
+    private final JedisPool defaultPool;
+
+    private final int defaultDatabase;
+
+    private final JedisPoolConfig poolConfig;
+
+    private final String host;
+
+    private final int port;
+
+    private final int timeout;
+
+    private final String password;
+
+    private final ConcurrentHashMap<Integer, JedisPool> pools = new ConcurrentHashMap<>();
+
+    /**
+     * 本实例上所有db连接池共用的未完成请求计数
+     */
+    private final AtomicInteger outstanding;
+
+    /**
+     * @param defaultPool     默认db的连接池，由调用方负责销毁
+     * @param defaultDatabase 默认连接池所在的db
+     */
+    public DatabasePools(JedisPool defaultPool, int defaultDatabase, JedisPoolConfig poolConfig, String host,
+                         int port, int timeout, String password) {
+        this(defaultPool, defaultDatabase, poolConfig, host, port, timeout, password, new AtomicInteger());
+    }
+
+    /**
+     * @param outstanding 未完成请求计数，defaultPool 为 {@link CountingJedisPool} 时传入它使用的计数器
+     */
+    public DatabasePools(JedisPool defaultPool, int defaultDatabase, JedisPoolConfig poolConfig, String host,
+                         int port, int timeout, String password, AtomicInteger outstanding) {
+        this.outstanding = outstanding;
+        this.defaultPool = defaultPool;
+        this.defaultDatabase = defaultDatabase;
+        this.poolConfig = poolConfig;
+        this.host = host;
+        this.port = port;
+        this.timeout = timeout;
+        this.password = password;
+    }
+
+    /**
+     * 获取指定db的连接池
+     *
+     * @param dbIndex db的索引值
+     * @return 连接已经选中dbIndex的连接池
+     */
+    public JedisPool getPool(int dbIndex) {
+        if (dbIndex == defaultDatabase) {
+            return defaultPool;
+        }
+        JedisPool pool = pools.get(dbIndex);
+        if (pool != null) {
+            return pool;
+        }
+        return pools.computeIfAbsent(dbIndex, db -> {
+            log.info("create jedisPool for db {} at {}:{}", db, host, port);
+            return new CountingJedisPool(poolConfig, host, port, timeout, password, db, outstanding);
+        });
+    }
+
+    /**
+     * @return pool 所在的db，不是本实例的连接池时返回-1
+     */
+    public int getDatabase(JedisPool pool) {
+        if (pool == defaultPool) {
+            return defaultDatabase;
+        }
+        for (Map.Entry<Integer, JedisPool> entry : pools.entrySet()) {
+            if (entry.getValue() == pool) {
+                return entry.getKey();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return 默认连接池和已经创建的db连接池
+     */
+    public List<JedisPool> getPools() {
+        List<JedisPool> result = new ArrayList<>(pools.size() + 1);
+        result.add(defaultPool);
+        result.addAll(pools.values());
+        return result;
+    }
+
+    /**
+     * @return pool 是否是本实例上某个db的连接池
+     */
+    public boolean contains(JedisPool pool) {
+        return pool == defaultPool || pools.containsValue(pool);
+    }
+
+    public JedisPool getDefaultPool() {
+        return defaultPool;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * 销毁按需创建的db连接池，默认连接池不在这里销毁
+     */
+    public void destroy() {
+        for (JedisPool pool : pools.values()) {
+            try {
+                pool.destroy();
+            } catch (Exception e) {
+                log.warn("destroy db jedisPool fail " + host + ":" + port, e);
+            }
+        }
+        pools.clear();
+    }
+}
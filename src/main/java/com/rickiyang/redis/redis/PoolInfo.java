@@ -0,0 +1,61 @@
+package com.rickiyang.redis.redis;
+
+import redis.clients.jedis.HostAndPort;
+
+/**
+ * @date: 2021/12/30 10:20 上午
+ * @author: rickiyang
+ * @Description: 连接池指向的实例和角色，用于按实例汇总监控数据
+ */
+public class PoolInfo {
+
+    public enum Role {
+        MASTER, SLAVE
+    }
+
+    private final Role role;
+
+    private final HostAndPort hostAndPort;
+
+    private final int database;
+
+    private final String name;
+
+    public PoolInfo(Role role, HostAndPort hostAndPort, int database) {
+        this.role = role;
+        this.hostAndPort = hostAndPort;
+        this.database = database;
+        this.name = role.name().toLowerCase() + "@" + hostAndPort;
+    }
+
+    public PoolInfo(Role role, String host, int port, int database) {
+        this(role, new HostAndPort(host, port), database);
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public HostAndPort getHostAndPort() {
+        return hostAndPort;
+    }
+
+    /**
+     * @return 连接池中的连接选中的db
+     */
+    public int getDatabase() {
+        return database;
+    }
+
+    /**
+     * @return 形如 master@127.0.0.1:6379，同一实例上不同db的连接池名称相同
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
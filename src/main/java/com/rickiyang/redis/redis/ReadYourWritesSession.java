@@ -0,0 +1,100 @@
+package com.rickiyang.redis.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @date: 2022/01/11 10:00 上午
+ * @author: rickiyang
+ * @Description: 读自己写的会话，通过 {@link RedisClient#readYourWrites(ReadYourWritesSession)} 绑定到当前线程
+ * </br>
+ * 会话内访问主库时只做标记，下一次读从库前在主库上查询一次 master_repl_offset 作为需要的偏移量，
+ * 连续多次写只查询一次；之后的读只发往复制偏移量已经达到该值的从库，没有这样的从库时读主库
+ * </br>
+ * 会话可以保存下来(如放在用户的登录态里)在后续请求中再次绑定，一个会话只用于同一个 RedisClient；
+ * 绑定只对当前线程生效，AsyncRedisClient 等在其它线程执行的命令不受会话约束
+ */
+public class ReadYourWritesSession {
+
+    private static final Logger log = LoggerFactory.getLogger(ReadYourWritesSession.class);
+
+    /**
+     * 无法确认从库是否追上时使用的偏移量，读请求直接发往主库
+     */
+    static final long MASTER_ONLY = Long.MAX_VALUE;
+
+    private volatile boolean pendingWrite;
+
+    private final AtomicLong requiredOffset = new AtomicLong();
+
+    /**
+     * @return 会话内是否写过，没有写过的会话读请求和平时一样选择从库
+     */
+    public boolean hasWrites() {
+        return pendingWrite || requiredOffset.get() > 0;
+    }
+
+    /**
+     * @return 读请求需要从库达到的复制偏移量，还没有查询过主库时为0
+     */
+    public long getRequiredOffset() {
+        return requiredOffset.get();
+    }
+
+    void markWrite() {
+        if (!pendingWrite) {
+            pendingWrite = true;
+        }
+    }
+
+    /**
+     * 有未确认的写时先查询主库的偏移量
+     *
+     * @return 从库需要达到的偏移量，无法查询时为 {@link #MASTER_ONLY}
+     */
+    long resolveRequiredOffset(AbstractClientFactory factory) {
+        if (pendingWrite) {
+            // 先清除标记再查询，查询期间的写会重新标记
+            pendingWrite = false;
+            long offset;
+            try {
+                offset = factory.getMasterReplicationOffset();
+            } catch (Exception e) {
+                log.warn("get master replication offset fail, read from master: {}", e.getMessage());
+                offset = -1;
+            }
+            if (offset < 0) {
+                pendingWrite = true;
+                return MASTER_ONLY;
+            }
+            requiredOffset.accumulateAndGet(offset, Math::max);
+        }
+        return requiredOffset.get();
+    }
+
+    /**
+     * 会话在当前线程上的绑定，close 时恢复之前绑定的会话
+     */
+    public static final class Scope implements AutoCloseable {
+
+        private final ReadYourWritesSession session;
+
+        private final Runnable restore;
+
+        Scope(ReadYourWritesSession session, Runnable restore) {
+            this.session = session;
+            this.restore = restore;
+        }
+
+        public ReadYourWritesSession getSession() {
+            return session;
+        }
+
+        @Override
+        public void close() {
+            restore.run();
+        }
+    }
+}
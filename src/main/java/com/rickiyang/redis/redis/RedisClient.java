@@ -1,11 +1,37 @@
 package com.rickiyang.redis.redis;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.rickiyang.redis.exception.CsRedisRuntimeException;
+import com.rickiyang.redis.redis.bigkey.BigReplyDetector;
+import com.rickiyang.redis.redis.cache.NearCache;
+import com.rickiyang.redis.redis.codec.JacksonCodec;
+import com.rickiyang.redis.redis.codec.RedisCodec;
+import com.rickiyang.redis.redis.codec.ValueCompressor;
+import com.rickiyang.redis.redis.monitor.CommandContext;
+import com.rickiyang.redis.redis.monitor.CommandListener;
+import com.rickiyang.redis.redis.monitor.ReplySizes;
+import com.rickiyang.redis.redis.scan.ScanIterator;
+import com.rickiyang.redis.redis.script.RedisScript;
+import com.rickiyang.redis.redis.script.ScriptRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.*;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.util.SafeEncoder;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 /**
  * @date: 2021/11/16 9:59 上午
@@ -14,8 +40,61 @@ import java.util.*;
  */
 public class RedisClient {
     private static final Logger LOGGER = LoggerFactory.getLogger(RedisClient.class);
+
+    public static final int DEFAULT_MULTI_KEY_CHUNK_SIZE = 500;
     private AbstractClientFactory factory;
 
+    /**
+     * 自动管道，为空时 get/set 直接在借用的连接上执行
+     */
+    private volatile AutoPipeliner autoPipeliner;
+
+    /**
+     * 近端缓存，为空时读操作直接访问redis
+     */
+    private volatile NearCache nearCache;
+
+    private final ScriptRegistry scriptRegistry = new ScriptRegistry();
+
+    /**
+     * 对象类型 value 的编解码，默认 jackson JSON 字节
+     */
+    private volatile RedisCodec<Object> codec = new JacksonCodec();
+
+    /**
+     * byte[] value 的压缩，为空时不压缩也不解压
+     */
+    private volatile ValueCompressor compressor;
+
+    /**
+     * mget/mset 每个分片的key数量，小于等于0时不拆分
+     */
+    private volatile int multiKeyChunkSize = DEFAULT_MULTI_KEY_CHUNK_SIZE;
+
+    /**
+     * mget 分片并行执行的线程池，为空时在调用线程上顺序执行，见 {@link #setMultiKeyParallelism(int)}
+     */
+    private volatile ExecutorService multiKeyExecutor;
+
+    private static final CommandListener[] NO_COMMAND_LISTENERS = new CommandListener[0];
+
+    /**
+     * 命令执行的监听器，写时复制，执行命令时只读取数组
+     */
+    private volatile CommandListener[] commandListeners = NO_COMMAND_LISTENERS;
+
+    /**
+     * 超大回复检测，为空时不测量回复大小
+     */
+    private volatile BigReplyDetector bigReplyDetector;
+
+    private static final ThreadLocal<CommandContext> COMMAND_CONTEXT = ThreadLocal.withInitial(CommandContext::new);
+
+    /**
+     * 当前线程绑定的读自己写会话
+     */
+    private final ThreadLocal<ReadYourWritesSession> readYourWritesSession = new ThreadLocal<>();
+
     public AbstractClientFactory getFactory() {
         return factory;
     }
@@ -24,6 +103,370 @@ public class RedisClient {
         this.factory = factory;
     }
 
+    public AutoPipeliner getAutoPipeliner() {
+        return autoPipeliner;
+    }
+
+    /**
+     * 开启自动管道后，并发的 getAndReturn/setAndReturn 会被合并成pipeline发送，调用方式不变
+     *
+     * @param autoPipeliner 自动管道，传null关闭
+     */
+    public void setAutoPipeliner(AutoPipeliner autoPipeliner) {
+        this.autoPipeliner = autoPipeliner;
+    }
+
+    /**
+     * 在当前线程上开启一个新的读自己写会话
+     *
+     * @return 会话的绑定，用 try-with-resources 结束
+     * @see #readYourWrites(ReadYourWritesSession)
+     */
+    public ReadYourWritesSession.Scope readYourWrites() {
+        return readYourWrites(new ReadYourWritesSession());
+    }
+
+    /**
+     * 把会话绑定到当前线程，绑定期间读从库的命令只发往已经复制到会话内最后一次写的从库，
+     * 没有这样的从库时读主库；会话内没有写过时和平时一样选择从库
+     * </br>
+     * 会话内访问主库都当作写；只有 sentinel 模式能查询从库的复制偏移量，其它模式下写过之后的读都发往主库
+     *
+     * @param session 之前创建的会话，可以跨请求保存
+     * @return 会话的绑定，close 时恢复之前绑定的会话
+     */
+    public ReadYourWritesSession.Scope readYourWrites(ReadYourWritesSession session) {
+        ReadYourWritesSession previous = readYourWritesSession.get();
+        readYourWritesSession.set(session);
+        return new ReadYourWritesSession.Scope(session, () -> {
+            if (previous == null) {
+                readYourWritesSession.remove();
+            } else {
+                readYourWritesSession.set(previous);
+            }
+        });
+    }
+
+    /**
+     * @return lua脚本注册表，在 sentinel 模式下注册为 {@link com.rickiyang.redis.redis.sentinel.MasterSwitchListener}
+     * 可以在主从切换后预加载脚本
+     */
+    public ScriptRegistry getScriptRegistry() {
+        return scriptRegistry;
+    }
+
+    public RedisCodec<Object> getCodec() {
+        return codec;
+    }
+
+    /**
+     * 替换 set(key, T)/get(key, Class) 使用的编解码，已写入的数据需要能被新的编解码读取
+     *
+     * @param codec 编解码，如 {@link JacksonCodec}、{@link com.rickiyang.redis.redis.codec.SmileCodec}
+     */
+    public void setCodec(RedisCodec<Object> codec) {
+        if (codec == null) {
+            throw new IllegalArgumentException("codec should not be null");
+        }
+        this.codec = codec;
+    }
+
+    public ValueCompressor getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * 开启后 byte[] 的 setAndReturn/mSetAndReturn 和 set(key, T) 写入超过阈值的 value 会被压缩，
+     * getAndReturn(byte[])/mGetAndReturn(byte[]...)/get(key, Class) 读取时透明解压，未压缩的旧值原样返回
+     * </br>
+     * 解压只检查头部，不受是否设置压缩器影响，关闭或回滚压缩后已经写入的压缩值仍然可以读取
+     *
+     * @param compressor 压缩器，传null时不再压缩新写入的 value
+     */
+    public void setCompressor(ValueCompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    private byte[] compress(byte[] value) {
+        ValueCompressor c = compressor;
+        return c == null ? value : c.compress(value);
+    }
+
+    private byte[] decompress(byte[] value) {
+        return ValueCompressor.decompress(value);
+    }
+
+    private List<byte[]> decompressAll(List<byte[]> values) {
+        if (values != null) {
+            for (ListIterator<byte[]> it = values.listIterator(); it.hasNext(); ) {
+                it.set(ValueCompressor.decompress(it.next()));
+            }
+        }
+        return values;
+    }
+
+    private byte[][] compressKeysValues(byte[]... keysValues) {
+        if (compressor == null) {
+            return keysValues;
+        }
+        byte[][] stored = keysValues.clone();
+        for (int i = 1; i < stored.length; i += 2) {
+            stored[i] = compress(stored[i]);
+        }
+        return stored;
+    }
+
+    public int getMultiKeyChunkSize() {
+        return multiKeyChunkSize;
+    }
+
+    /**
+     * 超过该数量的 mGetAndReturn/mSetAndReturn 会拆分成多个命令发送，避免单个超大回复阻塞redis和撑大客户端堆内存
+     *
+     * @param multiKeyChunkSize 每个分片的key数量，小于等于0时不拆分
+     */
+    public void setMultiKeyChunkSize(int multiKeyChunkSize) {
+        this.multiKeyChunkSize = multiKeyChunkSize;
+    }
+
+    /**
+     * 设置后 mGetAndReturn 的分片在各个从库上并行执行，按原始顺序合并结果；线程池满或已关闭时分片在调用线程上执行
+     *
+     * @param parallelism 并行执行的线程数，小于等于0时分片在调用线程上顺序执行
+     */
+    public synchronized void setMultiKeyParallelism(int parallelism) {
+        ExecutorService old = multiKeyExecutor;
+        if (parallelism > 0) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(parallelism * 16),
+                    new ThreadFactoryBuilder().setNameFormat("redis-multi-key-%d").setDaemon(true).build(),
+                    // 和 CallerRunsPolicy 不同，线程池被替换或关闭后也在调用线程执行，否则已提交的 future 永远不会完成
+                    (task, pool) -> task.run());
+            executor.allowCoreThreadTimeOut(true);
+            multiKeyExecutor = executor;
+        } else {
+            multiKeyExecutor = null;
+        }
+        if (old != null) {
+            old.shutdown();
+        }
+    }
+
+    /**
+     * 释放 RedisClient 自己创建的线程资源，连接池由 factory 负责销毁
+     */
+    public synchronized void shutdown() {
+        ExecutorService executor = multiKeyExecutor;
+        multiKeyExecutor = null;
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 添加命令监听器，之后每个借用连接执行的命令结束时回调，包括自动管道合并发送的命令；scan 迭代不会回调
+     *
+     * @param listener 监听器，如 {@link com.rickiyang.redis.redis.hotkey.HotKeyDetector}
+     */
+    public synchronized void addCommandListener(CommandListener listener) {
+        CommandListener[] listeners = Arrays.copyOf(commandListeners, commandListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        commandListeners = listeners;
+    }
+
+    public synchronized void removeCommandListener(CommandListener listener) {
+        List<CommandListener> listeners = new ArrayList<>(Arrays.asList(commandListeners));
+        if (listeners.remove(listener)) {
+            commandListeners = listeners.isEmpty() ? NO_COMMAND_LISTENERS
+                    : listeners.toArray(new CommandListener[0]);
+        }
+    }
+
+    public BigReplyDetector getBigReplyDetector() {
+        return bigReplyDetector;
+    }
+
+    /**
+     * 开启后 get/hgetAll/hmget/smembers/lrange/zrange/mget/keys 的回复超过阈值时被记录，并按检测器的保护模式拒绝或截断
+     * </br>
+     * 被拒绝时抛出的 CsRedisRuntimeException 的 cause 为 {@link com.rickiyang.redis.redis.bigkey.BigReplyException}
+     *
+     * @param bigReplyDetector 超大回复检测，传null关闭
+     */
+    public void setBigReplyDetector(BigReplyDetector bigReplyDetector) {
+        this.bigReplyDetector = bigReplyDetector;
+    }
+
+    private void rejectBigReply(String command, Object key) {
+        BigReplyDetector detector = bigReplyDetector;
+        if (detector != null) {
+            detector.checkRejected(command, key);
+        }
+    }
+
+    /**
+     * 测量回复大小，有监听器时记录到当前命令，开启超大回复检测时交给检测器处理
+     */
+    private <T> T inspectReply(JedisPool jedisPool, String command, Object key, T reply) {
+        BigReplyDetector detector = bigReplyDetector;
+        boolean listening = commandListeners.length > 0;
+        if (reply == null || detector == null && !listening) {
+            return reply;
+        }
+        long bytes = ReplySizes.bytes(reply);
+        int elements = ReplySizes.elements(reply);
+        if (listening) {
+            COMMAND_CONTEXT.get().reply(bytes, elements);
+        }
+        return detector == null ? reply : detector.inspect(jedisPool, command, key, reply, bytes, elements);
+    }
+
+    /**
+     * 借用连接，有监听器时开始记录本次命令，在 {@link #jedisClose(Jedis)} 中结束
+     */
+    private Jedis borrow(JedisPool jedisPool, String command, Object key) {
+        if (commandListeners.length == 0) {
+            return jedisPool.getResource();
+        }
+        CommandContext context = COMMAND_CONTEXT.get();
+        context.start(command, key, jedisPool);
+        Jedis jedis = jedisPool.getResource();
+        context.borrowed();
+        return jedis;
+    }
+
+    private Jedis borrow(JedisPool jedisPool, String command, Object[] keys, int keyStep) {
+        if (commandListeners.length == 0) {
+            return jedisPool.getResource();
+        }
+        CommandContext context = COMMAND_CONTEXT.get();
+        context.start(command, keys, keyStep, jedisPool);
+        Jedis jedis = jedisPool.getResource();
+        context.borrowed();
+        return jedis;
+    }
+
+    /**
+     * 通过自动管道执行单key命令，监听器看到的借连接耗时是在队列中等待合并和借连接的时间，
+     * 执行耗时是所在 pipeline 的往返时间；调用方和直接借连接一样在 finally 中调用 jedisClose(null)
+     */
+    private <T> T pipelined(AutoPipeliner pipeliner, JedisPool jedisPool, int dbIndex, String command, Object key,
+                            Function<Pipeline, Response<T>> operation) {
+        if (commandListeners.length == 0) {
+            return pipeliner.execute(jedisPool, dbIndex, operation);
+        }
+        CommandContext context = COMMAND_CONTEXT.get();
+        context.start(command, key, jedisPool);
+        return pipeliner.execute(jedisPool, dbIndex, operation, context);
+    }
+
+    private void fireCommand() {
+        CommandListener[] listeners = commandListeners;
+        if (listeners.length == 0) {
+            return;
+        }
+        CommandContext context = COMMAND_CONTEXT.get();
+        if (!context.finish()) {
+            return;
+        }
+        for (CommandListener listener : listeners) {
+            try {
+                listener.onCommand(context);
+            } catch (Exception e) {
+                LOGGER.warn("command listener " + listener + " fail", e);
+            }
+        }
+    }
+
+    public NearCache getNearCache() {
+        return nearCache;
+    }
+
+    /**
+     * 开启近端缓存后，getAndReturn/hgetAll/smembers 优先读取进程内缓存，写操作会失效对应的key
+     * </br>
+     * 命中缓存的 hgetAll/smembers 返回只读集合；eval、pipeline、事务中的写不会触发失效
+     *
+     * @param nearCache 近端缓存，传null关闭
+     */
+    public void setNearCache(NearCache nearCache) {
+        this.nearCache = nearCache;
+    }
+
+    /**
+     * 绕过 RedisClient 写入的key(如 pipeline、异步批量写)需要调用此方法失效近端缓存，未开启近端缓存时什么都不做
+     *
+     * @param dbIndex db的索引值
+     * @param keys    被修改的key
+     */
+    public void invalidateNearCache(int dbIndex, String... keys) {
+        NearCache cache = nearCache;
+        if (cache != null) {
+            cache.invalidate(dbIndex, keys);
+        }
+    }
+
+    private void invalidateNearCache(int dbIndex, byte[] key) {
+        NearCache cache = nearCache;
+        if (cache != null) {
+            cache.invalidate(dbIndex, SafeEncoder.encode(key));
+        }
+    }
+
+    private void invalidateNearCacheKeysValues(int dbIndex, String... keysValues) {
+        NearCache cache = nearCache;
+        if (cache != null) {
+            for (int i = 0; i < keysValues.length; i += 2) {
+                cache.invalidate(dbIndex, keysValues[i]);
+            }
+        }
+    }
+
+    private void invalidateNearCacheKeysValues(int dbIndex, byte[]... keysValues) {
+        NearCache cache = nearCache;
+        if (cache != null) {
+            for (int i = 0; i < keysValues.length; i += 2) {
+                cache.invalidate(dbIndex, SafeEncoder.encode(keysValues[i]));
+            }
+        }
+    }
+
+    /**
+     * 近端缓存未命中时，在主库上用一个pipeline同时读取值和剩余过期时间
+     * </br>
+     * 回填的值会在本地保留到 PTTL 或 maxTtl，从库上读到的旧值之后不会再被失效，所以不从从库加载
+     * </br>
+     * 缓存的集合对象会被多个调用方共享，通过 readOnly 包装成只读视图
+     */
+    private <T> NearCache.Loaded<T> loadNearCache(int dbIndex, String command, final String key,
+                                                  Function<Pipeline, Response<T>> read, UnaryOperator<T> readOnly) {
+        Jedis jedis = null;
+        JedisPool jedisPool = null;
+        try {
+            // 只读不写，不经过 getJedisMasterPool，避免把读自己写的会话标记为写过
+            jedisPool = factory.getMasterPool(dbIndex);
+            rejectBigReply(command, key);
+            jedis = borrow(jedisPool, command, key);
+            Pipeline pipeline = jedis.pipelined();
+            Response<T> value = read.apply(pipeline);
+            Response<Long> pttl = pipeline.pttl(key);
+            pipeline.sync();
+            T reply = value.get();
+            T result = inspectReply(jedisPool, command, key, reply);
+            if (result != reply) {
+                // 超大回复被截断，不完整的集合不能在 TTL 内当作完整值返回
+                return NearCache.Loaded.uncached(result == null ? null : readOnly.apply(result));
+            }
+            return new NearCache.Loaded<>(result == null ? null : readOnly.apply(result), pttl.get());
+        } catch (Exception e) {
+            exceptionHandler(jedisPool, jedis, e);
+            jedis = null;
+            throw new CsRedisRuntimeException("jedis get fail", e);
+        } finally {
+            jedisClose(jedis);
+        }
+    }
+
     /**
      * redis客户端构造器
      *
@@ -39,11 +482,15 @@ public class RedisClient {
     }
 
     private void exceptionHandler(JedisPool jedisPool, Jedis jedis, Exception e) {
+        if (commandListeners.length > 0) {
+            COMMAND_CONTEXT.get().fail(e);
+        }
         // 增加一层 try catch ，防止 io 异常，导致初始化失败
         jedisClose(jedis);
     }
 
     private void jedisClose(Jedis jedis) {
+        fireCommand();
         try {
             if (jedis != null) {
                 jedis.close();
@@ -63,6 +510,7 @@ public class RedisClient {
             throw new IllegalArgumentException("Initial a redisClient should first init a RedisClientFactory object,"
                     + " but the factory not be null!");
         }
+        markWrite();
         return factory.getMasterPool();
     }
 
@@ -76,9 +524,56 @@ public class RedisClient {
             throw new IllegalArgumentException("Initial a redisClient should first init a RedisClientFactory object,"
                     + " but the factory not be null!");
         }
+        ReadYourWritesSession session = readYourWritesSession.get();
+        if (session != null && session.hasWrites()) {
+            // 没有指定db的连接池不区分从库的偏移量，直接读主库
+            return factory.getMasterPool();
+        }
         return factory.getSlavePool();
     }
 
+    /**
+     * 获取master上指定db的pool，池中连接已选中该db，不需要再执行select
+     *
+     * @param dbIndex db的索引值
+     * @return Master的jedis资源池
+     */
+    public JedisPool getJedisMasterPool(int dbIndex) {
+        if (factory == null) {
+            throw new IllegalArgumentException("Initial a redisClient should first init a RedisClientFactory object,"
+                    + " but the factory not be null!");
+        }
+        markWrite();
+        return factory.getMasterPool(dbIndex);
+    }
+
+    /**
+     * 获取slave上指定db的pool，池中连接已选中该db，不需要再执行select
+     *
+     * @param dbIndex db的索引值
+     * @return Slave的jedis资源池
+     */
+    public JedisPool getJedisSlavePool(int dbIndex) {
+        if (factory == null) {
+            throw new IllegalArgumentException("Initial a redisClient should first init a RedisClientFactory object,"
+                    + " but the factory not be null!");
+        }
+        ReadYourWritesSession session = readYourWritesSession.get();
+        if (session != null && session.hasWrites()) {
+            long offset = session.resolveRequiredOffset(factory);
+            return offset == ReadYourWritesSession.MASTER_ONLY ? factory.getMasterPool(dbIndex)
+                    : factory.getSlavePool(dbIndex, offset);
+        }
+        return factory.getSlavePool(dbIndex);
+    }
+
+    private void markWrite() {
+        ReadYourWritesSession session = readYourWritesSession.get();
+        if (session != null) {
+            session.markWrite();
+        }
+    }
+
     /**
      * 执行set操作，然后释放client连接
      * </br>
@@ -95,13 +590,12 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-
-            // 如果为0,则不需通信表明select db0
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
+            jedisPool = getJedisMasterPool(dbIndex);
+            AutoPipeliner pipeliner = autoPipeliner;
+            if (pipeliner != null) {
+                return pipelined(pipeliner, jedisPool, dbIndex, "set", key, p -> p.set(key, value));
             }
+            jedis = borrow(jedisPool, "set", key);
             return jedis.set(key, value);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -109,6 +603,7 @@ public class RedisClient {
             throw new CsRedisRuntimeException("jedis set fail", e);
         } finally {
             jedisClose(jedis);
+            invalidateNearCache(dbIndex, key);
         }
     }
 
@@ -129,6 +624,8 @@ public class RedisClient {
 
     /**
      * 使用setnx命令探测
+     * </br>
+     * expire大于0时使用 SET NX EX 一次完成，不会出现设置成功但没有过期时间的key；需要锁语义时请使用 {@link com.rickiyang.redis.redis.lock.RedisLockManager}
      *
      * @param dbIndex
      * @param key
@@ -140,24 +637,19 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-
-            // 如果为0,则不需通信表明select db0
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "setnx", key);
+            if (expire > 0) {
+                return jedis.set(key, value, SetParams.setParams().nx().ex(expire)) == null ? 0 : 1;
             }
-            long t = jedis.setnx(key, value);
-            if (t == 1 && expire > 0) {
-                jedis.expire(key, expire);
-            }
-            return t;
+            return jedis.setnx(key, value);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
             jedis = null;
             throw new CsRedisRuntimeException("jedis setnx fail", e);
         } finally {
             jedisClose(jedis);
+            invalidateNearCache(dbIndex, key);
         }
     }
 
@@ -173,13 +665,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-
-            // 如果为0,则不需通信表明select db0
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "ttl", key);
             long t = jedis.ttl(key);
             return t;
         } catch (Exception e) {
@@ -193,6 +680,8 @@ public class RedisClient {
 
     /**
      * 在redis上执行相应的lua脚本
+     * </br>
+     * 脚本的SHA1只计算一次，实际发送 EVALSHA，实例上没有该脚本时退回 EVAL
      *
      * @param dbIndex
      * @param readonly 如果为true并且存在从库设置的情况下，在从库上执行
@@ -202,22 +691,50 @@ public class RedisClient {
      * @return Object 根据lua脚本实际返回类型决定
      */
     public Object eval(int dbIndex, boolean readonly, String script, List<String> keys, List<String> args) {
+        return evalsha(dbIndex, readonly, scriptRegistry.resolve(script, readonly), keys, args);
+    }
+
+    /**
+     * 注册lua脚本，注册过的脚本在主从切换后会预加载到新master(readonly脚本同时加载到从库)
+     *
+     * @param script   lua脚本
+     * @param readonly 是否只读，只读脚本在从库上执行
+     * @return 已注册的脚本，交给 {@link #evalsha(int, RedisScript, List, List)} 执行
+     */
+    public RedisScript registerScript(String script, boolean readonly) {
+        return scriptRegistry.register(script, readonly);
+    }
+
+    /**
+     * 执行已注册的lua脚本，readonly 脚本在从库上执行
+     *
+     * @param dbIndex
+     * @param script  {@link #registerScript(String, boolean)} 返回的脚本
+     * @param keys
+     * @param args
+     * @return Object 根据lua脚本实际返回类型决定
+     */
+    public Object evalsha(int dbIndex, RedisScript script, List<String> keys, List<String> args) {
+        return evalsha(dbIndex, script.isReadonly(), script, keys, args);
+    }
+
+    private Object evalsha(int dbIndex, boolean readonly, RedisScript script, List<String> keys, List<String> args) {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            if (readonly && null != getJedisSlavePool()) {
-                jedisPool = getJedisSlavePool();
-            } else {
-                jedisPool = getJedisMasterPool();
+            if (readonly) {
+                jedisPool = getJedisSlavePool(dbIndex);
             }
-            jedis = jedisPool.getResource();
-
-            // 如果为0,则不需通信表明select db0
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
+            if (jedisPool == null) {
+                jedisPool = getJedisMasterPool(dbIndex);
+            }
+            jedis = borrow(jedisPool, "evalsha", keys.isEmpty() ? null : keys.get(0));
+            try {
+                return jedis.evalsha(script.getSha1(), keys, args);
+            } catch (JedisNoScriptException e) {
+                // 实例重启、主从切换或新加入的从库上没有该脚本，EVAL 执行的同时会缓存脚本
+                return jedis.eval(script.getScript(), keys, args);
             }
-            Object obj = jedis.eval(script, keys, args);
-            return obj;
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
             jedis = null;
@@ -244,13 +761,12 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-
-            // 如果为0,则不需通信表明select db0
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
+            jedisPool = getJedisMasterPool(dbIndex);
+            AutoPipeliner pipeliner = autoPipeliner;
+            if (pipeliner != null) {
+                return pipelined(pipeliner, jedisPool, dbIndex, "setex", key, p -> p.setex(key, seconds, value));
             }
+            jedis = borrow(jedisPool, "setex", key);
             return jedis.setex(key, seconds, value);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -258,6 +774,7 @@ public class RedisClient {
             throw new CsRedisRuntimeException("jedis set fail", e);
         } finally {
             jedisClose(jedis);
+            invalidateNearCache(dbIndex, key);
         }
     }
 
@@ -294,19 +811,22 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
+            final byte[] stored = compress(value);
+            jedisPool = getJedisMasterPool(dbIndex);
+            AutoPipeliner pipeliner = autoPipeliner;
+            if (pipeliner != null) {
+                return pipelined(pipeliner, jedisPool, dbIndex, "setex", key,
+                        p -> p.setex(key, seconds, stored));
             }
-            return jedis.setex(key, seconds, value);
+            jedis = borrow(jedisPool, "setex", key);
+            return jedis.setex(key, seconds, stored);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
             jedis = null;
             throw new CsRedisRuntimeException("jedis set fail", e);
         } finally {
             jedisClose(jedis);
+            invalidateNearCache(dbIndex, key);
         }
     }
 
@@ -336,7 +856,7 @@ public class RedisClient {
         JedisPool jedisPool = null;
         try {
             jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
+            jedis = borrow(jedisPool, "info", null);
 
             return jedis.info();
         } catch (Exception e) {
@@ -360,6 +880,11 @@ public class RedisClient {
      * @return 返回key对应的value值
      */
     public String getAndReturn(int dbIndex, final String key) {
+        NearCache cache = nearCache;
+        if (cache != null && cache.isCacheable(key)) {
+            return cache.get(dbIndex, key, NearCache.Kind.STRING, () -> loadNearCache(dbIndex, "get", key,
+                    p -> p.get(key), UnaryOperator.identity()));
+        }
         return getAndReturnHandler(Boolean.FALSE, dbIndex, key);
     }
 
@@ -383,16 +908,18 @@ public class RedisClient {
         JedisPool jedisPool = null;
         try {
             if (fromMaster) {
-                jedisPool = getJedisMasterPool();
+                jedisPool = getJedisMasterPool(dbIndex);
             } else {
-                jedisPool = getJedisSlavePool();
+                jedisPool = getJedisSlavePool(dbIndex);
             }
-            jedis = jedisPool.getResource();
-
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
+            rejectBigReply("get", key);
+            AutoPipeliner pipeliner = autoPipeliner;
+            if (pipeliner != null) {
+                return inspectReply(jedisPool, "get", key,
+                        pipelined(pipeliner, jedisPool, dbIndex, "get", key, p -> p.get(key)));
             }
-            return jedis.get(key);
+            jedis = borrow(jedisPool, "get", key);
+            return inspectReply(jedisPool, "get", key, jedis.get(key));
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
             jedis = null;
@@ -446,19 +973,21 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
+            final byte[] stored = compress(value);
+            jedisPool = getJedisMasterPool(dbIndex);
+            AutoPipeliner pipeliner = autoPipeliner;
+            if (pipeliner != null) {
+                return pipelined(pipeliner, jedisPool, dbIndex, "set", key, p -> p.set(key, stored));
             }
-            return jedis.set(key, value);
+            jedis = borrow(jedisPool, "set", key);
+            return jedis.set(key, stored);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
             jedis = null;
             throw new CsRedisRuntimeException("jedis set fail", e);
         } finally {
             jedisClose(jedis);
+            invalidateNearCache(dbIndex, key);
         }
     }
 
@@ -492,13 +1021,15 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisSlavePool();
-            jedis = jedisPool.getResource();
-
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
+            jedisPool = getJedisSlavePool(dbIndex);
+            rejectBigReply("get", key);
+            AutoPipeliner pipeliner = autoPipeliner;
+            if (pipeliner != null) {
+                return inspectReply(jedisPool, "get", key,
+                        decompress(pipelined(pipeliner, jedisPool, dbIndex, "get", key, p -> p.get(key))));
             }
-            return jedis.get(key);
+            jedis = borrow(jedisPool, "get", key);
+            return inspectReply(jedisPool, "get", key, decompress(jedis.get(key)));
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
             jedis = null;
@@ -522,34 +1053,171 @@ public class RedisClient {
         return getAndReturn(0, key);
     }
 
+    /**
+     * 对象经 {@link #getCodec()} 直接编码成 byte[] 后 set，不经过中间的 JSON String
+     *
+     * @param dbIndex db的索引值
+     * @param key     set的key值
+     * @param value   key对应的对象，不能为null
+     * @return Status code reply
+     */
+    public <T> String set(int dbIndex, final String key, T value) {
+        return setAndReturn(dbIndex, SafeEncoder.encode(key), encode(value));
+    }
+
+    public <T> String set(final String key, T value) {
+        return set(0, key, value);
+    }
+
+    /**
+     * 对象经 {@link #getCodec()} 直接编码成 byte[] 后 setex
+     *
+     * @param dbIndex db的索引值
+     * @param key     set的key值
+     * @param value   key对应的对象，不能为null
+     * @param seconds 有效时间
+     * @return Status code reply
+     */
+    public <T> String set(int dbIndex, final String key, T value, int seconds) {
+        return setAndReturn(dbIndex, SafeEncoder.encode(key), encode(value), seconds);
+    }
+
+    public <T> String set(final String key, T value, int seconds) {
+        return set(0, key, value, seconds);
+    }
+
+    /**
+     * 读取 byte[] 后经 {@link #getCodec()} 解码成指定类型
+     *
+     * @param dbIndex db的索引值
+     * @param key     get的key值
+     * @param type    value的类型
+     * @return key不存在时返回null
+     */
+    public <T> T get(int dbIndex, final String key, Class<T> type) {
+        byte[] bytes = getAndReturn(dbIndex, SafeEncoder.encode(key));
+        return bytes == null ? null : codec.decode(bytes, type);
+    }
+
+    public <T> T get(final String key, Class<T> type) {
+        return get(0, key, type);
+    }
+
+    private byte[] encode(Object value) {
+        if (value == null) {
+            throw new CsRedisRuntimeException("Failed to encode value, which is null");
+        }
+        return codec.encode(value);
+    }
+
+    /**
+     * 按 multiKeyChunkSize 拆分mget，分片轮流分配到各个从库；有线程池时并行执行，第一个分片在调用线程上执行
+     */
+    private <K, V> List<V> chunkedMget(int dbIndex, K[] keys, BiFunction<Jedis, K[], List<V>> mget) {
+        int chunkSize = multiKeyChunkSize;
+        if (chunkSize <= 0 || keys.length <= chunkSize) {
+            return mgetChunk(getJedisSlavePool(dbIndex), keys, mget);
+        }
+        ReadYourWritesSession session = readYourWritesSession.get();
+        List<JedisPool> pools = session != null && session.hasWrites()
+                ? Collections.singletonList(getJedisSlavePool(dbIndex)) : factory.getSlavePools(dbIndex);
+        int chunks = (keys.length + chunkSize - 1) / chunkSize;
+        int offset = ThreadLocalRandom.current().nextInt(pools.size());
+        List<V> result = new ArrayList<>(keys.length);
+        ExecutorService executor = multiKeyExecutor;
+        if (executor == null) {
+            for (int i = 0; i < chunks; i++) {
+                K[] chunk = Arrays.copyOfRange(keys, i * chunkSize, Math.min(keys.length, (i + 1) * chunkSize));
+                result.addAll(mgetChunk(pools.get((offset + i) % pools.size()), chunk, mget));
+            }
+            return result;
+        }
+        List<Future<List<V>>> futures = new ArrayList<>(chunks - 1);
+        try {
+            for (int i = 1; i < chunks; i++) {
+                final K[] chunk = Arrays.copyOfRange(keys, i * chunkSize, Math.min(keys.length, (i + 1) * chunkSize));
+                final JedisPool pool = pools.get((offset + i) % pools.size());
+                futures.add(executor.submit(() -> mgetChunk(pool, chunk, mget)));
+            }
+            result.addAll(mgetChunk(pools.get(offset), Arrays.copyOf(keys, chunkSize), mget));
+            for (Future<List<V>> future : futures) {
+                result.addAll(future.get());
+            }
+            return result;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof CsRedisRuntimeException ? (CsRedisRuntimeException) cause
+                    : new CsRedisRuntimeException("jedis mget fail", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CsRedisRuntimeException("jedis mget interrupted", e);
+        } finally {
+            for (Future<List<V>> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private <K, V> List<V> mgetChunk(JedisPool jedisPool, K[] keys, BiFunction<Jedis, K[], List<V>> mget) {
+        Jedis jedis = null;
+        try {
+            jedis = borrow(jedisPool, "mget", keys, 1);
+            return inspectReply(jedisPool, "mget", keys.length == 0 ? null : keys[0], mget.apply(jedis, keys));
+        } catch (Exception e) {
+            exceptionHandler(jedisPool, jedis, e);
+            jedis = null;
+            throw new CsRedisRuntimeException("jedis mget fail", e);
+        } finally {
+            jedisClose(jedis);
+        }
+    }
+
+    /**
+     * 按 multiKeyChunkSize 拆分mset，在同一个连接上逐个分片发送，分片之间其他客户端的命令可以插入执行
+     * </br>
+     * 拆分后整体不再是原子操作，单个分片内仍是原子的
+     */
+    private <K> String chunkedMset(JedisPool jedisPool, K[] keysValues, BiFunction<Jedis, K[], String> mset) {
+        int chunkLength = multiKeyChunkSize * 2;
+        Jedis jedis = null;
+        try {
+            jedis = borrow(jedisPool, "mset", keysValues, 2);
+            if (chunkLength <= 0 || keysValues.length <= chunkLength) {
+                return mset.apply(jedis, keysValues);
+            }
+            String reply = null;
+            for (int from = 0; from < keysValues.length; from += chunkLength) {
+                reply = mset.apply(jedis, Arrays.copyOfRange(keysValues, from,
+                        Math.min(keysValues.length, from + chunkLength)));
+            }
+            return reply;
+        } catch (Exception e) {
+            exceptionHandler(jedisPool, jedis, e);
+            jedis = null;
+            throw new CsRedisRuntimeException("jedis mset fail", e);
+        } finally {
+            jedisClose(jedis);
+        }
+    }
+
     /**
      * 执行mset操作，然后释放client连接
      * </br>
      * 如果要多次操作，请使用原生的Jedis, 可以使用 getJedisMasterPool getJedisSlavePool 获取pool后，再获取redis连接
      * </br>
      * 并在调用完成后，需调用pool的returnResource方法释放该连接
+     * </br>
+     * 超过 multiKeyChunkSize 时拆分成多个mset依次发送，整体不再是原子操作
      *
      * @param dbIndex    db的索引值
      * @param keysValues set的key值
      * @return Status code reply Basically +OK as MSET can't fail
      */
     public String mSetAndReturn(int dbIndex, String... keysValues) {
-        Jedis jedis = null;
-        JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
-            return jedis.mset(keysValues);
-        } catch (Exception e) {
-            exceptionHandler(jedisPool, jedis, e);
-            jedis = null;
-            throw new CsRedisRuntimeException(e.getMessage(), e);
+            return chunkedMset(getJedisMasterPool(dbIndex), keysValues, Jedis::mset);
         } finally {
-            jedisClose(jedis);
+            invalidateNearCacheKeysValues(dbIndex, keysValues);
         }
     }
 
@@ -573,29 +1241,15 @@ public class RedisClient {
      * 如果要多次操作，请使用原生的Jedis, 可以使用 getJedisMasterPool getJedisSlavePool 获取pool后，再获取redis连接
      * </br>
      * 并在调用完成后，需调用pool的returnResource方法释放该连接
+     * </br>
+     * 超过 multiKeyChunkSize 时拆分成多个mget，分散到各个从库执行后按顺序合并
      *
      * @param dbIndex db的索引值
      * @param keys    set的keys,可以获取多个key的value值
      * @return 根据keys获取的values, 返回值为String型的List
      */
     public List<String> mGetAndReturn(int dbIndex, String... keys) {
-        Jedis jedis = null;
-        JedisPool jedisPool = null;
-        try {
-            jedisPool = getJedisSlavePool();
-            jedis = jedisPool.getResource();
-
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
-            return jedis.mget(keys);
-        } catch (Exception e) {
-            exceptionHandler(jedisPool, jedis, e);
-            jedis = null;
-            throw new CsRedisRuntimeException("jedis mget fail", e);
-        } finally {
-            jedisClose(jedis);
-        }
+        return chunkedMget(dbIndex, keys, Jedis::mget);
     }
 
     /**
@@ -618,28 +1272,18 @@ public class RedisClient {
      * 如果要多次操作，请使用原生的Jedis, 可以使用 getJedisMasterPool getJedisSlavePool 获取pool后，再获取redis连接
      * </br>
      * 并在调用完成后，需调用pool的returnResource方法释放该连接
+     * </br>
+     * 超过 multiKeyChunkSize 时拆分成多个mset依次发送，整体不再是原子操作
      *
      * @param dbIndex    db的索引值
      * @param keysValues set的keys,可以获取多个key的value值
      * @return Status code reply Basically +OK as MSET can't fail
      */
     public String mSetAndReturn(int dbIndex, byte[]... keysValues) {
-        Jedis jedis = null;
-        JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
-            return jedis.mset(keysValues);
-        } catch (Exception e) {
-            exceptionHandler(jedisPool, jedis, e);
-            jedis = null;
-            throw new CsRedisRuntimeException("jedis mset fail", e);
+            return chunkedMset(getJedisMasterPool(dbIndex), compressKeysValues(keysValues), Jedis::mset);
         } finally {
-            jedisClose(jedis);
+            invalidateNearCacheKeysValues(dbIndex, keysValues);
         }
     }
 
@@ -663,29 +1307,15 @@ public class RedisClient {
      * 如果要多次操作，请使用原生的Jedis, 可以使用 getJedisMasterPool getJedisSlavePool 获取pool后，再获取redis连接
      * </br>
      * 并在调用完成后，需调用pool的returnResource方法释放该连接
+     * </br>
+     * 超过 multiKeyChunkSize 时拆分成多个mget，分散到各个从库执行后按顺序合并
      *
      * @param dbIndex db的索引值
      * @param keys    set的keys,可以获取多个key的value值
      * @return 根据keys获取的values, 返回值为byte型的List
      */
     public List<byte[]> mGetAndReturn(int dbIndex, byte[]... keys) {
-        Jedis jedis = null;
-        JedisPool jedisPool = null;
-        try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
-            return jedis.mget(keys);
-        } catch (Exception e) {
-            exceptionHandler(jedisPool, jedis, e);
-            jedis = null;
-            throw new CsRedisRuntimeException("jedis mget fail", e);
-        } finally {
-            jedisClose(jedis);
-        }
+        return decompressAll(chunkedMget(dbIndex, keys, Jedis::mget));
     }
 
     /**
@@ -722,15 +1352,18 @@ public class RedisClient {
      * @return 默认db下, 当前key对应的所有成员
      */
     public Set<String> smembers(int dbIndex, String key) {
+        NearCache cache = nearCache;
+        if (cache != null && cache.isCacheable(key)) {
+            return cache.get(dbIndex, key, NearCache.Kind.SET, () -> loadNearCache(dbIndex, "smembers", key,
+                    p -> p.smembers(key), Collections::unmodifiableSet));
+        }
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisSlavePool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
-            return jedis.smembers(key);
+            jedisPool = getJedisSlavePool(dbIndex);
+            rejectBigReply("smembers", key);
+            jedis = borrow(jedisPool, "smembers", key);
+            return inspectReply(jedisPool, "smembers", key, jedis.smembers(key));
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
             jedis = null;
@@ -763,11 +1396,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "sadd", key);
             return jedis.sadd(key, values);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -775,6 +1405,7 @@ public class RedisClient {
             throw new CsRedisRuntimeException("jedis set fail", e);
         } finally {
             jedisClose(jedis);
+            invalidateNearCache(dbIndex, key);
         }
     }
 
@@ -801,11 +1432,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "srem", key);
             return jedis.srem(key, values);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -813,6 +1441,7 @@ public class RedisClient {
             throw new CsRedisRuntimeException("jedis set fail", e);
         } finally {
             jedisClose(jedis);
+            invalidateNearCache(dbIndex, key);
         }
     }
 
@@ -843,11 +1472,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisSlavePool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisSlavePool(dbIndex);
+            jedis = borrow(jedisPool, "scard", key);
             return jedis.scard(key);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -885,11 +1511,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisSlavePool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisSlavePool(dbIndex);
+            jedis = borrow(jedisPool, "sismember", key);
             return jedis.sismember(key, value);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -931,11 +1554,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "hset", key);
             return jedis.hset(key, field, value);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -943,6 +1563,7 @@ public class RedisClient {
             throw new CsRedisRuntimeException("jedis set fail", e);
         } finally {
             jedisClose(jedis);
+            invalidateNearCache(dbIndex, key);
         }
     }
 
@@ -973,11 +1594,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "hmset", key);
             return jedis.hmset(key, value);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -985,6 +1603,7 @@ public class RedisClient {
             throw new CsRedisRuntimeException("jedis set fail", e);
         } finally {
             jedisClose(jedis);
+            invalidateNearCache(dbIndex, key);
         }
     }
 
@@ -1011,11 +1630,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisSlavePool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisSlavePool(dbIndex);
+            jedis = borrow(jedisPool, "hget", key);
             return jedis.hget(key, field);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -1038,15 +1654,18 @@ public class RedisClient {
      * @return 给定域的值。当给定域不存在或是给定 key 不存在时，返回 空 map 。
      */
     public Map<String, String> hgetAll(int dbIndex, String key) {
+        NearCache cache = nearCache;
+        if (cache != null && cache.isCacheable(key)) {
+            return cache.get(dbIndex, key, NearCache.Kind.HASH, () -> loadNearCache(dbIndex, "hgetall", key,
+                    p -> p.hgetAll(key), Collections::unmodifiableMap));
+        }
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisSlavePool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
-            return jedis.hgetAll(key);
+            jedisPool = getJedisSlavePool(dbIndex);
+            rejectBigReply("hgetall", key);
+            jedis = borrow(jedisPool, "hgetall", key);
+            return inspectReply(jedisPool, "hgetall", key, jedis.hgetAll(key));
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
             jedis = null;
@@ -1083,12 +1702,10 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisSlavePool();
-            jedis = jedisPool.getResource();
-            if (0 != dbIndex) {
-                jedis.select(dbIndex);
-            }
-            return jedis.hmget(key, fields);
+            jedisPool = getJedisSlavePool(dbIndex);
+            rejectBigReply("hmget", key);
+            jedis = borrow(jedisPool, "hmget", key);
+            return inspectReply(jedisPool, "hmget", key, jedis.hmget(key, fields));
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
             jedis = null;
@@ -1121,9 +1738,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            jedis.select(dbIndex);
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "del", key);
             return jedis.del(key);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -1131,6 +1747,7 @@ public class RedisClient {
             throw new CsRedisRuntimeException("jedis set fail", e);
         } finally {
             jedisClose(jedis);
+            invalidateNearCache(dbIndex, key);
         }
     }
 
@@ -1160,11 +1777,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            if (0 != dbIndex) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "rename", oldkey);
             return jedis.rename(oldkey, newkey);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -1172,6 +1786,7 @@ public class RedisClient {
             throw new CsRedisRuntimeException("jedis set fail", e);
         } finally {
             jedisClose(jedis);
+            invalidateNearCache(dbIndex, oldkey, newkey);
         }
     }
 
@@ -1196,11 +1811,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisSlavePool();
-            jedis = jedisPool.getResource();
-            if (0 != dbIndex) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisSlavePool(dbIndex);
+            jedis = borrow(jedisPool, "exists", key);
             return jedis.exists(key);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -1221,7 +1833,7 @@ public class RedisClient {
         JedisPool jedisPool = null;
         try {
             jedisPool = getJedisSlavePool();
-            jedis = jedisPool.getResource();
+            jedis = borrow(jedisPool, "ping", null);
 
             return jedis.ping();
         } catch (Exception e) {
@@ -1253,11 +1865,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            if (0 != dbIndex) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "watch", key);
             jedis.watch(key);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -1279,7 +1888,7 @@ public class RedisClient {
         JedisPool jedisPool = null;
         try {
             jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
+            jedis = borrow(jedisPool, "multi", null);
 
             Transaction transaction = jedis.multi();
             transactionAction.execute(transaction);
@@ -1303,7 +1912,7 @@ public class RedisClient {
         JedisPool jedisPool = null;
         try {
             jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
+            jedis = borrow(jedisPool, "pipeline", null);
 
             Pipeline pipline = jedis.pipelined();
             piplineAction.execute(pipline);
@@ -1326,7 +1935,7 @@ public class RedisClient {
         JedisPool jedisPool = null;
         try {
             jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
+            jedis = borrow(jedisPool, "pipeline", null);
 
             Pipeline pipline = jedis.pipelined();
             piplineAction.execute(pipline);
@@ -1340,6 +1949,61 @@ public class RedisClient {
         }
     }
 
+    /**
+     * 流式管道，每 maxCommands 个命令或回复估算达到 maxBytes 字节时 sync 一次，结果按顺序交给 resultConsumer，
+     * 入队的命令再多内存占用也只有一个批次
+     * </br>
+     * 与 doPiplineAndReturn 不同，前面批次的命令在 action 返回前就已经执行
+     *
+     * @param dbIndex        db的索引值
+     * @param maxCommands    每批次最多命令数，小于等于0时使用默认值
+     * @param maxBytes       每批次回复的估算字节数上限，小于等于0时使用默认值
+     * @param action         入队命令，可以使用 {@link StreamingPipeline#queue} 为单个命令设置回调
+     * @param resultConsumer 按命令顺序接收每个回复，出错的命令传入 JedisDataException，可以为null
+     * @return 执行的命令总数
+     */
+    public long doStreamingPipline(int dbIndex, int maxCommands, long maxBytes, StreamingPiplineAction action,
+                                   Consumer<Object> resultConsumer) {
+        Jedis jedis = null;
+        JedisPool jedisPool = null;
+        StreamingPipeline pipeline = null;
+        try {
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "pipeline", null);
+            pipeline = new StreamingPipeline(jedis, maxCommands, maxBytes, resultConsumer);
+            action.execute(pipeline);
+            pipeline.flush();
+            return pipeline.getTotalCommands();
+        } catch (Exception e) {
+            discardPipeline(pipeline);
+            exceptionHandler(jedisPool, jedis, e);
+            jedis = null;
+            throw new CsRedisRuntimeException("jedis pipeline fail", e);
+        } finally {
+            jedisClose(jedis);
+        }
+    }
+
+    /**
+     * @param action         入队命令
+     * @param resultConsumer 按命令顺序接收每个回复，可以为null
+     * @return 执行的命令总数
+     */
+    public long doStreamingPipline(StreamingPiplineAction action, Consumer<Object> resultConsumer) {
+        return doStreamingPipline(0, 0, 0, action, resultConsumer);
+    }
+
+    private void discardPipeline(StreamingPipeline pipeline) {
+        if (pipeline == null) {
+            return;
+        }
+        try {
+            pipeline.discardRemaining();
+        } catch (Exception e) {
+            LOGGER.warn("discard streaming pipeline failed", e);
+        }
+    }
+
     /**
      * redis中进行管道相关操作时，实现此接口
      *
@@ -1349,6 +2013,13 @@ public class RedisClient {
         void execute(Pipeline pipline);
     }
 
+    /**
+     * 流式管道操作时，实现此接口
+     */
+    public interface StreamingPiplineAction {
+        void execute(StreamingPipeline pipline);
+    }
+
     /**
      * 数据库操作事务对象接口,在redis中进行事务相关的操作时，实现此接口
      *
@@ -1360,6 +2031,8 @@ public class RedisClient {
 
     /**
      * 查找所有符合给定模式 pattern 的 key
+     * </br>
+     * KEYS 会阻塞从库并一次性返回所有结果，key数量较大时请使用 {@link #scan(int, String, int)}
      *
      * @param dbIndex
      * @param pattern 正则表达式
@@ -1370,12 +2043,9 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisSlavePool();
-            jedis = jedisPool.getResource();
-            if (0 != dbIndex) {
-                jedis.select(dbIndex);
-            }
-            result = jedis.keys(pattern);
+            jedisPool = getJedisSlavePool(dbIndex);
+            jedis = borrow(jedisPool, "keys", null);
+            result = inspectReply(jedisPool, "keys", pattern, jedis.keys(pattern));
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
             jedis = null;
@@ -1386,6 +2056,125 @@ public class RedisClient {
         return result;
     }
 
+    /**
+     * 使用 SCAN 游标惰性遍历所有符合给定模式 pattern 的 key
+     * </br>
+     * 每次只从从库拉取一页，从库连接异常时换一个从库从当前游标继续，此时可能返回少量重复key
+     *
+     * @param dbIndex db的索引值
+     * @param pattern 匹配模式
+     * @param count   每页的 COUNT 提示值
+     * @return key的迭代器，可通过 stream() 转为 Stream
+     */
+    public ScanIterator<String> scan(int dbIndex, String pattern, int count) {
+        return scan(dbIndex, pattern, count, 0);
+    }
+
+    /**
+     * 使用 SCAN 游标惰性遍历所有符合给定模式 pattern 的 key，并限制 SCAN 的频率
+     *
+     * @param dbIndex        db的索引值
+     * @param pattern        匹配模式
+     * @param count          每页的 COUNT 提示值
+     * @param pagesPerSecond 每秒最多执行的 SCAN 次数，小于等于0时不限速
+     * @return key的迭代器，可通过 stream() 转为 Stream
+     */
+    public ScanIterator<String> scan(final int dbIndex, String pattern, int count, double pagesPerSecond) {
+        return new ScanIterator<>(() -> getJedisSlavePool(dbIndex), Jedis::scan, pattern, count, pagesPerSecond);
+    }
+
+    /**
+     * 使用 HSCAN 游标分页遍历哈希表，替代大哈希表上的 hgetAll
+     *
+     * @param dbIndex db的索引值
+     * @param key     hash表的标记key
+     * @param count   每页的 COUNT 提示值
+     * @return field-value 的迭代器
+     */
+    public ScanIterator<Map.Entry<String, String>> hscan(int dbIndex, final String key, int count) {
+        return new ScanIterator<>(() -> getJedisSlavePool(dbIndex),
+                (jedis, cursor, params) -> jedis.hscan(key, cursor, params), null, count, 0);
+    }
+
+    public ScanIterator<Map.Entry<String, String>> hscan(String key, int count) {
+        return hscan(0, key, count);
+    }
+
+    /**
+     * 使用 HSCAN 分页遍历哈希表，逐个回调 field-value
+     *
+     * @param dbIndex db的索引值
+     * @param key     hash表的标记key
+     * @param count   每页的 COUNT 提示值
+     * @param visitor 回调，返回 false 时提前结束
+     * @return 回调过的元素个数
+     */
+    public long hscan(int dbIndex, String key, int count, ScanIterator.ScanVisitor<Map.Entry<String, String>> visitor) {
+        return hscan(dbIndex, key, count).visit(visitor);
+    }
+
+    /**
+     * 使用 SSCAN 游标分页遍历集合，替代大集合上的 smembers
+     *
+     * @param dbIndex db的索引值
+     * @param key     set的key值
+     * @param count   每页的 COUNT 提示值
+     * @return 成员的迭代器
+     */
+    public ScanIterator<String> sscan(int dbIndex, final String key, int count) {
+        return new ScanIterator<>(() -> getJedisSlavePool(dbIndex),
+                (jedis, cursor, params) -> jedis.sscan(key, cursor, params), null, count, 0);
+    }
+
+    public ScanIterator<String> sscan(String key, int count) {
+        return sscan(0, key, count);
+    }
+
+    /**
+     * 使用 SSCAN 分页遍历集合，逐个回调成员
+     *
+     * @param dbIndex db的索引值
+     * @param key     set的key值
+     * @param count   每页的 COUNT 提示值
+     * @param visitor 回调，返回 false 时提前结束
+     * @return 回调过的元素个数
+     */
+    public long sscan(int dbIndex, String key, int count, ScanIterator.ScanVisitor<String> visitor) {
+        return sscan(dbIndex, key, count).visit(visitor);
+    }
+
+    /**
+     * 使用 ZSCAN 游标分页遍历有序集合，替代大有序集合上的 zrangeWithScores(key, 0, -1)
+     * </br>
+     * ZSCAN 不保证按分数排序
+     *
+     * @param dbIndex db的索引值
+     * @param key     有序集合的key
+     * @param count   每页的 COUNT 提示值
+     * @return 成员和分数的迭代器
+     */
+    public ScanIterator<Tuple> zscan(int dbIndex, final String key, int count) {
+        return new ScanIterator<>(() -> getJedisSlavePool(dbIndex),
+                (jedis, cursor, params) -> jedis.zscan(key, cursor, params), null, count, 0);
+    }
+
+    public ScanIterator<Tuple> zscan(String key, int count) {
+        return zscan(0, key, count);
+    }
+
+    /**
+     * 使用 ZSCAN 分页遍历有序集合，逐个回调成员和分数
+     *
+     * @param dbIndex db的索引值
+     * @param key     有序集合的key
+     * @param count   每页的 COUNT 提示值
+     * @param visitor 回调，返回 false 时提前结束
+     * @return 回调过的元素个数
+     */
+    public long zscan(int dbIndex, String key, int count, ScanIterator.ScanVisitor<Tuple> visitor) {
+        return zscan(dbIndex, key, count).visit(visitor);
+    }
+
     /**
      * 往列表头插入元素
      *
@@ -1410,11 +2199,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            if (0 != dbIndex) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "lpush", key);
             result = jedis.lpush(key, values);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -1450,11 +2236,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            if (0 != dbIndex) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "rpush", key);
             result = jedis.rpush(key, values);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -1524,12 +2307,12 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisSlavePool();
-            jedis = jedisPool.getResource();
-            if (0 != dbIndex) {
-                jedis.select(dbIndex);
-            }
-            result = jedis.lrange(key, start, end);
+            jedisPool = getJedisSlavePool(dbIndex);
+            rejectBigReply("lrange", key);
+            BigReplyDetector detector = bigReplyDetector;
+            long last = detector == null ? end : detector.clampRangeEnd(start, end);
+            jedis = borrow(jedisPool, "lrange", key);
+            result = inspectReply(jedisPool, "lrange", key, jedis.lrange(key, start, last));
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
             jedis = null;
@@ -1581,11 +2364,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            if (0 != dbIndex) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "lset", key);
             result = jedis.lset(key, index, value);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -1647,11 +2427,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            if (0 != dbIndex) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "ltrim", key);
             result = jedis.ltrim(key, start, end);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -1698,11 +2475,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            if (0 != dbIndex) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "expire", key);
             result = jedis.expire(key, seconds);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -1710,6 +2484,7 @@ public class RedisClient {
             throw new CsRedisRuntimeException("jedis expire fail", e);
         } finally {
             jedisClose(jedis);
+            invalidateNearCache(dbIndex, key);
         }
         return result;
     }
@@ -1718,11 +2493,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "del", key);
             return jedis.del(key);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -1730,6 +2502,7 @@ public class RedisClient {
             throw new CsRedisRuntimeException("jedis del db[ " + dbIndex + "] key:" + key, e);
         } finally {
             jedisClose(jedis);
+            invalidateNearCache(dbIndex, key);
         }
     }
 
@@ -1742,11 +2515,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "zadd", key);
             return jedis.zadd(key, scoreMembers);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -1772,20 +2542,15 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "zadd", key);
             return jedis.zadd(key, score, member);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
             jedis = null;
             throw new CsRedisRuntimeException("jedis del db[ " + dbIndex + "] key:" + key, e);
         } finally {
-            if (jedis != null && jedisPool != null) {
-                jedis.close();
-            }
+            jedisClose(jedis);
         }
     }
 
@@ -1797,11 +2562,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "zincrby", key);
             return jedis.zincrby(key, score, member);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -1828,20 +2590,16 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisSlavePool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
-            return jedis.zrangeWithScores(key, start, end);
+            jedisPool = getJedisSlavePool(dbIndex);
+            rejectBigReply("zrange", key);
+            jedis = borrow(jedisPool, "zrange", key);
+            return inspectReply(jedisPool, "zrange", key, jedis.zrangeWithScores(key, start, end));
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
             jedis = null;
             throw new CsRedisRuntimeException("jedis del db[ " + dbIndex + "] key:" + key, e);
         } finally {
-            if (jedis != null && jedisPool != null) {
-                jedis.close();
-            }
+            jedisClose(jedis);
         }
     }
 
@@ -1862,12 +2620,10 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisSlavePool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
-            return jedis.zrevrangeWithScores(key, start, end);
+            jedisPool = getJedisSlavePool(dbIndex);
+            rejectBigReply("zrevrange", key);
+            jedis = borrow(jedisPool, "zrevrange", key);
+            return inspectReply(jedisPool, "zrevrange", key, jedis.zrevrangeWithScores(key, start, end));
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
             jedis = null;
@@ -1891,20 +2647,15 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisSlavePool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisSlavePool(dbIndex);
+            jedis = borrow(jedisPool, "zscore", key);
             return jedis.zscore(key, member);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
             jedis = null;
             throw new CsRedisRuntimeException("jedis del db[ " + dbIndex + "] key:" + key, e);
         } finally {
-            if (jedis != null && jedisPool != null) {
-                jedis.close();
-            }
+            jedisClose(jedis);
         }
     }
 
@@ -1923,11 +2674,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisSlavePool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisSlavePool(dbIndex);
+            jedis = borrow(jedisPool, "zrank", key);
             return jedis.zrank(key, member);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -1953,20 +2701,15 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisSlavePool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisSlavePool(dbIndex);
+            jedis = borrow(jedisPool, "zrevrank", key);
             return jedis.zrevrank(key, member);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
             jedis = null;
             throw new CsRedisRuntimeException("jedis del db[ " + dbIndex + "] key:" + key, e);
         } finally {
-            if (jedis != null && jedisPool != null) {
-                jedis.close();
-            }
+            jedisClose(jedis);
         }
     }
 
@@ -1985,11 +2728,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "zrem", key);
             return jedis.zrem(key, members);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -2017,20 +2757,15 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "zremrangebyrank", key);
             return jedis.zremrangeByRank(key, start, end);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
             jedis = null;
             throw new CsRedisRuntimeException("jedis del db[ " + dbIndex + "] key:" + key, e);
         } finally {
-            if (jedis != null && jedisPool != null) {
-                jedis.close();
-            }
+            jedisClose(jedis);
         }
     }
 
@@ -2052,11 +2787,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
-            jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
+            jedisPool = getJedisMasterPool(dbIndex);
+            jedis = borrow(jedisPool, "publish", null);
             return jedis.publish(channel, message);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
@@ -2083,11 +2815,8 @@ public class RedisClient {
         Jedis jedis = null;
         JedisPool jedisPool = null;
         try {
-            jedisPool = getJedisMasterPool();
+            jedisPool = getJedisMasterPool(dbIndex);
             jedis = jedisPool.getResource();
-            if (dbIndex != 0) {
-                jedis.select(dbIndex);
-            }
             jedis.subscribe(jedisPubSub, channels);
         } catch (Exception e) {
             exceptionHandler(jedisPool, jedis, e);
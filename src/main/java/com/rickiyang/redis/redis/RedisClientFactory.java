@@ -2,20 +2,25 @@ package com.rickiyang.redis.redis;
 
 
 import com.rickiyang.redis.exception.CsRedisRuntimeException;
+import com.rickiyang.redis.redis.balance.LeastOutstandingPoolSelector;
+import com.rickiyang.redis.redis.balance.PoolSelector;
 import com.rickiyang.redis.util.RedisUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Protocol;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -31,6 +36,11 @@ public class RedisClientFactory extends AbstractClientFactory {
 
     private volatile List<JedisPool> redisSlavePool = new ArrayList<>();
 
+    /**
+     * 每个实例按db划分的连接池，key为该实例默认db的连接池
+     */
+    private volatile Map<JedisPool, DatabasePools> databasePools = new IdentityHashMap<>();
+
     private int totalServersSize;
 
     private int masterServerSize;
@@ -44,6 +54,13 @@ public class RedisClientFactory extends AbstractClientFactory {
     private AtomicInteger atomicMasterCount = new AtomicInteger(0);
     private AtomicInteger atomicSlaveCount = new AtomicInteger(0);
 
+    private final LongAdder readerFallbackCount = new LongAdder();
+
+    /**
+     * 选择主库、从库连接池的策略，为null时轮询
+     */
+    private volatile PoolSelector poolSelector;
+
     private List<String> redisServers;
 
     private boolean healthCheck;
@@ -87,6 +104,10 @@ public class RedisClientFactory extends AbstractClientFactory {
         if (masterServerSize <= 0) {
             return getSlavePool(true);
         }
+        PoolSelector selector = poolSelector;
+        if (selector != null) {
+            return selector.select(redisMasterPool);
+        }
         int currentIndex = atomicMasterCount.getAndIncrement();
         if (currentIndex < 0) {
             currentIndex = 0 - currentIndex;
@@ -109,15 +130,108 @@ public class RedisClientFactory extends AbstractClientFactory {
         return getSlavePool(false);
     }
 
+    /**
+     * 轮询获取master上指定db的连接池
+     *
+     * @param dbIndex db的索引值
+     * @return 连接已经选中dbIndex的连接池
+     */
+    @Override
+    public JedisPool getMasterPool(int dbIndex) {
+        return getDbPool(getMasterPool(), dbIndex);
+    }
+
+    /**
+     * 轮询获取slave上指定db的连接池
+     *
+     * @param dbIndex db的索引值
+     * @return 连接已经选中dbIndex的连接池
+     */
+    @Override
+    public JedisPool getSlavePool(int dbIndex) {
+        return getDbPool(getSlavePool(), dbIndex);
+    }
+
+    /**
+     * 获取所有slave上指定db的连接池
+     *
+     * @param dbIndex db的索引值
+     * @return 没有slave时返回master上的连接池
+     */
+    @Override
+    public List<JedisPool> getSlavePools(int dbIndex) {
+        List<JedisPool> slaves = redisSlavePool;
+        if (slaves.isEmpty()) {
+            return super.getSlavePools(dbIndex);
+        }
+        List<JedisPool> pools = new ArrayList<>(slaves.size());
+        for (JedisPool pool : slaves) {
+            pools.add(getDbPool(pool, dbIndex));
+        }
+        return pools;
+    }
+
+    @Override
+    public PoolInfo describePool(JedisPool pool) {
+        PoolInfo info = describePool(pool, redisMasterPool, PoolInfo.Role.MASTER);
+        return info != null ? info : describePool(pool, redisSlavePool, PoolInfo.Role.SLAVE);
+    }
+
+    private PoolInfo describePool(JedisPool pool, List<JedisPool> instances, PoolInfo.Role role) {
+        Map<JedisPool, DatabasePools> pools = databasePools;
+        for (JedisPool instance : instances) {
+            DatabasePools dbPools = pools.get(instance);
+            int database = dbPools == null ? -1 : dbPools.getDatabase(pool);
+            if (database >= 0) {
+                return new PoolInfo(role, dbPools.getHost(), dbPools.getPort(), database);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<JedisPool> getPools() {
+        List<JedisPool> result = new ArrayList<>();
+        for (DatabasePools pools : databasePools.values()) {
+            result.addAll(pools.getPools());
+        }
+        return result;
+    }
+
+    @Override
+    public long getReaderFallbackCount() {
+        return readerFallbackCount.sum();
+    }
+
+    private JedisPool getDbPool(JedisPool pool, int dbIndex) {
+        if (dbIndex == 0) {
+            return pool;
+        }
+        DatabasePools pools = databasePools.get(pool);
+        if (pools == null) {
+            throw new CsRedisRuntimeException("no db pools for jedisPool " + pool);
+        }
+        return pools.getPool(dbIndex);
+    }
+
     private JedisPool getSlavePool(boolean fromMaster) {
         if (slaveServerSize <= 0) {
             if (fromMaster) {
                 throw new CsRedisRuntimeException("no avalible jedisPool");
             } else {
+                readerFallbackCount.increment();
                 return getMasterPool();
             }
         }
+        if (!fromMaster && redisSlavePool == redisMasterPool) {
+            // 没有slave时 redisSlavePool 就是 redisMasterPool
+            readerFallbackCount.increment();
+        }
 
+        PoolSelector selector = poolSelector;
+        if (selector != null) {
+            return selector.select(redisSlavePool);
+        }
         int currentIndex = atomicSlaveCount.getAndIncrement();
         if (currentIndex < 0) {
             currentIndex = 0 - currentIndex;
@@ -127,6 +241,17 @@ public class RedisClientFactory extends AbstractClientFactory {
         return jedisPool;
     }
 
+    /**
+     * @param poolSelector 选择主库、从库连接池的策略，如 {@link LeastOutstandingPoolSelector}，为null时轮询
+     */
+    public void setPoolSelector(PoolSelector poolSelector) {
+        this.poolSelector = poolSelector;
+    }
+
+    public PoolSelector getPoolSelector() {
+        return poolSelector;
+    }
+
     public void setRedisServers(List<String> redisServers) {
         if (redisServers == null || redisServers.size() == 0) {
             throw new CsRedisRuntimeException("redisServers couldn't be null");
@@ -157,6 +282,7 @@ public class RedisClientFactory extends AbstractClientFactory {
             Jedis jedis = null;
             List<JedisPool> newMasterPool = new ArrayList<>();
             List<JedisPool> newRslavePool = new ArrayList<>();
+            Map<JedisPool, DatabasePools> newDatabasePools = new IdentityHashMap<>();
             StringBuilder sb = new StringBuilder();
 
             Map<String, Integer> initialPools = new HashMap<>();
@@ -199,7 +325,11 @@ public class RedisClientFactory extends AbstractClientFactory {
                         } catch (Throwable e) {
                             log.warn("can not support info function.", e);
                         }
-                        pool = RedisUtils.getJedisPool(this.config, ip, port, timeout, password);
+                        AtomicInteger outstanding = new AtomicInteger();
+                        pool = new CountingJedisPool(this.config, ip, port, timeout, password,
+                                Protocol.DEFAULT_DATABASE, outstanding);
+                        newDatabasePools.put(pool, new DatabasePools(pool, Protocol.DEFAULT_DATABASE, this.config, ip,
+                                port, timeout, password, outstanding));
                         // 主实例
                         if (isMaster == true) {
                             newMasterPool.add(pool);
@@ -226,6 +356,8 @@ public class RedisClientFactory extends AbstractClientFactory {
             realServersCount = initialPools.size();
             List<JedisPool> oldMasterPool = redisMasterPool;
             List<JedisPool> oldRslavePool = redisSlavePool;
+            Map<JedisPool, DatabasePools> oldDatabasePools = databasePools;
+            databasePools = newDatabasePools;
             redisMasterPool = newMasterPool;
             redisSlavePool = newRslavePool;
             // 如果没有slave 避免用户直接获取slave进行操作导致错误
@@ -238,6 +370,7 @@ public class RedisClientFactory extends AbstractClientFactory {
             if (null != oldRslavePool && oldRslavePool.size() > 0) {
                 destroy(oldRslavePool);
             }
+            destroyDatabasePools(oldDatabasePools);
             this.masterServerSize = redisMasterPool.size();
             this.slaveServerSize = redisSlavePool.size();
             startHealthCheck();
@@ -290,6 +423,14 @@ public class RedisClientFactory extends AbstractClientFactory {
         }
     }
 
+    private void destroyDatabasePools(Map<JedisPool, DatabasePools> pools) {
+        if (pools != null) {
+            for (DatabasePools p : pools.values()) {
+                p.destroy();
+            }
+        }
+    }
+
     /**
      * 销毁操作
      */
@@ -304,6 +445,7 @@ public class RedisClientFactory extends AbstractClientFactory {
                 p.destroy();
             }
         }
+        destroyDatabasePools(databasePools);
         stopHealthCheck();
     }
 
@@ -0,0 +1,77 @@
+package com.rickiyang.redis.redis;
+
+import redis.clients.jedis.HostAndPort;
+
+/**
+ * @date: 2022/01/10 10:00 上午
+ * @author: rickiyang
+ * @Description: 一次检查得到的从库复制状态，不可变，每次检查替换
+ */
+public class ReplicaLag {
+
+    private final HostAndPort hostAndPort;
+
+    private final boolean linkUp;
+
+    private final long offset;
+
+    private final long lagBytes;
+
+    private final long lagSeconds;
+
+    private final boolean excluded;
+
+    private final long checkedMillis;
+
+    /**
+     * @param linkUp     master_link_status 为 up 且没有在全量同步
+     * @param offset     从库的复制偏移量，未知时为-1
+     * @param lagBytes   落后主库的字节数，未知时为-1
+     * @param lagSeconds 距离上一次和主库交互的秒数，未知时为-1
+     * @param excluded   是否因为落后太多不参与读请求
+     */
+    public ReplicaLag(HostAndPort hostAndPort, boolean linkUp, long offset, long lagBytes, long lagSeconds,
+                      boolean excluded) {
+        this.hostAndPort = hostAndPort;
+        this.linkUp = linkUp;
+        this.offset = offset;
+        this.lagBytes = lagBytes;
+        this.lagSeconds = lagSeconds;
+        this.excluded = excluded;
+        this.checkedMillis = System.currentTimeMillis();
+    }
+
+    public HostAndPort getHostAndPort() {
+        return hostAndPort;
+    }
+
+    public boolean isLinkUp() {
+        return linkUp;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLagBytes() {
+        return lagBytes;
+    }
+
+    public long getLagSeconds() {
+        return lagSeconds;
+    }
+
+    public boolean isExcluded() {
+        return excluded;
+    }
+
+    public long getCheckedMillis() {
+        return checkedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "slave@" + hostAndPort + " linkUp=" + linkUp + " offset=" + offset + " lagBytes=" + lagBytes
+                + " lagSeconds=" + lagSeconds + " excluded=" + excluded;
+    }
+}
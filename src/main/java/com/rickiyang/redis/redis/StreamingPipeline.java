@@ -0,0 +1,207 @@
+package com.rickiyang.redis.redis;
+
+import redis.clients.jedis.Builder;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * @date: 2021/12/22 2:10 下午
+ * @author: rickiyang
+ * @Description: 流式管道，命令数达到阈值或估算的回复字节数达到阈值时就 sync 一次，把已返回的结果交给回调后丢弃
+ * </br>
+ * 普通 pipeline 在 syncAndReturnAll 前缓存所有回复，百万级命令时客户端堆内存和 redis 输出缓冲区都会持续增长；
+ * 流式管道中任意时刻最多只有一个批次的回复未被消费
+ * </br>
+ * 回复字节数无法在发送前得知，按上一批次的平均回复大小估算下一批次的命令数，实际值可能超过 maxBytes 一个批次
+ * </br>
+ * MULTI/EXEC 之间不会触发 sync，事务中的命令不支持单独的回调
+ */
+public class StreamingPipeline extends Pipeline {
+
+    public static final int DEFAULT_MAX_COMMANDS = 1000;
+
+    public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    private final int maxCommands;
+
+    private final long maxBytes;
+
+    private final Consumer<Object> resultConsumer;
+
+    /**
+     * 只记录带回调的命令，回复按 Response 对象匹配
+     */
+    private final Map<Response<?>, Consumer<Object>> callbacks = new IdentityHashMap<>();
+
+    private int batchLimit;
+
+    private int pendingCommands;
+
+    private long batchBytes;
+
+    private long totalCommands;
+
+    /**
+     * 为true时由 queue 在登记回调后再检查是否需要 sync
+     */
+    private boolean queueing;
+
+    /**
+     * 异常后丢弃剩余回复，不再调用回调
+     */
+    private boolean discarding;
+
+    /**
+     * 回调抛出的第一个异常，sync 读完本批次的回复后再抛出
+     */
+    private RuntimeException callbackError;
+
+    /**
+     * @param jedis          执行命令的连接
+     * @param maxCommands    每批次最多命令数，小于等于0时使用默认值
+     * @param maxBytes       每批次回复的估算字节数上限，小于等于0时使用默认值
+     * @param resultConsumer 按命令顺序接收每个回复，出错的命令传入 JedisDataException，可以为null
+     */
+    public StreamingPipeline(Jedis jedis, int maxCommands, long maxBytes, Consumer<Object> resultConsumer) {
+        this.maxCommands = maxCommands <= 0 ? DEFAULT_MAX_COMMANDS : maxCommands;
+        this.maxBytes = maxBytes <= 0 ? DEFAULT_MAX_BYTES : maxBytes;
+        this.resultConsumer = resultConsumer;
+        this.batchLimit = this.maxCommands;
+        setClient(jedis.getClient());
+    }
+
+    /**
+     * 入队一个命令，回复返回后调用 callback
+     *
+     * @param command  在管道上执行的命令，如 {@code p -> p.get(key)}
+     * @param callback 回复的回调，命令出错时不调用，错误交给 resultConsumer
+     * @return 命令的 Response
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Response<T> queue(Function<Pipeline, Response<T>> command, Consumer<? super T> callback) {
+        Response<T> response;
+        queueing = true;
+        try {
+            response = command.apply(this);
+        } finally {
+            queueing = false;
+        }
+        if (callback != null && !isInMulti()) {
+            callbacks.put(response, (Consumer<Object>) callback);
+        }
+        flushIfNeeded();
+        return response;
+    }
+
+    /**
+     * @return 已入队的命令总数
+     */
+    public long getTotalCommands() {
+        return totalCommands;
+    }
+
+    @Override
+    protected <T> Response<T> getResponse(Builder<T> builder) {
+        Response<T> response = super.getResponse(builder);
+        pendingCommands++;
+        totalCommands++;
+        if (!queueing) {
+            flushIfNeeded();
+        }
+        return response;
+    }
+
+    @Override
+    protected Response<?> generateResponse(Object data) {
+        Response<?> response = super.generateResponse(data);
+        batchBytes += estimateSize(data);
+        if (discarding) {
+            return response;
+        }
+        Consumer<Object> callback = callbacks.isEmpty() ? null : callbacks.remove(response);
+        if (callback == null && resultConsumer == null) {
+            return response;
+        }
+        Object result;
+        try {
+            result = response.get();
+        } catch (JedisDataException e) {
+            result = e;
+        }
+        try {
+            if (callback != null && !(result instanceof JedisDataException)) {
+                callback.accept(result);
+            }
+            if (resultConsumer != null) {
+                resultConsumer.accept(result);
+            }
+        } catch (RuntimeException e) {
+            // sync 已经读取了本批次所有回复，这里抛出会留下未消费的 Response，之后的 sync 会阻塞到超时
+            callbackError = e;
+            discarding = true;
+        }
+        return response;
+    }
+
+    /**
+     * sync 剩余的命令，回调抛出异常时在本批次的回复全部读完后抛出
+     */
+    public void flush() {
+        if (hasPipelinedResponse()) {
+            sync();
+            adjustBatchLimit();
+        }
+        RuntimeException e = callbackError;
+        if (e != null) {
+            callbackError = null;
+            throw e;
+        }
+    }
+
+    /**
+     * 出现异常后读取并丢弃剩余回复，保证连接归还连接池时没有未读的数据
+     */
+    void discardRemaining() {
+        discarding = true;
+        callbacks.clear();
+        clear();
+    }
+
+    private void flushIfNeeded() {
+        if (pendingCommands >= batchLimit && !isInMulti()) {
+            flush();
+        }
+    }
+
+    /**
+     * 按本批次的平均回复大小调整下一批次的命令数，不超过 maxCommands
+     */
+    private void adjustBatchLimit() {
+        long average = Math.max(1, batchBytes / Math.max(1, pendingCommands));
+        batchLimit = (int) Math.max(1, Math.min(maxCommands, maxBytes / average));
+        pendingCommands = 0;
+        batchBytes = 0;
+    }
+
+    private static long estimateSize(Object data) {
+        if (data instanceof byte[]) {
+            return ((byte[]) data).length;
+        }
+        if (data instanceof List) {
+            long size = 16;
+            for (Object item : (List<?>) data) {
+                size += estimateSize(item);
+            }
+            return size;
+        }
+        return 16;
+    }
+}
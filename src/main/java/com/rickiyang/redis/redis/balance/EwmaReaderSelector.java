@@ -0,0 +1,185 @@
+package com.rickiyang.redis.redis.balance;
+
+import com.rickiyang.redis.redis.AbstractClientFactory;
+import com.rickiyang.redis.redis.PoolInfo;
+import com.rickiyang.redis.redis.monitor.CommandContext;
+import com.rickiyang.redis.redis.monitor.CommandListener;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @date: 2022/01/06 10:00 上午
+ * @author: rickiyang
+ * @Description: 按观测到的延迟选择从库
+ * </br>
+ * 作为 {@link CommandListener} 挂在 RedisClient 上，按实例记录命令耗时(借连接+执行)的 peak EWMA：
+ * 比当前值大的样本直接生效，较小的样本按时间衰减，慢下来的从库立即被避开，恢复后分数逐渐下降
+ * </br>
+ * 选择时随机取两个从库，选分数低的(power of two choices)，避免所有请求同时涌向同一个最快的从库；
+ * 按 probeRate 随机选择一个从库作为探测流量，长时间没有样本的从库分数清零，慢从库恢复后能重新得到流量
+ * </br>
+ * 借连接失败或连接异常至少按 {@link #DEFAULT_FAILURE_PENALTY_MILLIS} 计入样本
+ */
+public class EwmaReaderSelector implements PoolSelector, CommandListener {
+
+    public static final long DEFAULT_DECAY_MILLIS = 10 * 1000;
+
+    public static final double DEFAULT_PROBE_RATE = 0.02;
+
+    public static final long DEFAULT_FAILURE_PENALTY_MILLIS = 1000;
+
+    private final AbstractClientFactory factory;
+
+    private final double decayNanos;
+
+    private final long staleNanos;
+
+    private final double probeRate;
+
+    private final long failurePenaltyNanos;
+
+    /**
+     * 连接池(包括各个db的连接池)到所在实例的延迟统计
+     */
+    private final ConcurrentHashMap<JedisPool, Ewma> byPool = new ConcurrentHashMap<>();
+
+    /**
+     * 按实例的延迟统计，连接池重建后沿用
+     */
+    private final ConcurrentHashMap<HostAndPort, Ewma> byHost = new ConcurrentHashMap<>();
+
+    private final Ewma notSlave = new Ewma();
+
+    /**
+     * @param factory      用于查询连接池对应的实例
+     * @param decayMillis  EWMA 的衰减时间常数，小于等于0时使用默认值10秒，超过3倍衰减时间没有样本的从库分数清零
+     * @param probeRate    随机选择从库的比例，(0, 1)，超出范围时使用默认值
+     */
+    public EwmaReaderSelector(AbstractClientFactory factory, long decayMillis, double probeRate) {
+        this.factory = factory;
+        long decay = decayMillis > 0 ? decayMillis : DEFAULT_DECAY_MILLIS;
+        this.decayNanos = TimeUnit.MILLISECONDS.toNanos(decay);
+        this.staleNanos = TimeUnit.MILLISECONDS.toNanos(decay * 3);
+        this.probeRate = probeRate > 0 && probeRate < 1 ? probeRate : DEFAULT_PROBE_RATE;
+        this.failurePenaltyNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_FAILURE_PENALTY_MILLIS);
+    }
+
+    public EwmaReaderSelector(AbstractClientFactory factory) {
+        this(factory, DEFAULT_DECAY_MILLIS, DEFAULT_PROBE_RATE);
+    }
+
+    @Override
+    public <T extends JedisPool> T select(List<T> pools) {
+        int size = pools.size();
+        if (size == 1) {
+            return pools.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < probeRate) {
+            return pools.get(random.nextInt(size));
+        }
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        T a = pools.get(first);
+        T b = pools.get(second);
+        long now = System.nanoTime();
+        return score(a, now) <= score(b, now) ? a : b;
+    }
+
+    @Override
+    public void onCommand(CommandContext context) {
+        JedisPool pool = context.getPool();
+        if (pool == null) {
+            return;
+        }
+        Ewma ewma = resolve(pool);
+        if (ewma == null) {
+            return;
+        }
+        Exception failure = context.getFailure();
+        long sample = !context.isBorrowed() || failure instanceof JedisConnectionException
+                ? Math.max(context.getTotalNanos(), failurePenaltyNanos) : context.getTotalNanos();
+        ewma.update(sample, System.nanoTime());
+    }
+
+    /**
+     * @return 每个实例当前的延迟分数，单位微秒
+     */
+    public Map<String, Long> getLatencyMicros() {
+        long now = System.nanoTime();
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<HostAndPort, Ewma> entry : byHost.entrySet()) {
+            result.put(entry.getKey().toString(), TimeUnit.NANOSECONDS.toMicros((long) entry.getValue().score(now)));
+        }
+        return result;
+    }
+
+    private double score(JedisPool pool, long now) {
+        Ewma ewma = resolve(pool);
+        return ewma == null ? 0 : ewma.score(now);
+    }
+
+    private Ewma resolve(JedisPool pool) {
+        Ewma ewma = byPool.get(pool);
+        if (ewma != null) {
+            return ewma == notSlave ? null : ewma;
+        }
+        byPool.keySet().removeIf(JedisPool::isClosed);
+        PoolInfo info = factory.describePool(pool);
+        if (info == null || info.getRole() != PoolInfo.Role.SLAVE) {
+            // 主库的命令不参与统计，缓存结果避免每次都查询
+            byPool.put(pool, notSlave);
+            return null;
+        }
+        ewma = byHost.computeIfAbsent(info.getHostAndPort(), k -> new Ewma());
+        byPool.put(pool, ewma);
+        return ewma;
+    }
+
+    private final class Ewma {
+        /**
+         * 当前值(纳秒)的 double 位表示
+         */
+        private final AtomicLong value = new AtomicLong(Double.doubleToLongBits(0));
+
+        private volatile long lastNanos;
+
+        void update(long sample, long now) {
+            for (; ; ) {
+                long bits = value.get();
+                double current = Double.longBitsToDouble(bits);
+                double next;
+                if (sample >= current) {
+                    next = sample;
+                } else {
+                    double weight = Math.exp(-Math.max(now - lastNanos, 0) / decayNanos);
+                    next = current * weight + sample * (1 - weight);
+                }
+                if (value.compareAndSet(bits, Double.doubleToLongBits(next))) {
+                    lastNanos = now;
+                    return;
+                }
+            }
+        }
+
+        double score(long now) {
+            if (now - lastNanos > staleNanos) {
+                // 长时间没有样本，重新给机会
+                return 0;
+            }
+            return Double.longBitsToDouble(value.get());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.rickiyang.redis.redis.balance;
+
+import com.rickiyang.redis.redis.CountingJedisPool;
+import redis.clients.jedis.JedisPool;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @date: 2022/01/07 10:00 上午
+ * @author: rickiyang
+ * @Description: 选择未完成请求(正在使用和排队等待连接)最少的连接池
+ * </br>
+ * {@link CountingJedisPool} 的计数是原子变量，选择时不加锁；其它连接池退回到 getNumActive + getNumWaiters，
+ * 这两个值在 commons-pool 内部需要加锁读取。从随机位置开始扫描，负载相同的连接池之间随机分配
+ */
+public class LeastOutstandingPoolSelector implements PoolSelector {
+
+    public static final LeastOutstandingPoolSelector INSTANCE = new LeastOutstandingPoolSelector();
+
+    @Override
+    public <T extends JedisPool> T select(List<T> pools) {
+        int size = pools.size();
+        if (size == 1) {
+            return pools.get(0);
+        }
+        int start = ThreadLocalRandom.current().nextInt(size);
+        T best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            T pool = pools.get((start + i) % size);
+            int load = load(pool);
+            if (load < bestLoad) {
+                best = pool;
+                bestLoad = load;
+                if (load == 0) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int load(JedisPool pool) {
+        if (pool instanceof CountingJedisPool) {
+            return ((CountingJedisPool) pool).getOutstanding();
+        }
+        return pool.isClosed() ? Integer.MAX_VALUE - 1 : pool.getNumActive() + pool.getNumWaiters();
+    }
+}
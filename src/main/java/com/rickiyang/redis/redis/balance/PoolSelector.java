@@ -0,0 +1,21 @@
+package com.rickiyang.redis.redis.balance;
+
+import redis.clients.jedis.JedisPool;
+
+import java.util.List;
+
+/**
+ * @date: 2022/01/06 10:00 上午
+ * @author: rickiyang
+ * @Description: 从候选的连接池中选择一个处理请求，用于选择从库，以及 RedisClientFactory 在多个主库中选择
+ */
+public interface PoolSelector {
+
+    /**
+     * 在命令路径上调用，实现需要无锁且不分配对象
+     *
+     * @param pools 候选的连接池，不为空，可能被并发修改
+     * @return 选中的连接池
+     */
+    <T extends JedisPool> T select(List<T> pools);
+}
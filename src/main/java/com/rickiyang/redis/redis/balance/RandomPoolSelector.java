@@ -0,0 +1,21 @@
+package com.rickiyang.redis.redis.balance;
+
+import redis.clients.jedis.JedisPool;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @date: 2022/01/06 10:00 上午
+ * @author: rickiyang
+ * @Description: 随机选择连接池，从库选择的默认策略
+ */
+public class RandomPoolSelector implements PoolSelector {
+
+    public static final RandomPoolSelector INSTANCE = new RandomPoolSelector();
+
+    @Override
+    public <T extends JedisPool> T select(List<T> pools) {
+        return pools.get(ThreadLocalRandom.current().nextInt(pools.size()));
+    }
+}
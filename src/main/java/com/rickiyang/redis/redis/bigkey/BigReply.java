@@ -0,0 +1,82 @@
+package com.rickiyang.redis.redis.bigkey;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @date: 2021/12/31 10:30 上午
+ * @author: rickiyang
+ * @Description: 同一个实例上同一个命令读取同一个key出现的超大回复
+ */
+public class BigReply {
+
+    private final String pool;
+
+    private final String command;
+
+    private final String key;
+
+    private final AtomicLong count = new AtomicLong();
+
+    private volatile long lastBytes;
+
+    private volatile long lastElements;
+
+    private volatile long maxBytes;
+
+    private volatile long lastSeenMillis;
+
+    BigReply(String pool, String command, String key) {
+        this.pool = pool;
+        this.command = command;
+        this.key = key;
+    }
+
+    /**
+     * @return 是否是第一次出现
+     */
+    boolean record(long bytes, long elements) {
+        lastBytes = bytes;
+        lastElements = elements;
+        maxBytes = Math.max(maxBytes, bytes);
+        lastSeenMillis = System.currentTimeMillis();
+        return count.incrementAndGet() == 1;
+    }
+
+    public String getPool() {
+        return pool;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getLastBytes() {
+        return lastBytes;
+    }
+
+    public long getLastElements() {
+        return lastElements;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getLastSeenMillis() {
+        return lastSeenMillis;
+    }
+
+    @Override
+    public String toString() {
+        return pool + " " + command + " " + key + " count=" + getCount() + " bytes=" + lastBytes + " elements="
+                + lastElements + " maxBytes=" + maxBytes;
+    }
+}
@@ -0,0 +1,318 @@
+package com.rickiyang.redis.redis.bigkey;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rickiyang.redis.redis.AbstractClientFactory;
+import com.rickiyang.redis.redis.PoolInfo;
+import com.rickiyang.redis.redis.monitor.CommandContext;
+import com.rickiyang.redis.redis.monitor.JmxSupport;
+import com.rickiyang.redis.redis.monitor.ReplySizes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.JedisPool;
+
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @date: 2021/12/31 10:30 上午
+ * @author: rickiyang
+ * @Description: 超大回复检测，挂在 RedisClient 上检查 get/hgetAll/hmget/smembers/lrange/zrange/mget/keys 的回复
+ * </br>
+ * 字节数或元素个数超过阈值的回复按 实例+命令+key 记录次数，第一次出现时打印 warn 日志，通过 JMX 查看最近的记录。
+ * 可选的保护模式：
+ * </br>
+ * REJECT: 抛出 {@link BigReplyException}，同一个key在 rejectTtlMillis 内再次读取时不访问redis直接拒绝，
+ * 超大回复只会进入堆一次
+ * </br>
+ * TRUNCATE: 集合类回复截断到阈值以内，lrange 在发送前就把范围收窄到 maxElements；
+ * 单个超大值和 mget/hmget 这类按位置对应的回复无法截断，只做记录
+ */
+public class BigReplyDetector implements BigReplyDetectorMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(BigReplyDetector.class);
+
+    public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    public static final int DEFAULT_MAX_ELEMENTS = 5000;
+
+    public static final long DEFAULT_REJECT_TTL_MILLIS = 60 * 1000;
+
+    private static final int MAX_RECORDS = 1000;
+
+    /**
+     * 回复和参数按位置一一对应的命令，截断会让调用方错位，只记录不截断
+     */
+    private static final Set<String> POSITIONAL_COMMANDS = new HashSet<>(Arrays.asList("mget", "hmget"));
+
+    public enum GuardMode {
+        /**
+         * 只记录，不改变回复
+         */
+        NONE,
+        /**
+         * 拒绝超大回复
+         */
+        REJECT,
+        /**
+         * 截断集合类回复
+         */
+        TRUNCATE
+    }
+
+    private final AbstractClientFactory factory;
+
+    private volatile long maxBytes;
+
+    private volatile int maxElements;
+
+    private volatile GuardMode guardMode;
+
+    /**
+     * 最近出现过的超大回复，key 为 实例 命令 key
+     */
+    private final Cache<String, BigReply> bigReplies;
+
+    /**
+     * REJECT 模式下被拒绝的 命令 key，过期前再次读取直接拒绝
+     */
+    private final Cache<String, Boolean> rejectedKeys;
+
+    private final LongAdder bigReplyCount = new LongAdder();
+
+    private final LongAdder rejectedCount = new LongAdder();
+
+    private final LongAdder truncatedCount = new LongAdder();
+
+    private volatile ObjectName objectName;
+
+    /**
+     * @param factory          用于查询连接池对应的实例
+     * @param maxBytes         回复的最大字节数，小于等于0时使用默认值1MB
+     * @param maxElements      集合回复的最大元素个数，小于等于0时使用默认值
+     * @param guardMode        超过阈值时的处理方式，为null时只记录
+     * @param rejectTtlMillis  REJECT 模式下记住被拒绝key的时间，小于等于0时使用默认值
+     */
+    public BigReplyDetector(AbstractClientFactory factory, long maxBytes, int maxElements, GuardMode guardMode,
+                            long rejectTtlMillis) {
+        this.factory = factory;
+        setMaxBytes(maxBytes);
+        setMaxElements(maxElements);
+        this.guardMode = guardMode == null ? GuardMode.NONE : guardMode;
+        this.bigReplies = Caffeine.newBuilder()
+                .maximumSize(MAX_RECORDS)
+                .expireAfterWrite(10, TimeUnit.MINUTES)
+                .build();
+        this.rejectedKeys = Caffeine.newBuilder()
+                .maximumSize(MAX_RECORDS)
+                .expireAfterWrite(rejectTtlMillis > 0 ? rejectTtlMillis : DEFAULT_REJECT_TTL_MILLIS,
+                        TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public BigReplyDetector(AbstractClientFactory factory) {
+        this(factory, DEFAULT_MAX_BYTES, DEFAULT_MAX_ELEMENTS, GuardMode.NONE, DEFAULT_REJECT_TTL_MILLIS);
+    }
+
+    /**
+     * 发送命令前检查，REJECT 模式下最近被拒绝过的key直接拒绝
+     */
+    public void checkRejected(String command, Object key) {
+        if (guardMode != GuardMode.REJECT || key == null || rejectedKeys.estimatedSize() == 0) {
+            return;
+        }
+        String keyString = CommandContext.keyToString(key);
+        if (rejectedKeys.getIfPresent(command + " " + keyString) != null) {
+            rejectedCount.increment();
+            throw new BigReplyException(command, keyString, "reply of " + command + " " + keyString
+                    + " exceeded the size limit recently, rejected without reading");
+        }
+    }
+
+    /**
+     * TRUNCATE 模式下把 lrange 的范围收窄到 maxElements 以内，只处理起始位置非负的范围
+     *
+     * @return 收窄后的结束位置
+     */
+    public long clampRangeEnd(long start, long end) {
+        if (guardMode != GuardMode.TRUNCATE || start < 0) {
+            return end;
+        }
+        long last = start + maxElements - 1;
+        return end < 0 || end > last ? last : end;
+    }
+
+    /**
+     * 检查回复大小，超过阈值时记录并按保护模式处理
+     *
+     * @param pool     执行命令的连接池
+     * @param command  命令名称
+     * @param key      第一个key
+     * @param reply    命令的回复
+     * @param bytes    回复的估计字节数
+     * @param elements 回复的元素个数
+     * @return 交给调用方的回复，TRUNCATE 时可能是截断后的新集合
+     */
+    public <T> T inspect(JedisPool pool, String command, Object key, T reply, long bytes, long elements) {
+        if (bytes <= maxBytes && elements <= maxElements) {
+            return reply;
+        }
+        bigReplyCount.increment();
+        String keyString = CommandContext.keyToString(key);
+        String poolName = describe(pool);
+        BigReply bigReply = bigReplies.get(poolName + " " + command + " " + keyString,
+                k -> new BigReply(poolName, command, keyString));
+        if (bigReply.record(bytes, elements)) {
+            log.warn("big reply from {}: {} {} bytes={} elements={}", poolName, command, keyString, bytes, elements);
+        } else if (log.isDebugEnabled()) {
+            log.debug("big reply from {}: {} {} bytes={} elements={}", poolName, command, keyString, bytes,
+                    elements);
+        }
+        GuardMode mode = guardMode;
+        if (mode == GuardMode.REJECT) {
+            rejectedCount.increment();
+            if (keyString != null) {
+                rejectedKeys.put(command + " " + keyString, Boolean.TRUE);
+            }
+            throw new BigReplyException(command, keyString, "reply of " + command + " " + keyString + " from "
+                    + poolName + " is too large: bytes=" + bytes + " elements=" + elements);
+        }
+        if (mode == GuardMode.TRUNCATE && (reply instanceof Collection || reply instanceof Map)
+                && !POSITIONAL_COMMANDS.contains(command)) {
+            truncatedCount.increment();
+            return truncate(reply);
+        }
+        return reply;
+    }
+
+    /**
+     * @return 最近出现过的超大回复，按最大字节数降序
+     */
+    public List<BigReply> getBigReplies() {
+        List<BigReply> result = new ArrayList<>(bigReplies.asMap().values());
+        result.sort(Comparator.comparingLong(BigReply::getMaxBytes).reversed());
+        return result;
+    }
+
+    @Override
+    public String[] getBigReplyList() {
+        List<BigReply> replies = getBigReplies();
+        String[] lines = new String[replies.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = replies.get(i).toString();
+        }
+        return lines;
+    }
+
+    @Override
+    public long getBigReplyCount() {
+        return bigReplyCount.sum();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    @Override
+    public long getTruncatedCount() {
+        return truncatedCount.sum();
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes > 0 ? maxBytes : DEFAULT_MAX_BYTES;
+    }
+
+    @Override
+    public int getMaxElements() {
+        return maxElements;
+    }
+
+    @Override
+    public void setMaxElements(int maxElements) {
+        this.maxElements = maxElements > 0 ? maxElements : DEFAULT_MAX_ELEMENTS;
+    }
+
+    public GuardMode getGuard() {
+        return guardMode;
+    }
+
+    public void setGuard(GuardMode guardMode) {
+        this.guardMode = guardMode == null ? GuardMode.NONE : guardMode;
+        if (this.guardMode != GuardMode.REJECT) {
+            rejectedKeys.invalidateAll();
+        }
+    }
+
+    @Override
+    public String getGuardMode() {
+        return guardMode.name();
+    }
+
+    @Override
+    public void setGuardMode(String guardMode) {
+        setGuard(GuardMode.valueOf(guardMode.trim().toUpperCase()));
+    }
+
+    /**
+     * 注册到 platform MBeanServer，shutdown 时注销
+     */
+    public void registerMBean() {
+        objectName = JmxSupport.register("BigReplyDetector", this);
+    }
+
+    public void shutdown() {
+        JmxSupport.unregister(objectName);
+        log.info("BigReplyDetector shutdown...");
+    }
+
+    /**
+     * 保留前面的元素，直到元素个数或字节数达到阈值
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T truncate(T reply) {
+        long bytes = 0;
+        if (reply instanceof Map) {
+            Map<Object, Object> truncated = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) reply).entrySet()) {
+                bytes += ReplySizes.bytes(entry.getKey()) + ReplySizes.bytes(entry.getValue());
+                if (truncated.size() >= maxElements || bytes > maxBytes) {
+                    break;
+                }
+                truncated.put(entry.getKey(), entry.getValue());
+            }
+            return (T) truncated;
+        }
+        Collection<Object> truncated = reply instanceof Set ? new LinkedHashSet<>() : new ArrayList<>();
+        for (Object element : (Collection<?>) reply) {
+            bytes += ReplySizes.bytes(element);
+            if (truncated.size() >= maxElements || bytes > maxBytes) {
+                break;
+            }
+            truncated.add(element);
+        }
+        return (T) truncated;
+    }
+
+    private String describe(JedisPool pool) {
+        PoolInfo info = pool == null || factory == null ? null : factory.describePool(pool);
+        return info == null ? "unknown" : info.getName();
+    }
+}
@@ -0,0 +1,35 @@
+package com.rickiyang.redis.redis.bigkey;
+
+/**
+ * @date: 2021/12/31 10:30 上午
+ * @author: rickiyang
+ * @Description: 通过JMX查看超大回复和调整阈值
+ */
+public interface BigReplyDetectorMXBean {
+
+    /**
+     * @return 最近出现过的超大回复，每行形如 slave@127.0.0.1:6380 hgetall key count=3 bytes=4194304 ...
+     */
+    String[] getBigReplyList();
+
+    long getBigReplyCount();
+
+    long getRejectedCount();
+
+    long getTruncatedCount();
+
+    long getMaxBytes();
+
+    void setMaxBytes(long maxBytes);
+
+    int getMaxElements();
+
+    void setMaxElements(int maxElements);
+
+    /**
+     * @return NONE、REJECT 或 TRUNCATE
+     */
+    String getGuardMode();
+
+    void setGuardMode(String guardMode);
+}
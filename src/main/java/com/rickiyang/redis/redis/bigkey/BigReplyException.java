@@ -0,0 +1,31 @@
+package com.rickiyang.redis.redis.bigkey;
+
+import com.rickiyang.redis.exception.CsRedisRuntimeException;
+
+/**
+ * @date: 2021/12/31 10:30 上午
+ * @author: rickiyang
+ * @Description: 回复超过大小限制被拒绝
+ */
+public class BigReplyException extends CsRedisRuntimeException {
+
+    private static final long serialVersionUID = -4722170520734337745L;
+
+    private final String command;
+
+    private final String key;
+
+    public BigReplyException(String command, String key, String message) {
+        super(message);
+        this.command = command;
+        this.key = key;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public String getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,108 @@
+package com.rickiyang.redis.redis.bulk;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @date: 2021/12/23 11:20 上午
+ * @author: rickiyang
+ * @Description: 批量导入的进度统计，导入过程中可以在其他线程读取
+ */
+public class BulkLoadProgress {
+
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicLong finishNanos = new AtomicLong();
+
+    private final LongAdder submitted = new LongAdder();
+
+    private final LongAdder loaded = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder commandErrors = new LongAdder();
+
+    private final LongAdder batches = new LongAdder();
+
+    private final LongAdder retries = new LongAdder();
+
+    void submitted(int records) {
+        submitted.add(records);
+    }
+
+    void loaded(int records, long errors) {
+        loaded.add(records);
+        commandErrors.add(errors);
+        batches.increment();
+    }
+
+    void failed(int records) {
+        failed.add(records);
+    }
+
+    void retried() {
+        retries.increment();
+    }
+
+    void finish() {
+        finishNanos.compareAndSet(0, System.nanoTime());
+    }
+
+    /**
+     * @return 已读取并放入队列的记录数
+     */
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    /**
+     * @return 已写入的记录数
+     */
+    public long getLoaded() {
+        return loaded.sum();
+    }
+
+    /**
+     * @return 重试后仍失败而放弃的记录数
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return redis 返回错误的命令数，这类错误不会重试
+     */
+    public long getCommandErrors() {
+        return commandErrors.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getElapsedMillis() {
+        long end = finishNanos.get();
+        return ((end == 0 ? System.nanoTime() : end) - startNanos) / 1000000;
+    }
+
+    public double getRecordsPerSecond() {
+        long elapsed = getElapsedMillis();
+        return elapsed == 0 ? 0 : getLoaded() * 1000.0 / elapsed;
+    }
+
+    public boolean isFinished() {
+        return finishNanos.get() != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkLoadProgress{submitted=" + getSubmitted() + ", loaded=" + getLoaded() + ", failed=" + getFailed()
+                + ", commandErrors=" + getCommandErrors() + ", batches=" + getBatches() + ", retries=" + getRetries()
+                + ", elapsedMillis=" + getElapsedMillis() + ", recordsPerSecond="
+                + String.format("%.1f", getRecordsPerSecond()) + "}";
+    }
+}
@@ -0,0 +1,290 @@
+package com.rickiyang.redis.redis.bulk;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rickiyang.redis.exception.CsRedisRuntimeException;
+import com.rickiyang.redis.redis.RedisClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * @date: 2021/12/23 10:40 上午
+ * @author: rickiyang
+ * @Description: 并行批量导入，把记录按批次分发到多个 pipeline 连接上并行写入主库
+ * </br>
+ * 调用线程读取记录并放入有界队列，读取速度超过写入速度时阻塞；每个工作线程独占一个连接，按 batchSize 条记录发送一次 pipeline。
+ * 写入速度可以通过 maxRecordsPerSecond 限制，避免打满主库
+ * </br>
+ * 网络异常的批次会换连接整批重试，重试的批次会重复执行，writer 中应只使用 SET/HSET/ZADD 等幂等的命令
+ */
+public class BulkLoader {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkLoader.class);
+
+    private static final List<Object> END = Collections.emptyList();
+
+    private final RedisClient redisClient;
+
+    private int dbIndex;
+
+    private int connections = 4;
+
+    private int batchSize = 500;
+
+    private double maxRecordsPerSecond;
+
+    private int maxRetries = 3;
+
+    private long retryBackoffMillis = 200;
+
+    private long progressLogIntervalMillis = 10 * 1000;
+
+    public BulkLoader(RedisClient redisClient) {
+        this.redisClient = redisClient;
+    }
+
+    /**
+     * 逐行导入文本文件
+     *
+     * @param file    文件路径
+     * @param charset 文件编码
+     * @param writer  把一行记录转换为管道中的命令
+     * @return 导入完成后的进度统计
+     */
+    public BulkLoadProgress load(Path file, Charset charset, BiConsumer<Pipeline, String> writer) {
+        try (BufferedReader reader = Files.newBufferedReader(file, charset)) {
+            return load(reader.lines().iterator(), writer);
+        } catch (IOException | UncheckedIOException e) {
+            throw new CsRedisRuntimeException("bulk load read file fail: " + file, e);
+        }
+    }
+
+    /**
+     * 导入迭代器中的所有记录，阻塞直到全部写入或重试失败
+     *
+     * @param records 记录，在调用线程上迭代
+     * @param writer  把一条记录转换为管道中的命令，在工作线程上执行
+     * @return 导入完成后的进度统计
+     */
+    @SuppressWarnings("unchecked")
+    public <T> BulkLoadProgress load(Iterator<T> records, BiConsumer<Pipeline, T> writer) {
+        final BulkLoadProgress progress = new BulkLoadProgress();
+        final RateLimiter rateLimiter = maxRecordsPerSecond > 0 ? RateLimiter.create(maxRecordsPerSecond) : null;
+        final BlockingQueue<List<Object>> queue = new ArrayBlockingQueue<>(connections * 2);
+        ExecutorService workers = Executors.newFixedThreadPool(connections,
+                new ThreadFactoryBuilder().setNameFormat("redis-bulk-load-%d").setDaemon(true).build());
+        for (int i = 0; i < connections; i++) {
+            workers.execute(() -> work(queue, (BiConsumer<Pipeline, Object>) writer, rateLimiter, progress));
+        }
+        long lastLog = System.currentTimeMillis();
+        boolean submittedAll = false;
+        try {
+            List<Object> batch = new ArrayList<>(batchSize);
+            while (records.hasNext()) {
+                batch.add(records.next());
+                if (batch.size() >= batchSize) {
+                    progress.submitted(batch.size());
+                    queue.put(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+                if (progressLogIntervalMillis > 0 && System.currentTimeMillis() - lastLog >= progressLogIntervalMillis) {
+                    lastLog = System.currentTimeMillis();
+                    log.info("[bulk load progress] {}", progress);
+                }
+            }
+            if (!batch.isEmpty()) {
+                progress.submitted(batch.size());
+                queue.put(batch);
+            }
+            for (int i = 0; i < connections; i++) {
+                queue.put(END);
+            }
+            submittedAll = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CsRedisRuntimeException("bulk load interrupted", e);
+        } finally {
+            if (submittedAll) {
+                workers.shutdown();
+            } else {
+                // 读取记录失败时中断工作线程，未写入的批次直接丢弃
+                workers.shutdownNow();
+            }
+        }
+        try {
+            while (!workers.awaitTermination(progressLogIntervalMillis > 0 ? progressLogIntervalMillis : 1000,
+                    TimeUnit.MILLISECONDS)) {
+                log.info("[bulk load progress] {}", progress);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+            throw new CsRedisRuntimeException("bulk load interrupted", e);
+        }
+        progress.finish();
+        log.info("[bulk load finished] {}", progress);
+        return progress;
+    }
+
+    private void work(BlockingQueue<List<Object>> queue, BiConsumer<Pipeline, Object> writer, RateLimiter rateLimiter,
+                      BulkLoadProgress progress) {
+        Jedis jedis = null;
+        try {
+            while (true) {
+                List<Object> batch = queue.take();
+                if (batch == END) {
+                    return;
+                }
+                if (rateLimiter != null) {
+                    rateLimiter.acquire(batch.size());
+                }
+                for (int attempt = 0; ; attempt++) {
+                    try {
+                        if (jedis == null) {
+                            JedisPool jedisPool = redisClient.getJedisMasterPool(dbIndex);
+                            jedis = jedisPool.getResource();
+                        }
+                        progress.loaded(batch.size(), writeBatch(jedis, batch, writer));
+                        break;
+                    } catch (Exception e) {
+                        closeQuietly(jedis);
+                        jedis = null;
+                        if (attempt >= maxRetries) {
+                            progress.failed(batch.size());
+                            log.error("[bulk load batch failed] records={}, attempts={}", batch.size(), attempt + 1, e);
+                            break;
+                        }
+                        progress.retried();
+                        Thread.sleep(retryBackoffMillis * (attempt + 1));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeQuietly(jedis);
+        }
+    }
+
+    /**
+     * @return 批次中返回错误的命令数
+     */
+    private long writeBatch(Jedis jedis, List<Object> batch, BiConsumer<Pipeline, Object> writer) {
+        Pipeline pipeline = jedis.pipelined();
+        for (Object record : batch) {
+            writer.accept(pipeline, record);
+        }
+        long errors = 0;
+        for (Object reply : pipeline.syncAndReturnAll()) {
+            if (reply instanceof JedisDataException) {
+                errors++;
+            }
+        }
+        return errors;
+    }
+
+    private void closeQuietly(Jedis jedis) {
+        try {
+            if (jedis != null) {
+                jedis.close();
+            }
+        } catch (Exception e) {
+            log.warn("jedis.close failed", e);
+        }
+    }
+
+    public int getDbIndex() {
+        return dbIndex;
+    }
+
+    public void setDbIndex(int dbIndex) {
+        this.dbIndex = dbIndex;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    /**
+     * @param connections 并行写入的连接数，不应超过连接池的 maxTotal
+     */
+    public void setConnections(int connections) {
+        if (connections <= 0) {
+            throw new IllegalArgumentException("connections should be positive");
+        }
+        this.connections = connections;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize should be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public double getMaxRecordsPerSecond() {
+        return maxRecordsPerSecond;
+    }
+
+    /**
+     * @param maxRecordsPerSecond 每秒最多写入的记录数，小于等于0时不限速
+     */
+    public void setMaxRecordsPerSecond(double maxRecordsPerSecond) {
+        this.maxRecordsPerSecond = maxRecordsPerSecond;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getRetryBackoffMillis() {
+        return retryBackoffMillis;
+    }
+
+    /**
+     * @param retryBackoffMillis 第n次重试前等待 n * retryBackoffMillis 毫秒
+     */
+    public void setRetryBackoffMillis(long retryBackoffMillis) {
+        this.retryBackoffMillis = retryBackoffMillis;
+    }
+
+    public long getProgressLogIntervalMillis() {
+        return progressLogIntervalMillis;
+    }
+
+    /**
+     * @param progressLogIntervalMillis 打印进度日志的间隔，小于等于0时只在结束时打印
+     */
+    public void setProgressLogIntervalMillis(long progressLogIntervalMillis) {
+        this.progressLogIntervalMillis = progressLogIntervalMillis;
+    }
+}
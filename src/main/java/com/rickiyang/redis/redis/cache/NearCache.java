@@ -0,0 +1,382 @@
+package com.rickiyang.redis.redis.cache;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.rickiyang.redis.redis.sentinel.JedisPubSubAdapter;
+import com.rickiyang.redis.util.Json;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * @date: 2021/12/13 2:40 下午
+ * @author: rickiyang
+ * @Description: 进程内近端缓存，放在 RedisClient 的读操作前面
+ * </br>
+ * 基于 Caffeine(W-TinyLFU) 按条数淘汰，每个条目的过期时间跟随 redis 中 key 的剩余 TTL，且不超过 maxTtlMillis。
+ * 写操作修改了缓存的key后，本地立即失效，并通过 pub/sub 频道批量通知其他节点失效
+ */
+public class NearCache {
+
+    private static final Logger log = LoggerFactory.getLogger(NearCache.class);
+
+    public static final String DEFAULT_CHANNEL = "__rickiyang_near_cache_invalidate__";
+
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+    public static final long DEFAULT_MAX_TTL_MILLIS = 60 * 1000;
+
+    private static final long PUBLISH_INTERVAL_MILLIS = 5;
+
+    private static final long RESUBSCRIBE_WAIT_MILLIS = 5000;
+
+    private static final TypeReference<List<String>> KEY_LIST_TYPE = new TypeReference<List<String>>() {
+    };
+
+    private final Cache<CacheKey, CacheValue> cache;
+
+    private final long maxTtlMillis;
+
+    private final List<String> keyPrefixes;
+
+    private final String channel;
+
+    /**
+     * 每次失效都会递增，加载前后不一致说明加载期间发生过写，放弃回填，避免把旧值写回缓存
+     */
+    private final AtomicLong invalidationSequence = new AtomicLong();
+
+    private final ConcurrentLinkedQueue<String> pendingInvalidations = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private Supplier<JedisPool> masterPoolSupplier;
+
+    private volatile Jedis subscriber;
+
+    private Thread subscribeThread;
+
+    private Thread publishThread;
+
+    /**
+     * @param maximumSize  最多缓存的key数量，小于等于0时使用默认值
+     * @param maxTtlMillis 条目最长存活时间，redis中未设置过期的key也按这个时间过期，小于等于0时使用默认值
+     * @param keyPrefixes  只缓存这些前缀的key，为空时缓存所有key
+     * @param channel      失效通知的频道，为空时使用默认频道
+     */
+    public NearCache(long maximumSize, long maxTtlMillis, List<String> keyPrefixes, String channel) {
+        this.maxTtlMillis = maxTtlMillis > 0 ? maxTtlMillis : DEFAULT_MAX_TTL_MILLIS;
+        this.keyPrefixes = keyPrefixes == null ? Collections.<String>emptyList() : new ArrayList<>(keyPrefixes);
+        this.channel = channel == null || "".equals(channel.trim()) ? DEFAULT_CHANNEL : channel;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize > 0 ? maximumSize : DEFAULT_MAXIMUM_SIZE)
+                .expireAfter(new Expiry<CacheKey, CacheValue>() {
+                    @Override
+                    public long expireAfterCreate(CacheKey key, CacheValue value, long currentTime) {
+                        return value.ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(CacheKey key, CacheValue value, long currentTime,
+                                                  long currentDuration) {
+                        return value.ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterRead(CacheKey key, CacheValue value, long currentTime,
+                                                long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    public NearCache() {
+        this(DEFAULT_MAXIMUM_SIZE, DEFAULT_MAX_TTL_MILLIS, null, DEFAULT_CHANNEL);
+    }
+
+    /**
+     * 开始订阅失效通知
+     *
+     * @param masterPoolSupplier 获取master连接池，主从切换后会重新获取
+     */
+    public void start(Supplier<JedisPool> masterPoolSupplier) {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        this.masterPoolSupplier = masterPoolSupplier;
+        subscribeThread = new Thread(this::subscribeLoop, "redis-near-cache-subscriber");
+        subscribeThread.setDaemon(true);
+        subscribeThread.start();
+        publishThread = new Thread(this::publishLoop, "redis-near-cache-publisher");
+        publishThread.setDaemon(true);
+        publishThread.start();
+    }
+
+    public void shutdown() {
+        running.set(false);
+        Jedis j = subscriber;
+        if (j != null) {
+            try {
+                // 与 MasterListener 一样，直接断开阻塞在 subscribe 上的连接
+                j.disconnect();
+            } catch (Exception e) {
+                log.warn("near cache subscriber disconnect fail", e);
+            }
+        }
+        if (publishThread != null) {
+            publishThread.interrupt();
+        }
+        cache.invalidateAll();
+        log.info("NearCache shutdown...");
+    }
+
+    /**
+     * 判断key是否需要走近端缓存
+     */
+    public boolean isCacheable(String key) {
+        if (key == null) {
+            return false;
+        }
+        if (keyPrefixes.isEmpty()) {
+            return true;
+        }
+        for (String prefix : keyPrefixes) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 查询缓存，未命中时通过loader从redis加载(值和剩余TTL)并回填
+     *
+     * @param dbIndex db的索引值
+     * @param key     redis key
+     * @param kind    值的类型，类型不一致时视为未命中
+     * @param loader  未命中时的加载函数
+     * @return 缓存或redis中的值
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(int dbIndex, String key, Kind kind, Loader<T> loader) {
+        CacheKey cacheKey = new CacheKey(dbIndex, key);
+        CacheValue cached = cache.getIfPresent(cacheKey);
+        if (cached != null && cached.kind == kind) {
+            return (T) cached.value;
+        }
+        long sequence = invalidationSequence.get();
+        Loaded<T> loaded = loader.load();
+        long ttlMillis = loaded.pttl > 0 ? Math.min(loaded.pttl, maxTtlMillis) : maxTtlMillis;
+        if (loaded.pttl != 0 && sequence == invalidationSequence.get()) {
+            cache.put(cacheKey, new CacheValue(kind, loaded.value, TimeUnit.MILLISECONDS.toNanos(ttlMillis)));
+        }
+        return loaded.value;
+    }
+
+    /**
+     * 写操作之后调用，本地失效并通知其他节点
+     *
+     * @param dbIndex db的索引值
+     * @param keys    被修改的key
+     */
+    public void invalidate(int dbIndex, String... keys) {
+        for (String key : keys) {
+            if (!isCacheable(key)) {
+                continue;
+            }
+            invalidateLocal(dbIndex, key);
+            pendingInvalidations.offer(dbIndex + ":" + key);
+        }
+    }
+
+    private void invalidateLocal(int dbIndex, String key) {
+        invalidationSequence.incrementAndGet();
+        cache.invalidate(new CacheKey(dbIndex, key));
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    private void publishLoop() {
+        while (running.get()) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(PUBLISH_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                if (!running.get()) {
+                    break;
+                }
+            }
+            if (pendingInvalidations.isEmpty()) {
+                continue;
+            }
+            List<String> batch = new ArrayList<>();
+            String next;
+            while ((next = pendingInvalidations.poll()) != null) {
+                batch.add(next);
+            }
+            try (Jedis jedis = masterPoolSupplier.get().getResource()) {
+                jedis.publish(channel, Json.ObjToStr(batch));
+            } catch (Exception e) {
+                log.warn("publish near cache invalidation fail, size:" + batch.size(), e);
+            }
+        }
+    }
+
+    private void subscribeLoop() {
+        while (running.get()) {
+            JedisPool pool = null;
+            try {
+                pool = masterPoolSupplier.get();
+                subscriber = pool.getResource();
+                subscriber.subscribe(new JedisPubSubAdapter() {
+                    @Override
+                    public void onSubscribe(String channel, int subscribedChannels) {
+                        // 订阅中断期间可能漏掉了通知，重新订阅后清空整个缓存
+                        invalidationSequence.incrementAndGet();
+                        cache.invalidateAll();
+                        log.info("near cache subscribed on channel " + channel);
+                    }
+
+                    @Override
+                    public void onMessage(String channel, String message) {
+                        onInvalidation(message);
+                    }
+                }, channel);
+            } catch (Exception e) {
+                if (running.get()) {
+                    log.error("near cache lost subscription on " + channel + ". Sleeping " + RESUBSCRIBE_WAIT_MILLIS
+                            + "ms and retrying.", e);
+                    try {
+                        Thread.sleep(RESUBSCRIBE_WAIT_MILLIS);
+                    } catch (InterruptedException e1) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            } finally {
+                Jedis j = subscriber;
+                subscriber = null;
+                if (j != null) {
+                    try {
+                        j.close();
+                    } catch (Exception e) {
+                        log.warn("jedis.close failed", e);
+                    }
+                }
+            }
+        }
+    }
+
+    private void onInvalidation(String message) {
+        try {
+            for (String entry : Json.strToObj(message, KEY_LIST_TYPE)) {
+                int split = entry.indexOf(':');
+                if (split > 0) {
+                    invalidateLocal(Integer.parseInt(entry.substring(0, split)), entry.substring(split + 1));
+                }
+            }
+        } catch (Exception e) {
+            log.warn("invalid near cache message: " + message, e);
+        }
+    }
+
+    /**
+     * 缓存值的类型，同一个key只会是其中一种
+     */
+    public enum Kind {
+        STRING, HASH, SET
+    }
+
+    /**
+     * 未命中时从redis加载值和剩余TTL
+     */
+    public interface Loader<T> {
+        Loaded<T> load();
+    }
+
+    /**
+     * 加载结果
+     */
+    public static class Loaded<T> {
+        private final T value;
+        private final long pttl;
+
+        /**
+         * @param value 值
+         * @param pttl  redis PTTL 的返回值，-1 表示不过期，-2 表示key不存在
+         */
+        public Loaded(T value, long pttl) {
+            this.value = value;
+            this.pttl = pttl;
+        }
+
+        /**
+         * 不回填缓存的加载结果，如被截断的超大回复
+         */
+        public static <T> Loaded<T> uncached(T value) {
+            return new Loaded<>(value, 0);
+        }
+    }
+
+    private static final class CacheKey {
+        private final int dbIndex;
+        private final String key;
+
+        private CacheKey(int dbIndex, String key) {
+            this.dbIndex = dbIndex;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey that = (CacheKey) o;
+            return dbIndex == that.dbIndex && key.equals(that.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * dbIndex + key.hashCode();
+        }
+    }
+
+    private static final class CacheValue {
+        private final Kind kind;
+        private final Object value;
+        private final long ttlNanos;
+
+        private CacheValue(Kind kind, Object value, long ttlNanos) {
+            this.kind = kind;
+            this.value = value;
+            this.ttlNanos = ttlNanos;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.rickiyang.redis.redis.codec;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.rickiyang.redis.exception.CsRedisRuntimeException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @date: 2021/12/20 10:30 上午
+ * @author: rickiyang
+ * @Description: 基于 jackson 的编解码，对象直接序列化成 UTF-8 JSON 字节，与 {@link com.rickiyang.redis.util.Json} 写出的内容兼容
+ * </br>
+ * 每个 Class 对应的 JavaType 和 ObjectReader 只解析一次，缓存后复用
+ */
+public class JacksonCodec implements RedisCodec<Object> {
+
+    private final ObjectMapper mapper;
+
+    private final ObjectWriter writer;
+
+    private final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    public JacksonCodec() {
+        this(new ObjectMapper());
+    }
+
+    /**
+     * @param mapper 自定义的 ObjectMapper，会关闭 FAIL_ON_UNKNOWN_PROPERTIES，忽略不存在的属性
+     */
+    public JacksonCodec(ObjectMapper mapper) {
+        this.mapper = mapper.copy().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this.writer = this.mapper.writer();
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        try {
+            return writer.writeValueAsBytes(value);
+        } catch (Exception e) {
+            throw new CsRedisRuntimeException("codec encode fail, type: " + value.getClass().getName(), e);
+        }
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        try {
+            return reader(type).readValue(bytes);
+        } catch (Exception e) {
+            throw new CsRedisRuntimeException("codec decode fail, type: " + type.getName(), e);
+        }
+    }
+
+    private ObjectReader reader(Class<?> type) {
+        ObjectReader reader = readers.get(type);
+        if (reader == null) {
+            reader = readers.computeIfAbsent(type, t -> {
+                JavaType javaType = mapper.getTypeFactory().constructType(t);
+                return mapper.readerFor(javaType);
+            });
+        }
+        return reader;
+    }
+}
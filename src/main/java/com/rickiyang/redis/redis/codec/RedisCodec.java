@@ -0,0 +1,24 @@
+package com.rickiyang.redis.redis.codec;
+
+/**
+ * @date: 2021/12/20 10:15 上午
+ * @author: rickiyang
+ * @Description: value 编解码SPI，对象直接编码成 byte[] 写入redis，避免先转 JSON String 再转 UTF-8 的两次拷贝
+ * </br>
+ * 实现类需要线程安全，一个 RedisClient 上的所有调用共用同一个实例
+ */
+public interface RedisCodec<T> {
+
+    /**
+     * @param value 待编码的对象，不为null
+     * @return 写入redis的字节
+     */
+    byte[] encode(T value);
+
+    /**
+     * @param bytes redis中读到的字节，不为null
+     * @param type  目标类型
+     * @return 解码后的对象
+     */
+    <R extends T> R decode(byte[] bytes, Class<R> type);
+}
@@ -0,0 +1,19 @@
+package com.rickiyang.redis.redis.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+/**
+ * @date: 2021/12/20 11:00 上午
+ * @author: rickiyang
+ * @Description: 紧凑的二进制编解码，使用 jackson smile 格式
+ * </br>
+ * 数值按变长编码，重复出现的字段名只写一次，体积和解析开销都小于 JSON；写出的内容不再是可读文本，切换前确认没有直接读取字符串的调用方
+ */
+public class SmileCodec extends JacksonCodec {
+
+    public SmileCodec() {
+        super(new ObjectMapper(new SmileFactory().enable(SmileGenerator.Feature.CHECK_SHARED_NAMES)));
+    }
+}
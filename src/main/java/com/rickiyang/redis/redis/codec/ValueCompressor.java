@@ -0,0 +1,130 @@
+package com.rickiyang.redis.redis.codec;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * @date: 2021/12/21 3:20 下午
+ * @author: rickiyang
+ * @Description: 大 value 的透明压缩，作用在 RedisClient 的 byte[] 读写和 codec 路径上
+ * </br>
+ * 压缩后的格式: [0xC0][算法][原始长度 4字节][压缩数据]。0xC0 在 UTF-8 中不会出现，JSON/文本类的旧值不会被误判，
+ * 读取时没有头部或者解压失败的 value 原样返回，所以上线期间未压缩的旧值可以正常读取
+ * </br>
+ * 灰度时先把 threshold 配置成很大的值让所有节点具备解压能力，再调小阈值开始写入压缩数据
+ */
+public class ValueCompressor {
+
+    public static final byte MAGIC = (byte) 0xC0;
+
+    public static final byte DEFLATE = 1;
+
+    public static final int DEFAULT_THRESHOLD = 4 * 1024;
+
+    /**
+     * 原始长度超过该值的头部视为非法，防止误判的旧值导致分配超大数组
+     */
+    private static final int MAX_ORIGINAL_LENGTH = 512 * 1024 * 1024;
+
+    private static final int HEADER_LENGTH = 6;
+
+    /**
+     * Deflater/Inflater 持有本地内存，按线程复用
+     */
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    private final int threshold;
+
+    private final ThreadLocal<Deflater> deflaters;
+
+    /**
+     * @param threshold 大于等于该字节数的 value 才压缩，小于等于0时使用默认值 4KB；
+     *                  不超过头部长度的 value 压缩没有收益，阈值最小为头部长度加1
+     * @param level     deflate 压缩级别 1-9，为0时使用 {@link Deflater#BEST_SPEED}
+     */
+    public ValueCompressor(int threshold, int level) {
+        this.threshold = threshold <= 0 ? DEFAULT_THRESHOLD : Math.max(threshold, HEADER_LENGTH + 1);
+        final int deflateLevel = level <= 0 ? Deflater.BEST_SPEED : Math.min(level, Deflater.BEST_COMPRESSION);
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(deflateLevel));
+    }
+
+    public ValueCompressor() {
+        this(DEFAULT_THRESHOLD, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * @param value 原始 value
+     * @return 未达到阈值或压缩后没有变小时返回原数组
+     */
+    public byte[] compress(byte[] value) {
+        if (value == null || value.length < threshold) {
+            return value;
+        }
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(value);
+        deflater.finish();
+        // 输出缓冲与原始值等长，写满仍未结束说明压缩没有收益
+        byte[] out = new byte[value.length];
+        out[0] = MAGIC;
+        out[1] = DEFLATE;
+        writeInt(out, 2, value.length);
+        int length = HEADER_LENGTH;
+        while (!deflater.finished() && length < out.length) {
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        if (!deflater.finished()) {
+            return value;
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    /**
+     * @param value redis中读取的 value
+     * @return 带压缩头部时返回解压后的数据，否则原样返回
+     */
+    public static byte[] decompress(byte[] value) {
+        if (value == null || value.length <= HEADER_LENGTH || value[0] != MAGIC || value[1] != DEFLATE) {
+            return value;
+        }
+        int originalLength = readInt(value, 2);
+        if (originalLength <= 0 || originalLength > MAX_ORIGINAL_LENGTH) {
+            return value;
+        }
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(value, HEADER_LENGTH, value.length - HEADER_LENGTH);
+        byte[] out = new byte[originalLength];
+        int length = 0;
+        try {
+            while (length < originalLength) {
+                int n = inflater.inflate(out, length, originalLength - length);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+        } catch (DataFormatException e) {
+            return value;
+        }
+        return length == originalLength ? out : value;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+}
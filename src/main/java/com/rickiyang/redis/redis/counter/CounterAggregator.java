@@ -0,0 +1,331 @@
+package com.rickiyang.redis.redis.counter;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rickiyang.redis.redis.RedisClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @date: 2021/12/28 11:00 上午
+ * @author: rickiyang
+ * @Description: 客户端计数聚合，increment 只累加到进程内的 LongAdder，按固定间隔把聚合后的增量用一个流式 pipeline
+ * 以 INCRBY/HINCRBY/ZINCRBY 写入 redis，热点计数器的写 QPS 从每次请求一次降为每个间隔一次
+ * </br>
+ * 计数在 redis 中最多落后 flushIntervalMillis，shutdown 时会做最后一次 flush；进程崩溃时未 flush 的增量会丢失。
+ * flush 失败时未确认的增量会合并回下一轮重试，发送后未收到回复的命令可能被重复计入
+ */
+public class CounterAggregator {
+
+    private static final Logger log = LoggerFactory.getLogger(CounterAggregator.class);
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+    public static final int DEFAULT_MAX_PENDING_KEYS = 100000;
+
+    private final RedisClient redisClient;
+
+    private final int dbIndex;
+
+    private final long flushIntervalMillis;
+
+    private final int maxPendingKeys;
+
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    private volatile Generation current = new Generation();
+
+    private volatile boolean closed;
+
+    /**
+     * @param redisClient         redis客户端
+     * @param dbIndex             计数器所在的db
+     * @param flushIntervalMillis flush 间隔，即计数的最大延迟，小于等于0时使用默认值
+     * @param maxPendingKeys      未 flush 的计数器超过该数量时提前 flush，小于等于0时使用默认值
+     */
+    public CounterAggregator(RedisClient redisClient, int dbIndex, long flushIntervalMillis, int maxPendingKeys) {
+        this.redisClient = redisClient;
+        this.dbIndex = dbIndex;
+        this.flushIntervalMillis = flushIntervalMillis > 0 ? flushIntervalMillis : DEFAULT_FLUSH_INTERVAL_MILLIS;
+        this.maxPendingKeys = maxPendingKeys > 0 ? maxPendingKeys : DEFAULT_MAX_PENDING_KEYS;
+        this.scheduler = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("redis-counter-flush-%d").setDaemon(true).build());
+        this.scheduler.scheduleWithFixedDelay(this::flushQuietly, this.flushIntervalMillis, this.flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public CounterAggregator(RedisClient redisClient) {
+        this(redisClient, 0, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_MAX_PENDING_KEYS);
+    }
+
+    /**
+     * 累加 INCRBY key delta
+     */
+    public void increment(String key, long delta) {
+        add(new CounterKey(Type.INCRBY, key, null), delta);
+    }
+
+    /**
+     * 累加 HINCRBY key field delta
+     */
+    public void increment(String key, String field, long delta) {
+        add(new CounterKey(Type.HINCRBY, key, field), delta);
+    }
+
+    /**
+     * 累加 ZINCRBY key delta member
+     */
+    public void incrementScore(String key, String member, double delta) {
+        CounterKey counterKey = new CounterKey(Type.ZINCRBY, key, member);
+        while (true) {
+            Generation generation = current;
+            if (generation.enter()) {
+                try {
+                    generation.doubles.computeIfAbsent(counterKey, k -> new DoubleAdder()).add(delta);
+                } finally {
+                    generation.exit();
+                }
+                checkPendingKeys(generation);
+                return;
+            }
+        }
+    }
+
+    private void add(CounterKey counterKey, long delta) {
+        while (true) {
+            Generation generation = current;
+            if (generation.enter()) {
+                try {
+                    generation.longs.computeIfAbsent(counterKey, k -> new LongAdder()).add(delta);
+                } finally {
+                    generation.exit();
+                }
+                checkPendingKeys(generation);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return 当前未 flush 的计数器数量
+     */
+    public int getPendingCount() {
+        Generation generation = current;
+        return generation.longs.size() + generation.doubles.size();
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    /**
+     * 立即把所有累加的增量写入redis
+     */
+    public synchronized void flush() {
+        flushScheduled.set(false);
+        Generation old = current;
+        if (old.longs.isEmpty() && old.doubles.isEmpty()) {
+            return;
+        }
+        current = new Generation();
+        old.close();
+        final List<Delta> deltas = old.drain();
+        if (deltas.isEmpty()) {
+            return;
+        }
+        final int[] acked = new int[1];
+        try {
+            redisClient.doStreamingPipline(dbIndex, 0, 0, pipeline -> {
+                for (Delta delta : deltas) {
+                    delta.apply(pipeline);
+                }
+            }, result -> {
+                if (result instanceof JedisDataException) {
+                    log.warn("flush counter {} fail: {}", deltas.get(acked[0]).key, ((JedisDataException) result).getMessage());
+                }
+                acked[0]++;
+            });
+        } catch (Exception e) {
+            log.warn("flush counters fail, retry " + (deltas.size() - acked[0]) + " of " + deltas.size()
+                    + " next round", e);
+            for (int i = acked[0]; i < deltas.size(); i++) {
+                restore(deltas.get(i));
+            }
+        }
+    }
+
+    /**
+     * 停止定时 flush，并把剩余的增量写入redis
+     */
+    public void shutdown() {
+        closed = true;
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(flushIntervalMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+        log.info("CounterAggregator shutdown...");
+    }
+
+    /**
+     * flush 失败时合并回当前周期
+     */
+    private void restore(Delta delta) {
+        if (delta.key.type == Type.ZINCRBY) {
+            incrementScore(delta.key.key, delta.key.field, delta.doubleValue);
+        } else {
+            add(delta.key, delta.longValue);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.warn("flush counters fail", e);
+        }
+    }
+
+    private void checkPendingKeys(Generation generation) {
+        if (generation.longs.size() + generation.doubles.size() >= maxPendingKeys && !closed
+                && flushScheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::flushQuietly);
+            } catch (Exception e) {
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    private enum Type {
+        INCRBY, HINCRBY, ZINCRBY
+    }
+
+    /**
+     * 一轮 flush 周期内的计数，flush 时整体替换
+     * </br>
+     * increment 先登记 inflight 再检查 closed，flush 先设置 closed 再等 inflight 归零，两者至少有一方能看到对方，
+     * 所以关闭后的 generation 不会再有新的累加，汇总时不会漏掉增量
+     */
+    private static final class Generation {
+        private final ConcurrentHashMap<CounterKey, LongAdder> longs = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<CounterKey, DoubleAdder> doubles = new ConcurrentHashMap<>();
+        private final LongAdder inflight = new LongAdder();
+        private volatile boolean closed;
+
+        boolean enter() {
+            inflight.increment();
+            if (closed) {
+                inflight.decrement();
+                return false;
+            }
+            return true;
+        }
+
+        void exit() {
+            inflight.decrement();
+        }
+
+        void close() {
+            closed = true;
+            while (inflight.sum() != 0) {
+                Thread.yield();
+            }
+        }
+
+        List<Delta> drain() {
+            List<Delta> deltas = new ArrayList<>(longs.size() + doubles.size());
+            for (Map.Entry<CounterKey, LongAdder> entry : longs.entrySet()) {
+                long value = entry.getValue().sum();
+                if (value != 0) {
+                    deltas.add(new Delta(entry.getKey(), value, 0));
+                }
+            }
+            for (Map.Entry<CounterKey, DoubleAdder> entry : doubles.entrySet()) {
+                double value = entry.getValue().sum();
+                if (value != 0) {
+                    deltas.add(new Delta(entry.getKey(), 0, value));
+                }
+            }
+            return deltas;
+        }
+    }
+
+    private static final class Delta {
+        private final CounterKey key;
+        private final long longValue;
+        private final double doubleValue;
+
+        Delta(CounterKey key, long longValue, double doubleValue) {
+            this.key = key;
+            this.longValue = longValue;
+            this.doubleValue = doubleValue;
+        }
+
+        void apply(Pipeline pipeline) {
+            switch (key.type) {
+                case INCRBY:
+                    pipeline.incrBy(key.key, longValue);
+                    break;
+                case HINCRBY:
+                    pipeline.hincrBy(key.key, key.field, longValue);
+                    break;
+                case ZINCRBY:
+                    pipeline.zincrby(key.key, doubleValue, key.field);
+                    break;
+                default:
+                    throw new IllegalStateException("unknown counter type " + key.type);
+            }
+        }
+    }
+
+    private static final class CounterKey {
+        private final Type type;
+        private final String key;
+        private final String field;
+
+        CounterKey(Type type, String key, String field) {
+            this.type = type;
+            this.key = key;
+            this.field = field;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CounterKey)) {
+                return false;
+            }
+            CounterKey that = (CounterKey) o;
+            return type == that.type && key.equals(that.key) && Objects.equals(field, that.field);
+        }
+
+        @Override
+        public int hashCode() {
+            return (type.hashCode() * 31 + key.hashCode()) * 31 + Objects.hashCode(field);
+        }
+
+        @Override
+        public String toString() {
+            return field == null ? key : key + ":" + field;
+        }
+    }
+}
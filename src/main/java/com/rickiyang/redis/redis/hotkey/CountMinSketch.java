@@ -0,0 +1,75 @@
+package com.rickiyang.redis.redis.hotkey;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @date: 2021/12/30 2:00 下午
+ * @author: rickiyang
+ * @Description: count-min sketch，固定内存估计每个key的访问次数，估计值只会偏大不会偏小
+ * </br>
+ * 每行用 hash 的高低32位做双重散列定位，计数用 AtomicLongArray 无锁累加
+ */
+final class CountMinSketch {
+
+    private static final int DEPTH = 4;
+
+    private final int width;
+
+    private final int mask;
+
+    private final AtomicLongArray counters;
+
+    /**
+     * @param width 每行的计数器个数，向上取整为2的幂
+     */
+    CountMinSketch(int width) {
+        int w = Integer.highestOneBit(Math.max(width, 16) - 1) << 1;
+        this.width = w;
+        this.mask = w - 1;
+        this.counters = new AtomicLongArray(DEPTH * w);
+    }
+
+    /**
+     * 累加一次访问
+     *
+     * @param hash {@link #hash(Object)} 的结果
+     * @return 累加后的估计值
+     */
+    long add(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            long count = counters.incrementAndGet(i * width + ((h1 + i * h2) & mask));
+            min = Math.min(min, count);
+        }
+        return min;
+    }
+
+    /**
+     * String 和 byte[] 的key按相同的方式散列，ASCII key 的两种形式结果相同，不分配对象
+     */
+    static long hash(Object key) {
+        long h = 0xcbf29ce484222325L;
+        if (key instanceof String) {
+            String s = (String) key;
+            for (int i = 0; i < s.length(); i++) {
+                h = (h ^ s.charAt(i)) * 0x100000001b3L;
+            }
+        } else if (key instanceof byte[]) {
+            byte[] b = (byte[]) key;
+            for (byte value : b) {
+                h = (h ^ (value & 0xff)) * 0x100000001b3L;
+            }
+        } else {
+            h ^= key.hashCode();
+        }
+        // murmur3 fmix64，打散 FNV 低位
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,58 @@
+package com.rickiyang.redis.redis.hotkey;
+
+/**
+ * @date: 2021/12/30 2:00 下午
+ * @author: rickiyang
+ * @Description: 一个统计窗口内访问最多的key
+ */
+public class HotKey {
+
+    private final String pool;
+
+    private final String key;
+
+    private final long count;
+
+    private final long windowMillis;
+
+    public HotKey(String pool, String key, long count, long windowMillis) {
+        this.pool = pool;
+        this.key = key;
+        this.count = count;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @return 连接池指向的实例，形如 master@127.0.0.1:6379
+     */
+    public String getPool() {
+        return pool;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return 窗口内的估计访问次数，已按采样率放大
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * @return 按窗口长度折算的每秒访问次数
+     */
+    public long getQps() {
+        return windowMillis <= 0 ? count : count * 1000 / windowMillis;
+    }
+
+    @Override
+    public String toString() {
+        return pool + " " + key + " count=" + count + " qps=" + getQps();
+    }
+}
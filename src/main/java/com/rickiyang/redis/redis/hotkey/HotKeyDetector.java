@@ -0,0 +1,390 @@
+package com.rickiyang.redis.redis.hotkey;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rickiyang.redis.redis.AbstractClientFactory;
+import com.rickiyang.redis.redis.PoolInfo;
+import com.rickiyang.redis.redis.monitor.CommandContext;
+import com.rickiyang.redis.redis.monitor.CommandListener;
+import com.rickiyang.redis.redis.monitor.JmxSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.JedisPool;
+
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @date: 2021/12/30 2:00 下午
+ * @author: rickiyang
+ * @Description: 热点key探测，作为 {@link CommandListener} 挂在 RedisClient 上，按连接池分别统计
+ * </br>
+ * 每个命令的key按 sampleRate 采样后计入 count-min sketch 估计访问次数，估计值进入前 topK 的key保留原始key，
+ * 记录路径只做散列和原子累加，不分配对象；只有新进入 topK 的key才会生成字符串
+ * </br>
+ * 统计按 windowMillis 滚动，上一个完整窗口的结果通过 {@link #getHotKeys()} 和 JMX 查看；
+ * 当前窗口内访问量折算后超过 thresholdQps 的key会回调 {@link HotKeyListener}
+ */
+public class HotKeyDetector implements CommandListener, HotKeyDetectorMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(HotKeyDetector.class);
+
+    public static final double DEFAULT_SAMPLE_RATE = 0.1;
+
+    public static final int DEFAULT_TOP_K = 20;
+
+    public static final long DEFAULT_WINDOW_MILLIS = 10000;
+
+    public static final int DEFAULT_SKETCH_WIDTH = 2048;
+
+    private final AbstractClientFactory factory;
+
+    private final double sampleRate;
+
+    private final int topK;
+
+    private final long windowMillis;
+
+    private volatile long thresholdQps;
+
+    /**
+     * thresholdQps 换算成一个窗口内的采样次数，为0时不回调
+     */
+    private volatile long thresholdSamples;
+
+    private final ConcurrentHashMap<JedisPool, PoolStats> pools = new ConcurrentHashMap<>();
+
+    private final List<HotKeyListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private volatile ObjectName objectName;
+
+    /**
+     * @param factory      用于查询连接池对应的实例
+     * @param sampleRate   采样率，(0, 1]，超出范围时使用默认值
+     * @param topK         每个连接池每个窗口保留的热点key个数，小于等于0时使用默认值
+     * @param windowMillis 统计窗口，小于等于0时使用默认值
+     * @param thresholdQps 回调阈值，小于等于0时不回调
+     */
+    public HotKeyDetector(AbstractClientFactory factory, double sampleRate, int topK, long windowMillis,
+                          long thresholdQps) {
+        this.factory = factory;
+        this.sampleRate = sampleRate > 0 && sampleRate <= 1 ? sampleRate : DEFAULT_SAMPLE_RATE;
+        this.topK = topK > 0 ? topK : DEFAULT_TOP_K;
+        this.windowMillis = windowMillis > 0 ? windowMillis : DEFAULT_WINDOW_MILLIS;
+        setThresholdQps(thresholdQps);
+        this.scheduler = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("redis-hot-key-%d").setDaemon(true).build());
+        this.scheduler.scheduleAtFixedRate(this::rollQuietly, this.windowMillis, this.windowMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public HotKeyDetector(AbstractClientFactory factory) {
+        this(factory, DEFAULT_SAMPLE_RATE, DEFAULT_TOP_K, DEFAULT_WINDOW_MILLIS, 0);
+    }
+
+    public void addListener(HotKeyListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(HotKeyListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void onCommand(CommandContext context) {
+        JedisPool pool = context.getPool();
+        int keyCount = context.getKeyCount();
+        if (pool == null || keyCount == 0) {
+            return;
+        }
+        PoolStats stats = pools.get(pool);
+        if (stats == null) {
+            stats = pools.computeIfAbsent(pool, PoolStats::new);
+        }
+        Window window = stats.current;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < keyCount; i++) {
+            if (sampleRate >= 1 || random.nextDouble() < sampleRate) {
+                record(stats, window, context.getKey(i));
+            }
+        }
+    }
+
+    private void record(PoolStats stats, Window window, Object key) {
+        long hash = CountMinSketch.hash(key);
+        long samples = window.sketch.add(hash);
+        if (samples <= window.floor) {
+            return;
+        }
+        Candidate crossed = window.offer(key, hash, samples, thresholdSamples);
+        if (crossed != null && !listeners.isEmpty()) {
+            HotKey hotKey = new HotKey(describe(stats), crossed.key, scale(samples), windowMillis);
+            try {
+                scheduler.execute(() -> fire(hotKey));
+            } catch (Exception e) {
+                log.debug("hot key detector is shutdown, drop {}", hotKey);
+            }
+        }
+    }
+
+    /**
+     * @return 上一个完整窗口内每个实例的热点key，按访问次数降序
+     */
+    public Map<String, List<HotKey>> getHotKeys() {
+        Map<String, List<HotKey>> result = new LinkedHashMap<>();
+        for (PoolStats stats : pools.values()) {
+            List<HotKey> hotKeys = stats.last;
+            if (!hotKeys.isEmpty()) {
+                result.computeIfAbsent(hotKeys.get(0).getPool(), k -> new ArrayList<>()).addAll(hotKeys);
+            }
+        }
+        return sortAndLimit(result);
+    }
+
+    /**
+     * @return 当前窗口开始到此刻每个实例的热点key，按访问次数降序
+     */
+    public Map<String, List<HotKey>> getCurrentHotKeys() {
+        Map<String, List<HotKey>> result = new LinkedHashMap<>();
+        for (PoolStats stats : pools.values()) {
+            String pool = describe(stats);
+            result.computeIfAbsent(pool, k -> new ArrayList<>()).addAll(snapshot(pool, stats.current));
+        }
+        return sortAndLimit(result);
+    }
+
+    @Override
+    public String[] getHotKeyList() {
+        return format(getHotKeys());
+    }
+
+    @Override
+    public String[] getCurrentHotKeyList() {
+        return format(getCurrentHotKeys());
+    }
+
+    @Override
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public int getTopK() {
+        return topK;
+    }
+
+    @Override
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    @Override
+    public long getThresholdQps() {
+        return thresholdQps;
+    }
+
+    @Override
+    public void setThresholdQps(long thresholdQps) {
+        this.thresholdQps = Math.max(thresholdQps, 0);
+        this.thresholdSamples = thresholdQps <= 0 ? 0
+                : Math.max(1, (long) (thresholdQps * windowMillis / 1000.0 * sampleRate));
+    }
+
+    /**
+     * 注册到 platform MBeanServer，shutdown 时注销
+     */
+    public void registerMBean() {
+        objectName = JmxSupport.register("HotKeyDetector", this);
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        JmxSupport.unregister(objectName);
+        log.info("HotKeyDetector shutdown...");
+    }
+
+    /**
+     * 滚动到下一个窗口，已经销毁的连接池不再统计
+     */
+    private void roll() {
+        for (PoolStats stats : pools.values()) {
+            Window old = stats.current;
+            stats.current = new Window(topK);
+            if (stats.pool.isClosed()) {
+                pools.remove(stats.pool);
+                continue;
+            }
+            List<HotKey> hotKeys = snapshot(describe(stats), old);
+            hotKeys.sort(BY_COUNT_DESC);
+            stats.last = hotKeys;
+        }
+    }
+
+    private void rollQuietly() {
+        try {
+            roll();
+        } catch (Exception e) {
+            log.warn("roll hot key window fail", e);
+        }
+    }
+
+    private void fire(HotKey hotKey) {
+        for (HotKeyListener listener : listeners) {
+            try {
+                listener.onHotKey(hotKey);
+            } catch (Exception e) {
+                log.warn("hot key listener " + listener + " fail", e);
+            }
+        }
+    }
+
+    private List<HotKey> snapshot(String pool, Window window) {
+        List<HotKey> hotKeys = new ArrayList<>(topK);
+        synchronized (window) {
+            for (int i = 0; i < window.size; i++) {
+                Candidate candidate = window.candidates[i];
+                hotKeys.add(new HotKey(pool, candidate.key, scale(candidate.samples), windowMillis));
+            }
+        }
+        return hotKeys;
+    }
+
+    private Map<String, List<HotKey>> sortAndLimit(Map<String, List<HotKey>> hotKeys) {
+        for (Map.Entry<String, List<HotKey>> entry : hotKeys.entrySet()) {
+            List<HotKey> list = entry.getValue();
+            list.sort(BY_COUNT_DESC);
+            if (list.size() > topK) {
+                entry.setValue(new ArrayList<>(list.subList(0, topK)));
+            }
+        }
+        return hotKeys;
+    }
+
+    private static String[] format(Map<String, List<HotKey>> hotKeys) {
+        List<String> lines = new ArrayList<>();
+        for (List<HotKey> list : hotKeys.values()) {
+            for (HotKey hotKey : list) {
+                lines.add(hotKey.toString());
+            }
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    private long scale(long samples) {
+        return (long) (samples / sampleRate);
+    }
+
+    private String describe(PoolStats stats) {
+        String name = stats.name;
+        if (name == null) {
+            PoolInfo info = factory == null ? null : factory.describePool(stats.pool);
+            if (info == null) {
+                return "unknown@" + Integer.toHexString(System.identityHashCode(stats.pool));
+            }
+            name = info.getName();
+            stats.name = name;
+        }
+        return name;
+    }
+
+    private static final Comparator<HotKey> BY_COUNT_DESC = Collections.reverseOrder(
+            Comparator.comparingLong(HotKey::getCount));
+
+    private final class PoolStats {
+        private final JedisPool pool;
+        private volatile Window current = new Window(topK);
+        private volatile List<HotKey> last = Collections.emptyList();
+        private volatile String name;
+
+        PoolStats(JedisPool pool) {
+            this.pool = pool;
+        }
+    }
+
+    /**
+     * 一个统计窗口：sketch 估计所有key的访问次数，candidates 保留估计值最大的 topK 个key
+     * </br>
+     * topK 一般只有几十个，用数组线性查找代替堆，按 hash 比较不需要为 byte[] key 生成字符串
+     */
+    private static final class Window {
+        private final CountMinSketch sketch = new CountMinSketch(DEFAULT_SKETCH_WIDTH);
+        private final Candidate[] candidates;
+        private int size;
+        /**
+         * candidates 已满时为其中最小的估计值，估计值不超过 floor 的key不用加锁
+         */
+        private volatile long floor;
+
+        Window(int topK) {
+            this.candidates = new Candidate[topK];
+        }
+
+        /**
+         * @return 本次刚超过阈值的key，否则返回null
+         */
+        synchronized Candidate offer(Object key, long hash, long samples, long threshold) {
+            Candidate candidate = null;
+            for (int i = 0; i < size; i++) {
+                if (candidates[i].hash == hash) {
+                    candidate = candidates[i];
+                    break;
+                }
+            }
+            if (candidate == null) {
+                if (size < candidates.length) {
+                    candidate = new Candidate(CommandContext.keyToString(key), hash);
+                    candidates[size++] = candidate;
+                } else {
+                    int min = minIndex();
+                    if (samples <= candidates[min].samples) {
+                        return null;
+                    }
+                    candidate = new Candidate(CommandContext.keyToString(key), hash);
+                    candidates[min] = candidate;
+                }
+            }
+            candidate.samples = Math.max(candidate.samples, samples);
+            if (size == candidates.length) {
+                floor = candidates[minIndex()].samples;
+            }
+            if (threshold > 0 && !candidate.reported && candidate.samples >= threshold) {
+                candidate.reported = true;
+                return candidate;
+            }
+            return null;
+        }
+
+        private int minIndex() {
+            int min = 0;
+            for (int i = 1; i < size; i++) {
+                if (candidates[i].samples < candidates[min].samples) {
+                    min = i;
+                }
+            }
+            return min;
+        }
+    }
+
+    private static final class Candidate {
+        private final String key;
+        private final long hash;
+        private long samples;
+        private boolean reported;
+
+        Candidate(String key, long hash) {
+            this.key = key;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.rickiyang.redis.redis.hotkey;
+
+/**
+ * @date: 2021/12/30 2:00 下午
+ * @author: rickiyang
+ * @Description: 通过JMX查看热点key，每行形如 master@127.0.0.1:6379 key count=1000 qps=100
+ */
+public interface HotKeyDetectorMXBean {
+
+    /**
+     * @return 上一个完整窗口内每个实例的热点key
+     */
+    String[] getHotKeyList();
+
+    /**
+     * @return 当前窗口开始到此刻每个实例的热点key
+     */
+    String[] getCurrentHotKeyList();
+
+    double getSampleRate();
+
+    int getTopK();
+
+    long getWindowMillis();
+
+    long getThresholdQps();
+
+    void setThresholdQps(long thresholdQps);
+}
@@ -0,0 +1,16 @@
+package com.rickiyang.redis.redis.hotkey;
+
+/**
+ * @date: 2021/12/30 2:00 下午
+ * @author: rickiyang
+ * @Description: 热点key回调，在 HotKeyDetector 的后台线程上执行
+ */
+public interface HotKeyListener {
+
+    /**
+     * key 在当前窗口内的访问量超过阈值，每个实例上的每个key每个窗口最多回调一次
+     *
+     * @param hotKey 超过阈值时的统计，count 为窗口开始到此刻的访问次数
+     */
+    void onHotKey(HotKey hotKey);
+}
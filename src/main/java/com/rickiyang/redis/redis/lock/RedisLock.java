@@ -0,0 +1,48 @@
+package com.rickiyang.redis.redis.lock;
+
+/**
+ * @date: 2021/12/24 10:05 上午
+ * @author: rickiyang
+ * @Description: 一次加锁成功的结果，持有本次加锁生成的token，可以用 try-with-resources 释放
+ */
+public class RedisLock implements AutoCloseable {
+
+    private final RedisLockManager manager;
+
+    private final String key;
+
+    private final String token;
+
+    RedisLock(RedisLockManager manager, String key, String token) {
+        this.manager = manager;
+        this.key = key;
+        this.token = token;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * 释放锁，锁已过期或被其他客户端持有时不做任何修改
+     *
+     * @return 释放成功返回true，锁已不属于当前token时返回false
+     */
+    public boolean unlock() {
+        return manager.release(this);
+    }
+
+    @Override
+    public void close() {
+        unlock();
+    }
+
+    @Override
+    public String toString() {
+        return "RedisLock{key=" + key + "}";
+    }
+}
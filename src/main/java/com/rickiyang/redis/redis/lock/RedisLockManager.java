@@ -0,0 +1,368 @@
+package com.rickiyang.redis.redis.lock;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rickiyang.redis.exception.CsRedisRuntimeException;
+import com.rickiyang.redis.redis.RedisClient;
+import com.rickiyang.redis.redis.script.RedisScript;
+import com.rickiyang.redis.redis.sentinel.JedisPubSubAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @date: 2021/12/24 10:20 上午
+ * @author: rickiyang
+ * @Description: 基于redis的分布式锁
+ * </br>
+ * 加锁: 一次 EVALSHA 内执行 SET NX PX，失败时同时返回锁的剩余时间，无论成功与否都只有一次RTT。
+ * 解锁: lua脚本校验token后删除，并在锁释放频道上发布key，等待中的线程收到通知后立即重试，不依赖轮询。
+ * 续期: 不指定租期的锁由 watchdog 每 1/3 租期批量续期一次，一个 EVALSHA 续期一批锁
+ * </br>
+ * 锁不可重入，锁的 value 是每次加锁生成的随机token，只有持有token的 {@link RedisLock} 可以释放
+ */
+public class RedisLockManager {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisLockManager.class);
+
+    public static final String DEFAULT_CHANNEL = "__rickiyang_lock_release__";
+
+    public static final long DEFAULT_WATCHDOG_LEASE_MILLIS = 30 * 1000;
+
+    private static final long RESUBSCRIBE_WAIT_MILLIS = 5000;
+
+    /**
+     * 锁没有过期时间或者未收到通知时，最长等待该时间后重试
+     */
+    private static final long MAX_PARK_MILLIS = 1000;
+
+    private static final int RENEW_BATCH_SIZE = 100;
+
+    private static final String ACQUIRE_SCRIPT =
+            "if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return -3 end "
+                    + "return redis.call('pttl', KEYS[1])";
+
+    private static final String RELEASE_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then "
+                    + "redis.call('del', KEYS[1]) redis.call('publish', ARGV[2], KEYS[1]) return 1 end "
+                    + "return 0";
+
+    /**
+     * KEYS 为锁，ARGV[1] 为租期，ARGV[i + 1] 为 KEYS[i] 的token，返回续期失败的下标
+     */
+    private static final String RENEW_SCRIPT =
+            "local lost = {} "
+                    + "for i, key in ipairs(KEYS) do "
+                    + "if redis.call('get', key) == ARGV[i + 1] then redis.call('pexpire', key, ARGV[1]) "
+                    + "else lost[#lost + 1] = i end end "
+                    + "return lost";
+
+    private static final long ACQUIRED = -3;
+
+    private final RedisClient redisClient;
+
+    private final int dbIndex;
+
+    private final String channel;
+
+    private final long watchdogLeaseMillis;
+
+    private final RedisScript acquireScript;
+
+    private final RedisScript releaseScript;
+
+    private final RedisScript renewScript;
+
+    /**
+     * 由 watchdog 续期的锁
+     */
+    private final ConcurrentMap<String, RedisLock> watched = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Queue<Thread>> waiters = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private volatile boolean closed;
+
+    private final ScheduledExecutorService watchdog;
+
+    private volatile Jedis subscriber;
+
+    /**
+     * @param redisClient         redis客户端
+     * @param dbIndex             锁所在的db
+     * @param watchdogLeaseMillis watchdog 续期的租期，小于等于0时使用默认值30秒
+     * @param channel             锁释放通知的频道，为空时使用默认频道
+     */
+    public RedisLockManager(RedisClient redisClient, int dbIndex, long watchdogLeaseMillis, String channel) {
+        this.redisClient = redisClient;
+        this.dbIndex = dbIndex;
+        this.watchdogLeaseMillis = watchdogLeaseMillis > 0 ? watchdogLeaseMillis : DEFAULT_WATCHDOG_LEASE_MILLIS;
+        this.channel = channel == null || "".equals(channel.trim()) ? DEFAULT_CHANNEL : channel;
+        this.acquireScript = redisClient.registerScript(ACQUIRE_SCRIPT, false);
+        this.releaseScript = redisClient.registerScript(RELEASE_SCRIPT, false);
+        this.renewScript = redisClient.registerScript(RENEW_SCRIPT, false);
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("redis-lock-watchdog-%d").setDaemon(true).build());
+        executor.setRemoveOnCancelPolicy(true);
+        this.watchdog = executor;
+    }
+
+    public RedisLockManager(RedisClient redisClient) {
+        this(redisClient, 0, DEFAULT_WATCHDOG_LEASE_MILLIS, DEFAULT_CHANNEL);
+    }
+
+    /**
+     * 启动 watchdog 和锁释放通知的订阅
+     */
+    public void start() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        long period = Math.max(1, watchdogLeaseMillis / 3);
+        watchdog.scheduleWithFixedDelay(this::renewAll, period, period, TimeUnit.MILLISECONDS);
+        Thread subscribeThread = new Thread(this::subscribeLoop, "redis-lock-subscriber");
+        subscribeThread.setDaemon(true);
+        subscribeThread.start();
+    }
+
+    public void shutdown() {
+        closed = true;
+        running.set(false);
+        watchdog.shutdownNow();
+        Jedis j = subscriber;
+        if (j != null) {
+            try {
+                j.disconnect();
+            } catch (Exception e) {
+                log.warn("lock subscriber disconnect fail", e);
+            }
+        }
+        for (Queue<Thread> threads : waiters.values()) {
+            for (Thread thread : threads) {
+                LockSupport.unpark(thread);
+            }
+        }
+        log.info("RedisLockManager shutdown...");
+    }
+
+    /**
+     * 尝试加锁一次，不等待
+     *
+     * @param key         锁的key
+     * @param leaseMillis 租期，小于等于0时由 watchdog 续期直到解锁
+     * @return 加锁成功返回锁，失败返回null
+     */
+    public RedisLock tryLock(String key, long leaseMillis) {
+        return tryLock(key, 0, leaseMillis);
+    }
+
+    /**
+     * 加锁，锁被占用时等待释放通知，最多等待 waitMillis
+     *
+     * @param key         锁的key
+     * @param waitMillis  最长等待时间
+     * @param leaseMillis 租期，小于等于0时由 watchdog 续期直到解锁
+     * @return 加锁成功返回锁，超时返回null
+     */
+    public RedisLock tryLock(String key, long waitMillis, long leaseMillis) {
+        String token = UUID.randomUUID().toString();
+        long ttl = acquire(key, token, leaseMillis);
+        if (ttl == ACQUIRED) {
+            return acquired(key, token, leaseMillis);
+        }
+        if (waitMillis <= 0) {
+            return null;
+        }
+        long start = System.nanoTime();
+        long waitNanos = TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        final Thread current = Thread.currentThread();
+        // 登记和移除都在 compute 中完成，移除空队列时不会丢掉并发登记的线程
+        waiters.compute(key, (k, threads) -> {
+            Queue<Thread> queue = threads == null ? new ConcurrentLinkedQueue<>() : threads;
+            queue.add(current);
+            return queue;
+        });
+        try {
+            while (true) {
+                // 先登记再重试，重试和 park 之间到达的通知不会丢失
+                ttl = acquire(key, token, leaseMillis);
+                if (ttl == ACQUIRED) {
+                    return acquired(key, token, leaseMillis);
+                }
+                long remaining = waitNanos - (System.nanoTime() - start);
+                if (remaining <= 0 || closed) {
+                    return null;
+                }
+                // pttl 为 -2 说明锁刚好释放，立即重试
+                if (ttl != -2) {
+                    long park = ttl > 0 ? Math.min(ttl, MAX_PARK_MILLIS) : MAX_PARK_MILLIS;
+                    LockSupport.parkNanos(this, Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(park)));
+                }
+                if (Thread.interrupted()) {
+                    current.interrupt();
+                    throw new CsRedisRuntimeException("lock wait interrupted, key: " + key);
+                }
+            }
+        } finally {
+            waiters.computeIfPresent(key, (k, threads) -> {
+                threads.remove(current);
+                return threads.isEmpty() ? null : threads;
+            });
+        }
+    }
+
+    /**
+     * 加锁，一直等待直到成功
+     *
+     * @param key         锁的key
+     * @param leaseMillis 租期，小于等于0时由 watchdog 续期直到解锁
+     * @return 锁
+     */
+    public RedisLock lock(String key, long leaseMillis) {
+        return tryLock(key, Long.MAX_VALUE, leaseMillis);
+    }
+
+    public int getDbIndex() {
+        return dbIndex;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return 当前由 watchdog 续期的锁数量
+     */
+    public int getWatchedCount() {
+        return watched.size();
+    }
+
+    /**
+     * 校验token后释放锁，并通知等待的线程
+     *
+     * @return 锁仍由该token持有并释放成功时返回true
+     */
+    boolean release(RedisLock lock) {
+        watched.remove(lock.getKey(), lock);
+        Object result = redisClient.evalsha(dbIndex, releaseScript, Collections.singletonList(lock.getKey()),
+                Lists.newArrayList(lock.getToken(), channel));
+        return Long.valueOf(1).equals(result);
+    }
+
+    private long acquire(String key, String token, long leaseMillis) {
+        long lease = leaseMillis > 0 ? leaseMillis : watchdogLeaseMillis;
+        Object result = redisClient.evalsha(dbIndex, acquireScript, Collections.singletonList(key),
+                Lists.newArrayList(token, String.valueOf(lease)));
+        return (Long) result;
+    }
+
+    private RedisLock acquired(String key, String token, long leaseMillis) {
+        RedisLock lock = new RedisLock(this, key, token);
+        if (leaseMillis <= 0) {
+            if (!running.get()) {
+                log.warn("RedisLockManager not started, lock {} will expire after {}ms", key, watchdogLeaseMillis);
+            }
+            watched.put(key, lock);
+        }
+        return lock;
+    }
+
+    private void renewAll() {
+        if (watched.isEmpty()) {
+            return;
+        }
+        List<RedisLock> locks = new ArrayList<>(watched.values());
+        for (List<RedisLock> batch : Lists.partition(locks, RENEW_BATCH_SIZE)) {
+            try {
+                renew(batch);
+            } catch (Exception e) {
+                log.warn("renew locks fail, size:" + batch.size(), e);
+            }
+        }
+    }
+
+    private void renew(List<RedisLock> batch) {
+        List<String> keys = new ArrayList<>(batch.size());
+        List<String> args = new ArrayList<>(batch.size() + 1);
+        args.add(String.valueOf(watchdogLeaseMillis));
+        for (RedisLock lock : batch) {
+            keys.add(lock.getKey());
+            args.add(lock.getToken());
+        }
+        Object result = redisClient.evalsha(dbIndex, renewScript, keys, args);
+        for (Object index : (List<?>) result) {
+            RedisLock lost = batch.get(((Long) index).intValue() - 1);
+            if (watched.remove(lost.getKey(), lost)) {
+                log.warn("lock {} lost before renewal, it may have expired or been deleted", lost.getKey());
+            }
+        }
+    }
+
+    private void onRelease(String key) {
+        Queue<Thread> threads = waiters.get(key);
+        if (threads != null) {
+            for (Thread thread : threads) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    private void subscribeLoop() {
+        while (running.get()) {
+            try {
+                subscriber = redisClient.getJedisMasterPool().getResource();
+                subscriber.subscribe(new JedisPubSubAdapter() {
+                    @Override
+                    public void onSubscribe(String channel, int subscribedChannels) {
+                        // 订阅中断期间可能漏掉了通知，唤醒所有等待线程重试一次
+                        for (Map.Entry<String, Queue<Thread>> entry : waiters.entrySet()) {
+                            onRelease(entry.getKey());
+                        }
+                        log.info("lock manager subscribed on channel " + channel);
+                    }
+
+                    @Override
+                    public void onMessage(String channel, String message) {
+                        onRelease(message);
+                    }
+                }, channel);
+            } catch (Exception e) {
+                if (running.get()) {
+                    log.error("lock manager lost subscription on " + channel + ". Sleeping " + RESUBSCRIBE_WAIT_MILLIS
+                            + "ms and retrying.", e);
+                    try {
+                        Thread.sleep(RESUBSCRIBE_WAIT_MILLIS);
+                    } catch (InterruptedException e1) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            } finally {
+                Jedis j = subscriber;
+                subscriber = null;
+                if (j != null) {
+                    try {
+                        j.close();
+                    } catch (Exception e) {
+                        log.warn("jedis.close failed", e);
+                    }
+                }
+            }
+        }
+    }
+}
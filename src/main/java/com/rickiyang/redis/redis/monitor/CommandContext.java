@@ -0,0 +1,223 @@
+package com.rickiyang.redis.redis.monitor;
+
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.util.SafeEncoder;
+
+/**
+ * @date: 2021/12/30 10:40 上午
+ * @author: rickiyang
+ * @Description: 一次命令执行的上下文，每个线程复用同一个实例，记录过程中不分配对象
+ * </br>
+ * key 为 String 或 byte[]；mget/mset 这类多key命令通过 getKeyCount/getKey(int) 访问每个key
+ */
+public final class CommandContext {
+
+    private String command;
+
+    private Object key;
+
+    private Object[] keys;
+
+    private int keyStep;
+
+    private JedisPool pool;
+
+    private long startNanos;
+
+    private long borrowedNanos;
+
+    private long endNanos;
+
+    private boolean borrowed;
+
+    private Exception failure;
+
+    private long replyBytes;
+
+    private long replyElements;
+
+    private boolean active;
+
+    /**
+     * 开始一个单key命令，上一个命令没有结束时直接覆盖
+     */
+    public void start(String command, Object key, JedisPool pool) {
+        start(command, key, null, 0, pool);
+    }
+
+    /**
+     * 开始一个多key命令
+     *
+     * @param keys    命令参数
+     * @param keyStep 相邻两个key在参数中的间隔，mget 为1，mset 为2
+     */
+    public void start(String command, Object[] keys, int keyStep, JedisPool pool) {
+        start(command, null, keys, keyStep, pool);
+    }
+
+    private void start(String command, Object key, Object[] keys, int keyStep, JedisPool pool) {
+        this.command = command;
+        this.key = key;
+        this.keys = keys;
+        this.keyStep = keyStep;
+        this.pool = pool;
+        this.failure = null;
+        this.replyBytes = -1;
+        this.replyElements = -1;
+        this.startNanos = System.nanoTime();
+        this.borrowedNanos = startNanos;
+        this.endNanos = startNanos;
+        this.borrowed = false;
+        this.active = true;
+    }
+
+    /**
+     * 从连接池借到连接
+     */
+    public void borrowed() {
+        borrowed(System.nanoTime());
+    }
+
+    /**
+     * 在其它线程上借到连接，如自动管道的 flush 线程
+     *
+     * @param borrowedNanos 借到连接时的 {@link System#nanoTime()}
+     */
+    public void borrowed(long borrowedNanos) {
+        this.borrowedNanos = borrowedNanos;
+        borrowed = true;
+    }
+
+    /**
+     * 记录回复的大小，见 {@link ReplySizes}
+     */
+    public void reply(long bytes, long elements) {
+        if (active) {
+            replyBytes = bytes;
+            replyElements = elements;
+        }
+    }
+
+    public void fail(Exception e) {
+        if (active) {
+            failure = e;
+        }
+    }
+
+    /**
+     * 结束当前命令
+     *
+     * @return 没有进行中的命令时返回false
+     */
+    public boolean finish() {
+        if (!active) {
+            return false;
+        }
+        active = false;
+        endNanos = System.nanoTime();
+        return true;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return 第一个key，没有key的命令(ping/info/pipeline等)返回null
+     */
+    public Object getKey() {
+        return keys == null ? key : keys.length == 0 ? null : keys[0];
+    }
+
+    public int getKeyCount() {
+        if (keys != null) {
+            return (keys.length + keyStep - 1) / keyStep;
+        }
+        return key == null ? 0 : 1;
+    }
+
+    public Object getKey(int index) {
+        if (keys != null) {
+            return keys[index * keyStep];
+        }
+        if (index != 0 || key == null) {
+            throw new IndexOutOfBoundsException("key index " + index);
+        }
+        return key;
+    }
+
+    /**
+     * @return 第一个key的字符串形式，byte[] 的key会新建字符串
+     */
+    public String getKeyAsString() {
+        return keyToString(getKey());
+    }
+
+    public JedisPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return 是否借到了连接，借连接失败(如连接池耗尽)时命令没有执行
+     */
+    public boolean isBorrowed() {
+        return borrowed;
+    }
+
+    /**
+     * @return 从连接池借连接的耗时，借连接失败时为等待到失败的耗时
+     */
+    public long getBorrowNanos() {
+        return (borrowed ? borrowedNanos : endNanos) - startNanos;
+    }
+
+    /**
+     * @return 借到连接之后到命令结束的耗时，没有借到连接时为0
+     */
+    public long getExecuteNanos() {
+        return borrowed ? endNanos - borrowedNanos : 0;
+    }
+
+    /**
+     * @return 从开始借连接到命令结束的总耗时
+     */
+    public long getTotalNanos() {
+        return endNanos - startNanos;
+    }
+
+    /**
+     * @return 回复的估计字节数，没有测量时为-1
+     */
+    public long getReplyBytes() {
+        return replyBytes;
+    }
+
+    /**
+     * @return 回复的元素个数，单个值为1，没有测量时为-1
+     */
+    public long getReplyElements() {
+        return replyElements;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    /**
+     * @return 命令执行失败时的异常，包括借连接失败
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    public static String keyToString(Object key) {
+        if (key == null || key instanceof String) {
+            return (String) key;
+        }
+        return key instanceof byte[] ? SafeEncoder.encode((byte[]) key) : key.toString();
+    }
+}
@@ -0,0 +1,16 @@
+package com.rickiyang.redis.redis.monitor;
+
+/**
+ * @date: 2021/12/30 10:40 上午
+ * @author: rickiyang
+ * @Description: RedisClient 每执行完一个借用连接的命令回调一次，用于采集 key 访问、耗时等监控数据
+ * </br>
+ * 回调在执行命令的线程上同步执行，实现需要足够轻量；context 会被同一线程的下一个命令复用，不能在回调之外保存引用
+ */
+public interface CommandListener {
+
+    /**
+     * @param context 刚执行完的命令
+     */
+    void onCommand(CommandContext context);
+}
@@ -0,0 +1,59 @@
+package com.rickiyang.redis.redis.monitor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * @date: 2021/12/30 11:30 上午
+ * @author: rickiyang
+ * @Description: 把监控对象注册到 platform MBeanServer，域名为 com.rickiyang.redis
+ * </br>
+ * 注册失败(如同名对象已存在)只打印日志，不影响redis客户端的使用
+ */
+public final class JmxSupport {
+
+    private static final Logger log = LoggerFactory.getLogger(JmxSupport.class);
+
+    public static final String DOMAIN = "com.rickiyang.redis";
+
+    private JmxSupport() {
+    }
+
+    /**
+     * @param type   MBean 的 type 属性
+     * @param mbean  实现了 XxxMXBean 接口的对象
+     * @return 注册成功返回 ObjectName，失败返回null
+     */
+    public static ObjectName register(String type, Object mbean) {
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=" + type);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(mbean, name);
+            return name;
+        } catch (Exception e) {
+            log.warn("register mbean " + type + " fail", e);
+            return null;
+        }
+    }
+
+    public static void unregister(ObjectName name) {
+        if (name == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            log.warn("unregister mbean " + name + " fail", e);
+        }
+    }
+}
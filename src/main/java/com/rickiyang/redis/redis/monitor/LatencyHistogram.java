@@ -0,0 +1,76 @@
+package com.rickiyang.redis.redis.monitor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @date: 2022/01/04 10:00 上午
+ * @author: rickiyang
+ * @Description: 无锁的耗时直方图，单位微秒
+ * </br>
+ * 每个2的幂区间再等分成4个桶，百分位返回所在桶的上界，相对误差不超过25%；
+ * 记录只做一次原子累加，适合在命令路径上使用
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * 覆盖到 2^40 微秒，更大的值落在最后一个桶
+     */
+    private static final int BUCKETS = 41 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long micros) {
+        counts.incrementAndGet(index(micros));
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile (0, 1]，如 0.99
+     * @return 对应百分位的耗时上界，没有数据时返回0
+     */
+    public long percentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return micros <= 0 ? 0 : (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min((exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub, BUCKETS - 1);
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (sub + 1) * width - 1;
+    }
+}
@@ -0,0 +1,139 @@
+package com.rickiyang.redis.redis.monitor;
+
+import com.rickiyang.redis.redis.AbstractClientFactory;
+import com.rickiyang.redis.redis.PoolInfo;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @date: 2021/12/31 3:00 下午
+ * @author: rickiyang
+ * @Description: 把每个命令的耗时记录到 Micrometer 的 Timer，开启百分位直方图
+ * </br>
+ * redis.client.command.duration: 借到连接之后到命令结束的耗时，tag 为 command/role/host/outcome
+ * </br>
+ * redis.client.pool.wait: 从连接池借连接的耗时，tag 为 role/host/outcome
+ * </br>
+ * Timer 按连接池和命令缓存，命令名使用常量字符串，记录时只做查表和累加，不分配对象
+ */
+public class MicrometerCommandMetrics implements CommandListener {
+
+    public static final String COMMAND_METRIC = "redis.client.command.duration";
+
+    public static final String POOL_WAIT_METRIC = "redis.client.pool.wait";
+
+    private static final String UNKNOWN = "unknown";
+
+    private final MeterRegistry registry;
+
+    private final AbstractClientFactory factory;
+
+    private final ConcurrentHashMap<JedisPool, PoolTimers> pools = new ConcurrentHashMap<>();
+
+    /**
+     * @param registry 注册 Timer 的 MeterRegistry
+     * @param factory  用于查询连接池对应的实例
+     */
+    public MicrometerCommandMetrics(MeterRegistry registry, AbstractClientFactory factory) {
+        this.registry = registry;
+        this.factory = factory;
+    }
+
+    @Override
+    public void onCommand(CommandContext context) {
+        JedisPool pool = context.getPool();
+        if (pool == null) {
+            return;
+        }
+        PoolTimers timers = pools.get(pool);
+        if (timers == null) {
+            timers = register(pool);
+        }
+        timers.borrow[context.isBorrowed() ? 0 : 1].record(context.getBorrowNanos(), TimeUnit.NANOSECONDS);
+        // 借连接失败的命令没有执行
+        if (context.isBorrowed()) {
+            timers.command(context.getCommand(), Outcome.of(context.getFailure()))
+                    .record(context.getExecuteNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 第一次见到连接池时查询实例并注册 Timer，同时清理已经销毁的连接池，对应实例的 Timer 仍保留在 registry 中
+     */
+    private PoolTimers register(JedisPool pool) {
+        pools.keySet().removeIf(JedisPool::isClosed);
+        return pools.computeIfAbsent(pool, p -> {
+            PoolInfo info = factory == null ? null : factory.describePool(p);
+            String role = info == null ? UNKNOWN : info.getRole().name().toLowerCase();
+            String host = info == null ? UNKNOWN : info.getHostAndPort().toString();
+            return new PoolTimers(role, host);
+        });
+    }
+
+    private Timer timer(String name, String... tags) {
+        return Timer.builder(name)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(50)))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(registry);
+    }
+
+    private enum Outcome {
+        SUCCESS, CONNECTION_ERROR, REDIS_ERROR, ERROR;
+
+        private final String tag = name().toLowerCase();
+
+        static Outcome of(Exception failure) {
+            if (failure == null) {
+                return SUCCESS;
+            }
+            if (failure instanceof JedisConnectionException) {
+                return CONNECTION_ERROR;
+            }
+            return failure instanceof JedisDataException ? REDIS_ERROR : ERROR;
+        }
+    }
+
+    private final class PoolTimers {
+        private final String role;
+        private final String host;
+        /**
+         * 借连接成功、失败两个 Timer
+         */
+        private final Timer[] borrow;
+        /**
+         * 命令名到按 Outcome 下标的 Timer
+         */
+        private final ConcurrentHashMap<String, Timer[]> commands = new ConcurrentHashMap<>();
+
+        PoolTimers(String role, String host) {
+            this.role = role;
+            this.host = host;
+            this.borrow = new Timer[]{
+                    timer(POOL_WAIT_METRIC, "role", role, "host", host, "outcome", Outcome.SUCCESS.tag),
+                    timer(POOL_WAIT_METRIC, "role", role, "host", host, "outcome", Outcome.ERROR.tag)};
+        }
+
+        Timer command(String command, Outcome outcome) {
+            Timer[] timers = commands.get(command);
+            if (timers == null) {
+                timers = commands.computeIfAbsent(command, c -> new Timer[Outcome.values().length]);
+            }
+            Timer timer = timers[outcome.ordinal()];
+            if (timer == null) {
+                // 并发时可能重复注册，registry 按 id 去重返回同一个 Timer
+                timer = timer(COMMAND_METRIC, "command", command, "role", role, "host", host, "outcome", outcome.tag);
+                timers[outcome.ordinal()] = timer;
+            }
+            return timer;
+        }
+    }
+}
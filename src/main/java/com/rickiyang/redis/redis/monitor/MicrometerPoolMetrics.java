@@ -0,0 +1,163 @@
+package com.rickiyang.redis.redis.monitor;
+
+import com.rickiyang.redis.redis.AbstractClientFactory;
+import com.rickiyang.redis.redis.PoolInfo;
+import com.rickiyang.redis.redis.ReplicaLag;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * @date: 2022/01/04 10:00 上午
+ * @author: rickiyang
+ * @Description: 把 {@link PoolMetrics} 的统计注册为 Micrometer 指标，tag 为 role/host/db
+ * </br>
+ * redis.client.pool.active/idle/waiters: 连接数 Gauge
+ * </br>
+ * redis.client.pool.created/destroyed/validation.failures/exhausted: 累计次数 FunctionCounter，
+ * 监控系统按 rate 计算创建/销毁速率
+ * </br>
+ * redis.client.reader.fallback: 读请求回退到主库的次数
+ * </br>
+ * redis.client.replica.lag.bytes/lag.seconds/excluded: 开启复制延迟检查时每个从库的延迟和是否被排除，tag 为 host
+ * </br>
+ * 借连接耗时的百分位由 {@link MicrometerCommandMetrics} 的 redis.client.pool.wait 提供
+ */
+public class MicrometerPoolMetrics {
+
+    private final MeterRegistry registry;
+
+    private final PoolMetrics poolMetrics;
+
+    /**
+     * 连接池id到已注册的指标，只在刷新线程上修改
+     */
+    private final Map<String, List<Meter>> meters = new HashMap<>();
+
+    /**
+     * 从库地址到已注册的复制延迟指标
+     */
+    private final Map<String, List<Meter>> replicaMeters = new HashMap<>();
+
+    private final Meter readerFallback;
+
+    private final AbstractClientFactory factory;
+
+    public MicrometerPoolMetrics(MeterRegistry registry, PoolMetrics poolMetrics, AbstractClientFactory factory) {
+        this.registry = registry;
+        this.poolMetrics = poolMetrics;
+        this.factory = factory;
+        this.readerFallback = FunctionCounter.builder("redis.client.reader.fallback", factory,
+                AbstractClientFactory::getReaderFallbackCount)
+                .description("reads routed to master because no slave was available")
+                .register(registry);
+        bind();
+        poolMetrics.addRefreshListener(this::bind);
+    }
+
+    /**
+     * 为新出现的连接池注册指标，移除已经不用的连接池的指标
+     */
+    synchronized void bind() {
+        Map<String, PoolStats> current = new HashMap<>();
+        for (PoolStats stats : poolMetrics.getStats()) {
+            current.put(stats.getId(), stats);
+        }
+        Iterator<Map.Entry<String, List<Meter>>> it = meters.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, List<Meter>> entry = it.next();
+            if (!current.containsKey(entry.getKey())) {
+                entry.getValue().forEach(registry::remove);
+                it.remove();
+            }
+        }
+        for (PoolStats stats : current.values()) {
+            if (!meters.containsKey(stats.getId())) {
+                meters.put(stats.getId(), register(stats));
+            }
+        }
+        bindReplicas();
+    }
+
+    private void bindReplicas() {
+        Set<String> hosts = new HashSet<>();
+        for (ReplicaLag lag : factory.getReplicaLags()) {
+            hosts.add(lag.getHostAndPort().toString());
+        }
+        Iterator<Map.Entry<String, List<Meter>>> it = replicaMeters.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, List<Meter>> entry = it.next();
+            if (!hosts.contains(entry.getKey())) {
+                entry.getValue().forEach(registry::remove);
+                it.remove();
+            }
+        }
+        for (String host : hosts) {
+            if (!replicaMeters.containsKey(host)) {
+                Tags tags = Tags.of("host", host);
+                List<Meter> list = new ArrayList<>();
+                list.add(gauge("redis.client.replica.lag.bytes", host, ReplicaLag::getLagBytes, tags));
+                list.add(gauge("redis.client.replica.lag.seconds", host, ReplicaLag::getLagSeconds, tags));
+                list.add(gauge("redis.client.replica.excluded", host, lag -> lag.isExcluded() ? 1 : 0, tags));
+                replicaMeters.put(host, list);
+            }
+        }
+    }
+
+    public synchronized void shutdown() {
+        meters.values().forEach(list -> list.forEach(registry::remove));
+        meters.clear();
+        replicaMeters.values().forEach(list -> list.forEach(registry::remove));
+        replicaMeters.clear();
+        registry.remove(readerFallback);
+    }
+
+    private List<Meter> register(PoolStats stats) {
+        PoolInfo info = stats.getInfo();
+        Tags tags = Tags.of("role", info.getRole().name().toLowerCase(), "host", info.getHostAndPort().toString(),
+                "db", String.valueOf(info.getDatabase()));
+        List<Meter> list = new ArrayList<>();
+        list.add(gauge("redis.client.pool.active", stats, PoolStats::getActive, tags));
+        list.add(gauge("redis.client.pool.idle", stats, PoolStats::getIdle, tags));
+        list.add(gauge("redis.client.pool.waiters", stats, PoolStats::getWaiters, tags));
+        list.add(counter("redis.client.pool.created", stats, PoolStats::getCreatedCount, tags));
+        list.add(counter("redis.client.pool.destroyed", stats, PoolStats::getDestroyedCount, tags));
+        list.add(counter("redis.client.pool.validation.failures", stats, PoolStats::getValidationFailureCount, tags));
+        list.add(counter("redis.client.pool.exhausted", stats, PoolStats::getExhaustedCount, tags));
+        return list;
+    }
+
+    private Meter gauge(String name, PoolStats stats, ToDoubleFunction<PoolStats> f, Tags tags) {
+        return Gauge.builder(name, stats, f).tags(tags).strongReference(true).register(registry);
+    }
+
+    /**
+     * 每次采集时读取从库最新的复制状态，从库已经移除或延迟未知时为 NaN
+     */
+    private Meter gauge(String name, String host, ToDoubleFunction<ReplicaLag> f, Tags tags) {
+        return Gauge.builder(name, factory, clientFactory -> {
+            for (ReplicaLag lag : clientFactory.getReplicaLags()) {
+                if (host.equals(lag.getHostAndPort().toString())) {
+                    double value = f.applyAsDouble(lag);
+                    return value < 0 ? Double.NaN : value;
+                }
+            }
+            return Double.NaN;
+        }).tags(tags).register(registry);
+    }
+
+    private Meter counter(String name, PoolStats stats, ToDoubleFunction<PoolStats> f, Tags tags) {
+        return FunctionCounter.builder(name, stats, f).tags(tags).register(registry);
+    }
+}
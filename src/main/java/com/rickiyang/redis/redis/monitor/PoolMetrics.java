@@ -0,0 +1,222 @@
+package com.rickiyang.redis.redis.monitor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rickiyang.redis.redis.AbstractClientFactory;
+import com.rickiyang.redis.redis.PoolInfo;
+import com.rickiyang.redis.redis.ReplicaLag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisExhaustedPoolException;
+
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @date: 2022/01/04 10:00 上午
+ * @author: rickiyang
+ * @Description: 连接池指标，作为 {@link CommandListener} 挂在 RedisClient 上
+ * </br>
+ * 活跃/空闲/等待连接数、创建/销毁/校验失败次数直接读取连接池；借连接耗时的百分位和连接池耗尽次数
+ * 从命令的 {@link CommandContext} 统计；读请求回退到主库的次数和从库的复制延迟由 {@link AbstractClientFactory} 提供
+ * </br>
+ * 定时扫描 factory 当前的连接池，新出现的连接池加入统计，已经不用的移除，刷新后回调注册的监听，
+ * {@link MicrometerPoolMetrics} 据此注册和移除 Micrometer 指标
+ */
+public class PoolMetrics implements CommandListener, PoolMetricsMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(PoolMetrics.class);
+
+    public static final long DEFAULT_WINDOW_MILLIS = 60 * 1000;
+
+    public static final long REFRESH_INTERVAL_MILLIS = 10 * 1000;
+
+    private final AbstractClientFactory factory;
+
+    private final long windowNanos;
+
+    /**
+     * 命令路径上按连接池查找统计
+     */
+    private final ConcurrentHashMap<JedisPool, PoolStats> byPool = new ConcurrentHashMap<>();
+
+    /**
+     * 按 实例+db 归并的统计
+     */
+    private final ConcurrentHashMap<String, PoolStats> stats = new ConcurrentHashMap<>();
+
+    private final List<Runnable> refreshListeners = new CopyOnWriteArrayList<>();
+
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private volatile ObjectName objectName;
+
+    /**
+     * @param factory      提供当前的连接池和连接池对应的实例
+     * @param windowMillis 借连接耗时百分位的统计窗口，小于等于0时使用默认值
+     */
+    public PoolMetrics(AbstractClientFactory factory, long windowMillis) {
+        this.factory = factory;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis > 0 ? windowMillis : DEFAULT_WINDOW_MILLIS);
+        refresh();
+        this.scheduler = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("redis-pool-metrics-%d").setDaemon(true).build());
+        this.scheduler.scheduleWithFixedDelay(this::refreshQuietly, REFRESH_INTERVAL_MILLIS, REFRESH_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public PoolMetrics(AbstractClientFactory factory) {
+        this(factory, DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * 每次刷新连接池列表之后回调，回调在刷新线程上执行
+     */
+    public void addRefreshListener(Runnable listener) {
+        refreshListeners.add(listener);
+    }
+
+    @Override
+    public void onCommand(CommandContext context) {
+        JedisPool pool = context.getPool();
+        if (pool == null) {
+            return;
+        }
+        PoolStats poolStats = byPool.get(pool);
+        if (poolStats == null) {
+            poolStats = track(pool, false);
+            if (poolStats == null) {
+                return;
+            }
+        }
+        if (context.isBorrowed()) {
+            poolStats.recordBorrow(context.getStartNanos(), context.getBorrowNanos());
+        } else if (isExhausted(context.getFailure())) {
+            poolStats.recordExhausted();
+        }
+    }
+
+    /**
+     * @return 当前在用的连接池的统计
+     */
+    public Collection<PoolStats> getStats() {
+        return stats.values();
+    }
+
+    /**
+     * 扫描 factory 当前的连接池
+     */
+    public synchronized void refresh() {
+        Set<String> alive = new HashSet<>();
+        for (JedisPool pool : factory.getPools()) {
+            if (pool == null || pool.isClosed()) {
+                continue;
+            }
+            PoolStats poolStats = track(pool, true);
+            if (poolStats != null) {
+                alive.add(poolStats.getId());
+            }
+        }
+        stats.keySet().retainAll(alive);
+        byPool.entrySet().removeIf(e -> e.getKey().isClosed() || !alive.contains(e.getValue().getId()));
+        for (Runnable listener : refreshListeners) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public String[] getPoolList() {
+        List<String> lines = new ArrayList<>();
+        for (PoolStats poolStats : stats.values()) {
+            lines.add(poolStats.toString());
+        }
+        lines.sort(null);
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    public int getPoolCount() {
+        return stats.size();
+    }
+
+    @Override
+    public long getExhaustedCount() {
+        long count = 0;
+        for (PoolStats poolStats : stats.values()) {
+            count += poolStats.getExhaustedCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getReaderFallbackCount() {
+        return factory.getReaderFallbackCount();
+    }
+
+    @Override
+    public String[] getReplicaLagList() {
+        List<String> lines = new ArrayList<>();
+        for (ReplicaLag lag : factory.getReplicaLags()) {
+            lines.add(lag.toString());
+        }
+        lines.sort(null);
+        return lines.toArray(new String[0]);
+    }
+
+    /**
+     * 注册到 platform MBeanServer，shutdown 时注销
+     */
+    public void registerMBean() {
+        objectName = JmxSupport.register("PoolMetrics", this);
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        JmxSupport.unregister(objectName);
+        log.info("PoolMetrics shutdown...");
+    }
+
+    /**
+     * @param current 是否是 factory 当前在用的连接池，是的话替换统计里的连接池，
+     *                命令路径上遇到的可能是正在被替换的旧连接池，只建立映射
+     */
+    private PoolStats track(JedisPool pool, boolean current) {
+        PoolInfo info = factory.describePool(pool);
+        if (info == null) {
+            // 不属于 factory 的连接池(如已经被替换)不统计
+            return null;
+        }
+        String id = info.getName() + "/" + info.getDatabase();
+        PoolStats poolStats = stats.computeIfAbsent(id, k -> new PoolStats(k, info, pool, windowNanos));
+        if (current) {
+            poolStats.replace(pool);
+        }
+        byPool.put(pool, poolStats);
+        return poolStats;
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.warn("refresh redis pool metrics error", e);
+        }
+    }
+
+    private static boolean isExhausted(Exception failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof JedisExhaustedPoolException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,25 @@
+package com.rickiyang.redis.redis.monitor;
+
+/**
+ * @date: 2022/01/04 10:00 上午
+ * @author: rickiyang
+ * @Description: 通过JMX查看连接池状态
+ */
+public interface PoolMetricsMXBean {
+
+    /**
+     * @return 每个连接池一行，形如 master@127.0.0.1:6379/0 active=3 idle=5 waiters=0 ...
+     */
+    String[] getPoolList();
+
+    int getPoolCount();
+
+    long getExhaustedCount();
+
+    long getReaderFallbackCount();
+
+    /**
+     * @return 开启复制延迟检查时每个从库一行，形如 slave@127.0.0.1:6380 linkUp=true offset=... lagBytes=0 ...
+     */
+    String[] getReplicaLagList();
+}
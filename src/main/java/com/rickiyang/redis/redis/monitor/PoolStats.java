@@ -0,0 +1,207 @@
+package com.rickiyang.redis.redis.monitor;
+
+import com.rickiyang.redis.redis.PoolInfo;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.util.Pool;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @date: 2022/01/04 10:00 上午
+ * @author: rickiyang
+ * @Description: 同一个实例同一个db的连接池统计
+ * </br>
+ * 主从切换或从库重建后会生成新的 JedisPool，统计按 实例+db 归并，
+ * 换池时把旧池的创建/销毁次数累加到基数上，计数器保持单调递增
+ */
+public class PoolStats {
+
+    private static final Field INTERNAL_POOL = internalPoolField();
+
+    private final String id;
+
+    private final PoolInfo info;
+
+    private volatile JedisPool pool;
+
+    private long createdBase;
+
+    private long destroyedBase;
+
+    private long validationFailureBase;
+
+    private final LongAdder exhaustedCount = new LongAdder();
+
+    private final long windowNanos;
+
+    private volatile long windowStartNanos;
+
+    private volatile LatencyHistogram current = new LatencyHistogram();
+
+    private volatile LatencyHistogram previous = new LatencyHistogram();
+
+    PoolStats(String id, PoolInfo info, JedisPool pool, long windowNanos) {
+        this.id = id;
+        this.info = info;
+        this.pool = pool;
+        this.windowNanos = windowNanos;
+        this.windowStartNanos = System.nanoTime();
+    }
+
+    /**
+     * @return 形如 master@127.0.0.1:6379/0
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return 连接池对应的实例，无法识别时为null
+     */
+    public PoolInfo getInfo() {
+        return info;
+    }
+
+    public JedisPool getPool() {
+        return pool;
+    }
+
+    public int getActive() {
+        JedisPool p = pool;
+        return p.isClosed() ? 0 : p.getNumActive();
+    }
+
+    public int getIdle() {
+        JedisPool p = pool;
+        return p.isClosed() ? 0 : p.getNumIdle();
+    }
+
+    public int getWaiters() {
+        JedisPool p = pool;
+        return p.isClosed() ? 0 : p.getNumWaiters();
+    }
+
+    public synchronized long getCreatedCount() {
+        GenericObjectPool<?> internal = internalPool(pool);
+        return createdBase + (internal == null ? 0 : internal.getCreatedCount());
+    }
+
+    public synchronized long getDestroyedCount() {
+        GenericObjectPool<?> internal = internalPool(pool);
+        return destroyedBase + (internal == null ? 0 : internal.getDestroyedCount());
+    }
+
+    /**
+     * @return 借连接时 testOnBorrow 校验失败而销毁的连接数
+     */
+    public synchronized long getValidationFailureCount() {
+        GenericObjectPool<?> internal = internalPool(pool);
+        return validationFailureBase + (internal == null ? 0 : internal.getDestroyedByBorrowValidationCount());
+    }
+
+    /**
+     * @return 连接池耗尽导致借连接失败的次数
+     */
+    public long getExhaustedCount() {
+        return exhaustedCount.sum();
+    }
+
+    /**
+     * @return 最近一个完整窗口内借连接耗时的百分位，单位微秒
+     */
+    public long getBorrowWaitMicros(double percentile) {
+        rotate(System.nanoTime());
+        return previous.percentile(percentile);
+    }
+
+    /**
+     * @return commons-pool 统计的最近100次借连接的平均耗时
+     */
+    public long getMeanBorrowWaitMillis() {
+        JedisPool p = pool;
+        return p.isClosed() ? 0 : p.getMeanBorrowWaitTimeMillis();
+    }
+
+    public long getMaxBorrowWaitMillis() {
+        JedisPool p = pool;
+        return p.isClosed() ? 0 : p.getMaxBorrowWaitTimeMillis();
+    }
+
+    void recordBorrow(long startNanos, long borrowNanos) {
+        rotate(startNanos);
+        current.record(borrowNanos / 1000);
+    }
+
+    void recordExhausted() {
+        exhaustedCount.increment();
+    }
+
+    /**
+     * 换成同一个实例同一个db新建的连接池
+     */
+    synchronized void replace(JedisPool newPool) {
+        JedisPool old = pool;
+        if (old == newPool) {
+            return;
+        }
+        GenericObjectPool<?> internal = internalPool(old);
+        if (internal != null) {
+            createdBase += internal.getCreatedCount();
+            destroyedBase += internal.getDestroyedCount();
+            validationFailureBase += internal.getDestroyedByBorrowValidationCount();
+        }
+        pool = newPool;
+    }
+
+    private void rotate(long now) {
+        long start = windowStartNanos;
+        if (now - start < windowNanos) {
+            return;
+        }
+        synchronized (this) {
+            start = windowStartNanos;
+            if (now - start < windowNanos) {
+                return;
+            }
+            // 超过两个窗口没有数据时上一个窗口也是空的
+            previous = now - start < 2 * windowNanos ? current : new LatencyHistogram();
+            current = new LatencyHistogram();
+            windowStartNanos = now;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return id + " active=" + getActive() + " idle=" + getIdle() + " waiters=" + getWaiters()
+                + " created=" + getCreatedCount() + " destroyed=" + getDestroyedCount()
+                + " validationFailures=" + getValidationFailureCount() + " exhausted=" + getExhaustedCount()
+                + " borrowP50=" + getBorrowWaitMicros(0.5) + "us borrowP99=" + getBorrowWaitMicros(0.99)
+                + "us borrowMax=" + getMaxBorrowWaitMillis() + "ms";
+    }
+
+    /**
+     * JedisPool 没有暴露 commons-pool 的创建/销毁计数，通过反射读取 internalPool
+     */
+    static GenericObjectPool<?> internalPool(JedisPool pool) {
+        if (INTERNAL_POOL == null || pool == null) {
+            return null;
+        }
+        try {
+            return (GenericObjectPool<?>) INTERNAL_POOL.get(pool);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static Field internalPoolField() {
+        try {
+            Field field = Pool.class.getDeclaredField("internalPool");
+            field.setAccessible(true);
+            return field;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.rickiyang.redis.redis.monitor;
+
+import redis.clients.jedis.Tuple;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * @date: 2021/12/31 10:10 上午
+ * @author: rickiyang
+ * @Description: 估算命令回复的大小，String 按字符数计算，byte[] 按长度计算，不分配对象
+ */
+public final class ReplySizes {
+
+    private ReplySizes() {
+    }
+
+    /**
+     * @return 回复中所有值的估计字节数，集合为所有元素之和，map 包含 field 和 value
+     */
+    public static long bytes(Object reply) {
+        if (reply == null) {
+            return 0;
+        }
+        if (reply instanceof byte[]) {
+            return ((byte[]) reply).length;
+        }
+        if (reply instanceof String) {
+            return ((String) reply).length();
+        }
+        if (reply instanceof Tuple) {
+            return ((Tuple) reply).getBinaryElement().length + 8;
+        }
+        if (reply instanceof Collection) {
+            long bytes = 0;
+            for (Object element : (Collection<?>) reply) {
+                bytes += bytes(element);
+            }
+            return bytes;
+        }
+        if (reply instanceof Map) {
+            long bytes = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) reply).entrySet()) {
+                bytes += bytes(entry.getKey()) + bytes(entry.getValue());
+            }
+            return bytes;
+        }
+        return 8;
+    }
+
+    /**
+     * @return 集合的元素个数，map 的 entry 个数，单个值为1
+     */
+    public static int elements(Object reply) {
+        if (reply == null) {
+            return 0;
+        }
+        if (reply instanceof Collection) {
+            return ((Collection<?>) reply).size();
+        }
+        if (reply instanceof Map) {
+            return ((Map<?, ?>) reply).size();
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,229 @@
+package com.rickiyang.redis.redis.ratelimit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.Lists;
+import com.rickiyang.redis.redis.RedisClient;
+import com.rickiyang.redis.redis.script.RedisScript;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @date: 2021/12/27 2:30 下午
+ * @author: rickiyang
+ * @Description: 基于redis的限流器，限流逻辑在lua脚本中执行，时间取 redis 服务端的 TIME，不受客户端时钟影响
+ * </br>
+ * 开启本地租借(leaseSize 大于1)后，每个节点一次从redis取一批许可在进程内发放，用完或租期到了再取下一批，
+ * redis 调用量降为原来的 1/leaseSize；节点取走但没用完的许可会被浪费，整体限流值是近似的，节点越多、leaseSize 越大偏差越大
+ */
+public class RedisRateLimiter {
+
+    /**
+     * 固定窗口: 第一次请求时开始计时，窗口内累计许可数
+     */
+    private static final String FIXED_WINDOW_SCRIPT =
+            "local limit, window, requested, min = tonumber(ARGV[1]), tonumber(ARGV[2]), tonumber(ARGV[3]), tonumber(ARGV[4]) "
+                    + "local used = tonumber(redis.call('get', KEYS[1]) or '0') "
+                    + "local granted = math.min(requested, limit - used) "
+                    + "if granted < min then return 0 end "
+                    + "if redis.call('incrby', KEYS[1], granted) == granted then redis.call('pexpire', KEYS[1], window) end "
+                    + "return granted";
+
+    /**
+     * 滑动窗口: sorted set 中每个成员是一次发放，score 为发放时间，成员以 ":许可数" 结尾
+     */
+    private static final String SLIDING_WINDOW_SCRIPT =
+            "redis.replicate_commands() "
+                    + "local limit, window, requested, min = tonumber(ARGV[1]), tonumber(ARGV[2]), tonumber(ARGV[3]), tonumber(ARGV[4]) "
+                    + "local t = redis.call('time') "
+                    + "local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000) "
+                    + "redis.call('zremrangebyscore', KEYS[1], '-inf', now - window) "
+                    + "local used = 0 "
+                    + "for _, m in ipairs(redis.call('zrange', KEYS[1], 0, -1)) do "
+                    + "used = used + tonumber(string.match(m, ':(%d+)$')) end "
+                    + "local granted = math.min(requested, limit - used) "
+                    + "if granted < min then return 0 end "
+                    + "redis.call('zadd', KEYS[1], now, ARGV[5] .. ':' .. granted) "
+                    + "redis.call('pexpire', KEYS[1], window) "
+                    + "return granted";
+
+    /**
+     * 令牌桶: hash 中保存剩余令牌数和上次补充时间，按时间差补充令牌
+     */
+    private static final String TOKEN_BUCKET_SCRIPT =
+            "redis.replicate_commands() "
+                    + "local capacity, period, requested, min = tonumber(ARGV[1]), tonumber(ARGV[2]), tonumber(ARGV[3]), tonumber(ARGV[4]) "
+                    + "local t = redis.call('time') "
+                    + "local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000) "
+                    + "local data = redis.call('hmget', KEYS[1], 'tokens', 'ts') "
+                    + "local tokens = tonumber(data[1]) or capacity "
+                    + "local ts = tonumber(data[2]) or now "
+                    + "tokens = math.min(capacity, tokens + math.max(0, now - ts) * capacity / period) "
+                    + "local granted = math.min(requested, math.floor(tokens)) "
+                    + "if granted < min then granted = 0 end "
+                    + "redis.call('hmset', KEYS[1], 'tokens', tostring(tokens - granted), 'ts', now) "
+                    + "redis.call('pexpire', KEYS[1], period * 2) "
+                    + "return granted";
+
+    private final RedisClient redisClient;
+
+    private final int dbIndex;
+
+    private final Algorithm algorithm;
+
+    private final long limit;
+
+    private final long periodMillis;
+
+    private final int leaseSize;
+
+    private final RedisScript script;
+
+    /**
+     * 本地租借的许可，长时间未访问的key会被淘汰
+     */
+    private final Cache<String, Lease> leases;
+
+    /**
+     * @param redisClient  redis客户端
+     * @param dbIndex      限流key所在的db
+     * @param algorithm    限流算法
+     * @param limit        每个周期允许的许可数，令牌桶时为桶容量
+     * @param periodMillis 周期，令牌桶时每个周期补满 limit 个令牌
+     * @param leaseSize    每次从redis租借的许可数，小于等于1时不租借，每次获取都访问redis
+     */
+    public RedisRateLimiter(RedisClient redisClient, int dbIndex, Algorithm algorithm, long limit, long periodMillis,
+                            int leaseSize) {
+        if (limit <= 0 || periodMillis <= 0) {
+            throw new IllegalArgumentException("limit and periodMillis should be positive");
+        }
+        this.redisClient = redisClient;
+        this.dbIndex = dbIndex;
+        this.algorithm = algorithm;
+        this.limit = limit;
+        this.periodMillis = periodMillis;
+        this.leaseSize = (int) Math.min(Math.max(leaseSize, 1), limit);
+        this.script = redisClient.registerScript(scriptOf(algorithm), false);
+        this.leases = this.leaseSize > 1 ? Caffeine.newBuilder()
+                .maximumSize(100000)
+                .expireAfterAccess(periodMillis * 2, TimeUnit.MILLISECONDS)
+                .build() : null;
+    }
+
+    public RedisRateLimiter(RedisClient redisClient, Algorithm algorithm, long limit, long periodMillis) {
+        this(redisClient, 0, algorithm, limit, periodMillis, 1);
+    }
+
+    /**
+     * 获取一个许可
+     *
+     * @param key 限流的key
+     * @return 获取成功返回true
+     */
+    public boolean tryAcquire(String key) {
+        return tryAcquire(key, 1);
+    }
+
+    /**
+     * 获取多个许可，不足时一个都不获取
+     *
+     * @param key     限流的key
+     * @param permits 许可数
+     * @return 获取成功返回true
+     */
+    public boolean tryAcquire(String key, int permits) {
+        if (permits <= 0) {
+            return true;
+        }
+        if (leases == null || permits > leaseSize) {
+            return acquireRemote(key, permits, permits) == permits;
+        }
+        Lease lease = leases.get(key, k -> new Lease());
+        synchronized (lease) {
+            long now = System.nanoTime();
+            if (lease.permits >= permits && now < lease.expiresAt) {
+                lease.permits -= permits;
+                return true;
+            }
+            // 本地许可不足或已过期，整批重新租借，剩余的许可作废
+            long granted = acquireRemote(key, leaseSize, permits);
+            if (granted < permits) {
+                lease.permits = 0;
+                return false;
+            }
+            lease.permits = granted - permits;
+            lease.expiresAt = now + TimeUnit.MILLISECONDS.toNanos(periodMillis);
+            return true;
+        }
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getPeriodMillis() {
+        return periodMillis;
+    }
+
+    public int getLeaseSize() {
+        return leaseSize;
+    }
+
+    /**
+     * @return redis 实际发放的许可数，不足 min 时为0
+     */
+    private long acquireRemote(String key, long requested, long min) {
+        Object result;
+        if (algorithm == Algorithm.SLIDING_WINDOW) {
+            result = redisClient.evalsha(dbIndex, script, Collections.singletonList(key), Lists.newArrayList(
+                    String.valueOf(limit), String.valueOf(periodMillis), String.valueOf(requested), String.valueOf(min),
+                    UUID.randomUUID().toString()));
+        } else {
+            result = redisClient.evalsha(dbIndex, script, Collections.singletonList(key), Lists.newArrayList(
+                    String.valueOf(limit), String.valueOf(periodMillis), String.valueOf(requested), String.valueOf(min)));
+        }
+        return (Long) result;
+    }
+
+    private static String scriptOf(Algorithm algorithm) {
+        switch (algorithm) {
+            case FIXED_WINDOW:
+                return FIXED_WINDOW_SCRIPT;
+            case SLIDING_WINDOW:
+                return SLIDING_WINDOW_SCRIPT;
+            case TOKEN_BUCKET:
+                return TOKEN_BUCKET_SCRIPT;
+            default:
+                throw new IllegalArgumentException("unknown algorithm " + algorithm);
+        }
+    }
+
+    /**
+     * 限流算法
+     */
+    public enum Algorithm {
+        /**
+         * 固定窗口计数，实现最简单，窗口边界处最多可能放过 2 * limit
+         */
+        FIXED_WINDOW,
+        /**
+         * 滑动窗口日志，使用 sorted set，精确但每次发放都会增加一个成员，适合 limit 较小或开启租借的场景
+         */
+        SLIDING_WINDOW,
+        /**
+         * 令牌桶，允许 limit 大小的突发，之后按 limit / period 的速率补充
+         */
+        TOKEN_BUCKET
+    }
+
+    private static final class Lease {
+        private long permits;
+        private long expiresAt;
+    }
+}
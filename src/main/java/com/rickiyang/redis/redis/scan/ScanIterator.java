@@ -0,0 +1,160 @@
+package com.rickiyang.redis.redis.scan;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.rickiyang.redis.exception.CsRedisRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * @date: 2021/12/15 4:10 下午
+ * @author: rickiyang
+ * @Description: 基于 SCAN 系列命令游标的惰性迭代器
+ * </br>
+ * 每次只拉取一页数据，拉取时借用连接、拉取完立即归还，内存占用与页大小相关而与结果总数无关。
+ * 连接异常时从 poolSupplier 重新获取连接池(如另一个从库)，用当前游标继续迭代，
+ * 切换实例后可能出现少量重复元素
+ */
+public class ScanIterator<T> implements Iterator<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(ScanIterator.class);
+
+    public static final int DEFAULT_COUNT = 100;
+
+    private static final int MAX_RETRIES = 3;
+
+    private final Supplier<JedisPool> poolSupplier;
+
+    private final ScanCommand<T> command;
+
+    private final ScanParams params;
+
+    private final RateLimiter rateLimiter;
+
+    private JedisPool jedisPool;
+
+    private String cursor = ScanParams.SCAN_POINTER_START;
+
+    private boolean finished = false;
+
+    private Iterator<T> page = Collections.emptyIterator();
+
+    /**
+     * @param poolSupplier   获取执行SCAN的连接池，连接异常后会重新获取
+     * @param command        具体的 SCAN/HSCAN/SSCAN/ZSCAN 调用
+     * @param pattern        匹配模式，为空时不过滤
+     * @param count          每页的 COUNT 提示值，小于等于0时使用默认值
+     * @param pagesPerSecond 每秒最多执行的 SCAN 次数，小于等于0时不限速
+     */
+    public ScanIterator(Supplier<JedisPool> poolSupplier, ScanCommand<T> command, String pattern, int count,
+                        double pagesPerSecond) {
+        this.poolSupplier = poolSupplier;
+        this.command = command;
+        this.params = new ScanParams().count(count > 0 ? count : DEFAULT_COUNT);
+        if (pattern != null && !"".equals(pattern)) {
+            this.params.match(pattern);
+        }
+        this.rateLimiter = pagesPerSecond > 0 ? RateLimiter.create(pagesPerSecond) : null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!page.hasNext() && !finished) {
+            fetch();
+        }
+        return page.hasNext();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+
+    /**
+     * @return 当前游标，迭代结束后为 "0"
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false);
+    }
+
+    /**
+     * 逐个元素回调，visitor 返回 false 时提前结束遍历
+     *
+     * @param visitor 元素回调
+     * @return 回调过的元素个数
+     */
+    public long visit(ScanVisitor<T> visitor) {
+        long visited = 0;
+        while (hasNext()) {
+            visited++;
+            if (!visitor.visit(next())) {
+                break;
+            }
+        }
+        return visited;
+    }
+
+    private void fetch() {
+        if (rateLimiter != null) {
+            rateLimiter.acquire();
+        }
+        JedisConnectionException last = null;
+        for (int i = 0; i <= MAX_RETRIES; i++) {
+            if (jedisPool == null) {
+                jedisPool = poolSupplier.get();
+            }
+            try (Jedis jedis = jedisPool.getResource()) {
+                ScanResult<T> result = command.scan(jedis, cursor, params);
+                cursor = result.getCursor();
+                finished = ScanParams.SCAN_POINTER_START.equals(cursor);
+                page = result.getResult().iterator();
+                return;
+            } catch (JedisConnectionException e) {
+                log.warn("scan fail at cursor " + cursor + ", resume on another pool", e);
+                last = e;
+                jedisPool = null;
+            } catch (Exception e) {
+                throw new CsRedisRuntimeException("jedis scan fail", e);
+            }
+        }
+        throw new CsRedisRuntimeException("jedis scan fail after " + MAX_RETRIES + " retries", last);
+    }
+
+    /**
+     * 遍历元素的回调
+     */
+    public interface ScanVisitor<T> {
+        /**
+         * @param element 当前元素
+         * @return false 时停止遍历
+         */
+        boolean visit(T element);
+    }
+
+    /**
+     * 在连接上执行一次 SCAN 系列命令
+     */
+    public interface ScanCommand<T> {
+        ScanResult<T> scan(Jedis jedis, String cursor, ScanParams params);
+    }
+}
@@ -0,0 +1,54 @@
+package com.rickiyang.redis.redis.script;
+
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @date: 2021/12/17 10:30 上午
+ * @author: rickiyang
+ * @Description: 已注册的lua脚本，SHA1在本地计算一次
+ */
+public class RedisScript {
+
+    private final String script;
+
+    private final String sha1;
+
+    private final boolean readonly;
+
+    public RedisScript(String script, boolean readonly) {
+        if (script == null || "".equals(script)) {
+            throw new IllegalArgumentException("script should not be blank");
+        }
+        this.script = script;
+        this.sha1 = sha1Hex(script);
+        this.readonly = readonly;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String sha1Hex(String script) {
+        // 与 redis SCRIPT LOAD 返回的 SHA1 一致(小写十六进制)
+        return Hashing.sha1().hashString(script, StandardCharsets.UTF_8).toString();
+    }
+
+    public String getScript() {
+        return script;
+    }
+
+    public String getSha1() {
+        return sha1;
+    }
+
+    /**
+     * @return 为true时可以在从库执行，主从切换后也会预加载到从库
+     */
+    public boolean isReadonly() {
+        return readonly;
+    }
+
+    @Override
+    public String toString() {
+        return "RedisScript{sha1=" + sha1 + ", readonly=" + readonly + "}";
+    }
+}
@@ -0,0 +1,126 @@
+package com.rickiyang.redis.redis.script;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rickiyang.redis.redis.sentinel.CustomJedisSentinelPool;
+import com.rickiyang.redis.redis.sentinel.MasterSwitchListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @date: 2021/12/17 10:45 上午
+ * @author: rickiyang
+ * @Description: lua脚本注册表
+ * </br>
+ * 脚本只在注册时计算一次SHA1，执行时发送 EVALSHA；收到 +switch-master 后，把所有脚本重新加载到新master，
+ * readonly 脚本同时加载到所有从库
+ */
+public class ScriptRegistry implements MasterSwitchListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ScriptRegistry.class);
+
+    /**
+     * 通过 eval(String) 隐式注册的脚本上限，避免动态拼接的脚本无限增长
+     */
+    private static final long MAX_IMPLICIT_SCRIPTS = 1024;
+
+    private final ConcurrentMap<String, RedisScript> registered = new ConcurrentHashMap<>();
+
+    private final Cache<String, RedisScript> implicit = Caffeine.newBuilder()
+            .maximumSize(MAX_IMPLICIT_SCRIPTS)
+            .build();
+
+    /**
+     * 显式注册脚本，注册过的脚本在主从切换后会被重新加载
+     *
+     * @param script   lua脚本
+     * @param readonly 是否只读，只读脚本可以在从库执行
+     * @return 已注册的脚本
+     */
+    public RedisScript register(String script, boolean readonly) {
+        RedisScript redisScript = registered.get(script);
+        if (redisScript == null || (readonly && !redisScript.isReadonly())) {
+            // 同一脚本既有只读又有读写调用时，按只读处理，从库上也会预加载
+            redisScript = registered.merge(script, new RedisScript(script, readonly),
+                    (old, current) -> old.isReadonly() ? old : current);
+            implicit.invalidate(script);
+        }
+        return redisScript;
+    }
+
+    /**
+     * 查找脚本对应的 RedisScript，没有显式注册过的脚本放入有上限的隐式缓存
+     * </br>
+     * 以脚本内容为key，String 会缓存 hashCode，同一个脚本实例的查找开销很小
+     */
+    public RedisScript resolve(String script, boolean readonly) {
+        RedisScript redisScript = registered.get(script);
+        if (redisScript != null) {
+            return redisScript;
+        }
+        redisScript = implicit.get(script, k -> new RedisScript(script, readonly));
+        if (readonly && !redisScript.isReadonly()) {
+            redisScript = new RedisScript(script, true);
+            implicit.put(script, redisScript);
+        }
+        return redisScript;
+    }
+
+    public Collection<RedisScript> getRegisteredScripts() {
+        return registered.values();
+    }
+
+    /**
+     * 把脚本加载到指定的 master 和从库上
+     *
+     * @param masterPool master连接池，加载所有脚本
+     * @param slavePools 从库连接池，只加载readonly脚本
+     */
+    public void loadAll(JedisPool masterPool, List<? extends JedisPool> slavePools) {
+        if (registered.isEmpty() && implicit.estimatedSize() == 0) {
+            return;
+        }
+        load(masterPool, false);
+        if (slavePools != null) {
+            for (JedisPool slavePool : slavePools) {
+                load(slavePool, true);
+            }
+        }
+    }
+
+    private void load(JedisPool pool, boolean readonlyOnly) {
+        int count = 0;
+        try (Jedis jedis = pool.getResource()) {
+            for (RedisScript script : registered.values()) {
+                if (!readonlyOnly || script.isReadonly()) {
+                    jedis.scriptLoad(script.getScript());
+                    count++;
+                }
+            }
+            for (RedisScript script : implicit.asMap().values()) {
+                if (!readonlyOnly || script.isReadonly()) {
+                    jedis.scriptLoad(script.getScript());
+                    count++;
+                }
+            }
+            log.info("loaded {} lua scripts to {}", count, pool);
+        } catch (Exception e) {
+            // 加载失败不影响使用，执行时收到 NOSCRIPT 会退回 EVAL
+            log.warn("load lua scripts fail on " + pool, e);
+        }
+    }
+
+    @Override
+    public void onMasterSwitch(CustomJedisSentinelPool sentinelPool, HostAndPort newMaster) {
+        log.info("master switched to {}, reload lua scripts", newMaster);
+        loadAll(sentinelPool, sentinelPool.getAvailableSlaves());
+    }
+}
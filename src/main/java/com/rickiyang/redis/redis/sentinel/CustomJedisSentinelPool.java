@@ -1,6 +1,11 @@
 package com.rickiyang.redis.redis.sentinel;
 
 
+import com.rickiyang.redis.redis.DatabasePools;
+import com.rickiyang.redis.redis.PoolInfo;
+import com.rickiyang.redis.redis.ReplicaLag;
+import com.rickiyang.redis.redis.balance.PoolSelector;
+import com.rickiyang.redis.redis.balance.RandomPoolSelector;
 import com.rickiyang.redis.util.Json;
 import com.rickiyang.redis.util.RedisUtils;
 import org.slf4j.LoggerFactory;
@@ -46,12 +51,28 @@ public class CustomJedisSentinelPool extends JedisPool {
 
     private volatile HostAndPort currentHostMaster;
 
+    private volatile DatabasePools masterDatabasePools;
+
     private CopyOnWriteArrayList<SlaveJedisPool> availableSlaves = new CopyOnWriteArrayList<>();
 
     private CopyOnWriteArrayList<HostAndPort> unavailableSlaves = new CopyOnWriteArrayList<>();
 
     private AtomicLong lastLoadTimestamp = new AtomicLong();
 
+    private final List<MasterSwitchListener> masterSwitchListeners = new CopyOnWriteArrayList<>();
+
+    private volatile PoolSelector readerSelector = RandomPoolSelector.INSTANCE;
+
+    /**
+     * 复制延迟检查，为null时不检查，读请求在所有可用从库中选择
+     */
+    private volatile LagChecker lagChecker;
+
+    /**
+     * 开启复制延迟检查时参与读请求的从库，即可用且没有落后太多的从库
+     */
+    private volatile List<SlaveJedisPool> readerSlaves = Collections.emptyList();
+
     public CustomJedisSentinelPool(String masterName, Set<String> sentinels, final JedisPoolConfig poolConfig) {
         this(masterName, sentinels, poolConfig, Protocol.DEFAULT_TIMEOUT, null, Protocol.DEFAULT_DATABASE);
     }
@@ -118,6 +139,9 @@ public class CustomJedisSentinelPool extends JedisPool {
         if (null != slaveChecker) {
             slaveChecker.shutdown();
         }
+        if (null != lagChecker) {
+            lagChecker.shutdown();
+        }
 
         if (availableSlaves != null && availableSlaves.size() > 0) {
             for (JedisPool pool : availableSlaves) {
@@ -128,6 +152,9 @@ public class CustomJedisSentinelPool extends JedisPool {
         if (null != unavailableSlaves) {
             unavailableSlaves.clear();
         }
+        if (null != masterDatabasePools) {
+            masterDatabasePools.destroy();
+        }
         log.info("CustomJedisSentinelPool destroy...");
         super.destroy(); // close myself
     }
@@ -136,6 +163,111 @@ public class CustomJedisSentinelPool extends JedisPool {
         return currentHostMaster;
     }
 
+    public void addMasterSwitchListener(MasterSwitchListener listener) {
+        masterSwitchListeners.add(listener);
+    }
+
+    /**
+     * @param readerSelector 选择从库的策略，为null时随机选择
+     */
+    public void setReaderSelector(PoolSelector readerSelector) {
+        this.readerSelector = readerSelector == null ? RandomPoolSelector.INSTANCE : readerSelector;
+    }
+
+    /**
+     * 开启复制延迟检查，落后超过阈值、和主库断开或正在全量同步的从库不参与读请求，追上后恢复
+     * </br>
+     * 每次检查在主库上执行 INFO replication 获取主库偏移量和各个从库确认的偏移量，
+     * 在从库上执行 INFO replication 获取 master_link_status 和从库自己的偏移量
+     *
+     * @param maxLagBytes         允许落后主库的字节数，小于等于0时不按字节数判断；
+     *                            从库每秒确认一次偏移量，阈值需要大于一秒的写入量
+     * @param maxLagSeconds       允许距离上一次确认偏移量的秒数，小于等于0时不按秒数判断
+     * @param checkIntervalMillis 检查间隔，小于等于0时为1秒
+     */
+    public synchronized void setReplicationLagPolicy(long maxLagBytes, long maxLagSeconds, long checkIntervalMillis) {
+        LagChecker old = lagChecker;
+        if (old != null) {
+            old.shutdown();
+        }
+        LagChecker checker = new LagChecker(maxLagBytes, maxLagSeconds,
+                checkIntervalMillis > 0 ? checkIntervalMillis : 1000);
+        checker.check();
+        lagChecker = checker;
+        checker.setDaemon(true);
+        checker.start();
+    }
+
+    /**
+     * @return 各个可用从库最近一次检查的复制状态，没有开启复制延迟检查时为空
+     */
+    public List<ReplicaLag> getReplicaLags() {
+        List<ReplicaLag> lags = new ArrayList<>();
+        for (SlaveJedisPool slave : availableSlaves) {
+            ReplicaLag lag = slave.getReplicaLag();
+            if (lag != null) {
+                lags.add(lag);
+            }
+        }
+        return lags;
+    }
+
+    /**
+     * 从库列表变化后唤醒检查线程立即检查一次，新加入的从库在检查之前不参与读请求；
+     * 检查需要访问主库和每个从库，不在 sentinel 事件线程上执行
+     */
+    private void checkReplicationLag() {
+        LagChecker checker = lagChecker;
+        if (checker != null) {
+            checker.wakeUp();
+        }
+    }
+
+    /**
+     * 从库列表变化时在写锁内调用，readerSlaves 只保留仍然可用的从库，避免检查完成前读请求落到已关闭或已移除的连接池
+     */
+    private void retainReaderSlaves() {
+        List<SlaveJedisPool> readers = readerSlaves;
+        if (readers.isEmpty()) {
+            return;
+        }
+        List<SlaveJedisPool> retained = new ArrayList<>(readers.size());
+        for (SlaveJedisPool slave : readers) {
+            if (availableSlaves.contains(slave)) {
+                retained.add(slave);
+            }
+        }
+        readerSlaves = retained;
+    }
+
+    /**
+     * @return 当前可用从库连接池的快照
+     */
+    public List<SlaveJedisPool> getAvailableSlaves() {
+        return new ArrayList<>(availableSlaves);
+    }
+
+    private void fireMasterSwitch(HostAndPort newMaster) {
+        for (MasterSwitchListener listener : masterSwitchListeners) {
+            try {
+                listener.onMasterSwitch(this, newMaster);
+            } catch (Exception e) {
+                log.error("master switch listener " + listener + " fail", e);
+            }
+        }
+    }
+
+    /**
+     * 获取master上指定db的连接池
+     *
+     * @param dbIndex db的索引值
+     * @return 连接已经选中dbIndex的连接池
+     */
+    public JedisPool getMasterPool(int dbIndex) {
+        DatabasePools pools = masterDatabasePools;
+        return pools == null ? this : pools.getPool(dbIndex);
+    }
+
     private void initMasterPool(HostAndPort master) {
         // 覆写equals，避免重复初始化master pool
         if (!master.equals(currentHostMaster)) {
@@ -146,6 +278,16 @@ public class CustomJedisSentinelPool extends JedisPool {
             log.info("Created JedisPool to master at " + master);
             // 创建master pool
             initPool(poolConfig, new JedisFactory(master.getHost(), master.getPort(), timeout, password, database));
+            // 非默认db的连接池指向旧master，切换后全部重建
+            DatabasePools old = masterDatabasePools;
+            masterDatabasePools = new DatabasePools(this, database, poolConfig, master.getHost(), master.getPort(),
+                    timeout, password);
+            if (old != null) {
+                old.destroy();
+            }
+            for (SlaveJedisPool slave : availableSlaves) {
+                slave.resetReplicationOffset();
+            }
         }
     }
 
@@ -181,6 +323,7 @@ public class CustomJedisSentinelPool extends JedisPool {
                     log.warn("relaod failed jedisPool host:{},port:{}", hap.getHost(), hap.getPort());
                 }
             }
+            retainReaderSlaves();
         } finally {
             lock.writeLock().unlock();
         }
@@ -189,9 +332,9 @@ public class CustomJedisSentinelPool extends JedisPool {
     public JedisPool getReaderPool() {
         try {
             lock.readLock().lock();
-            int size = availableSlaves.size();
-            if (size > 0) {
-                return availableSlaves.get(ThreadLocalRandom.current().nextInt(size));
+            List<SlaveJedisPool> readers = lagChecker == null ? availableSlaves : readerSlaves;
+            if (!readers.isEmpty()) {
+                return readerSelector.select(readers);
             } else {
                 log.info("error: none slave pool can be aquired");
                 return null;
@@ -201,6 +344,111 @@ public class CustomJedisSentinelPool extends JedisPool {
         }
     }
 
+    /**
+     * 随机获取一个从库上指定db的连接池
+     *
+     * @param dbIndex db的索引值
+     * @return 连接已经选中dbIndex的连接池，没有可用从库时返回null
+     */
+    public JedisPool getReaderPool(int dbIndex) {
+        JedisPool pool = getReaderPool();
+        if (pool instanceof SlaveJedisPool) {
+            return ((SlaveJedisPool) pool).getDbPool(dbIndex);
+        }
+        return pool;
+    }
+
+    /**
+     * 获取复制偏移量已经达到 minOffset 的从库上指定db的连接池，用于读自己写
+     * </br>
+     * 先在已知追上的从库中选择；都没有追上时按读策略选一个从库查询一次当前偏移量
+     *
+     * @param dbIndex   db的索引值
+     * @param minOffset 需要达到的主库复制偏移量
+     * @return 没有追上的从库时返回null
+     */
+    public JedisPool getReaderPool(int dbIndex, long minOffset) {
+        List<SlaveJedisPool> readers = lagChecker == null ? availableSlaves : readerSlaves;
+        if (readers.isEmpty()) {
+            return null;
+        }
+        List<SlaveJedisPool> caughtUp = new ArrayList<>(readers.size());
+        for (SlaveJedisPool slave : readers) {
+            if (slave.getReplicationOffset() >= minOffset) {
+                caughtUp.add(slave);
+            }
+        }
+        if (!caughtUp.isEmpty()) {
+            return readerSelector.select(caughtUp).getDbPool(dbIndex);
+        }
+        SlaveJedisPool slave = readerSelector.select(readers);
+        return slave.fetchReplicationOffset() >= minOffset ? slave.getDbPool(dbIndex) : null;
+    }
+
+    /**
+     * 查询主库当前的复制偏移量
+     *
+     * @return master_repl_offset，查询不到时返回-1
+     */
+    public long getMasterOffset() {
+        try (Jedis jedis = getResource()) {
+            return parseLong(RedisUtils.parseInfo(jedis.info("replication")).get("master_repl_offset"));
+        }
+    }
+
+    /**
+     * 所有可用从库上指定db的连接池
+     *
+     * @param dbIndex db的索引值
+     * @return 没有可用从库时返回空列表
+     */
+    public List<JedisPool> getReaderPools(int dbIndex) {
+        List<SlaveJedisPool> readers = lagChecker == null ? availableSlaves : readerSlaves;
+        List<JedisPool> pools = new ArrayList<>(readers.size());
+        for (SlaveJedisPool slave : readers) {
+            pools.add(slave.getDbPool(dbIndex));
+        }
+        return pools;
+    }
+
+    /**
+     * 查询连接池指向的实例和角色
+     *
+     * @param pool 主库或从库上某个db的连接池
+     * @return 已经不在使用的连接池返回null
+     */
+    public PoolInfo describePool(JedisPool pool) {
+        DatabasePools pools = masterDatabasePools;
+        HostAndPort master = currentHostMaster;
+        if (master != null && pools != null && pools.contains(pool)) {
+            return new PoolInfo(PoolInfo.Role.MASTER, master, pools.getDatabase(pool));
+        }
+        for (SlaveJedisPool slave : availableSlaves) {
+            int db = slave.getDatabase(pool);
+            if (db >= 0) {
+                return new PoolInfo(PoolInfo.Role.SLAVE, slave.getHostAndPort(), db);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 主库和所有可用从库上已经创建的连接池
+     */
+    public List<JedisPool> getPools() {
+        List<JedisPool> pools = new ArrayList<>();
+        DatabasePools masterPools = masterDatabasePools;
+        if (masterPools != null) {
+            pools.addAll(masterPools.getPools());
+        } else {
+            pools.add(this);
+        }
+        for (SlaveJedisPool slave : availableSlaves) {
+            pools.addAll(slave.getDbPools());
+        }
+        return pools;
+    }
+
     private Map<String, ArrayList<HostAndPort>> initSentinels(Set<String> sentinels, final String masterName,
                                                               int timeout) {
         Map<String, ArrayList<HostAndPort>> map = new HashMap<>();
@@ -276,6 +524,7 @@ public class CustomJedisSentinelPool extends JedisPool {
         sentinelsMap.put(SLAVE_PREFIX, slaves);
         initSalvePools(slaves);
         jedisClose(jedis);
+        checkReplicationLag();
     }
 
     private HostAndPort toHostAndPort(List<String> getMasterAddrByNameResult) {
@@ -329,10 +578,10 @@ public class CustomJedisSentinelPool extends JedisPool {
 
                 if (newUnavailable.size() > 0 || newAvailable.size() > 0) {
                     lock.writeLock().lock();
-                    if (lastUpdate != lastLoadTimestamp.get()) {
-                        continue;
-                    }
                     try {
+                        if (lastUpdate != lastLoadTimestamp.get()) {
+                            continue;
+                        }
                         if (!newUnavailable.isEmpty()) {
                             for (SlaveJedisPool jp : newUnavailable) {
                                 unavailableSlaves.add(jp.getHostAndPort());
@@ -341,6 +590,7 @@ public class CustomJedisSentinelPool extends JedisPool {
                                     log.debug(" remove unavailable jedis slave pool " + jp.getHostAndPort());
                                 }
                             }
+                            retainReaderSlaves();
                         }
 
                         if (!newAvailable.isEmpty()) {
@@ -356,6 +606,7 @@ public class CustomJedisSentinelPool extends JedisPool {
                     } finally {
                         lock.writeLock().unlock();
                     }
+                    checkReplicationLag();
                 }
             }
         }
@@ -371,6 +622,154 @@ public class CustomJedisSentinelPool extends JedisPool {
 
     }
 
+    /**
+     * 定时检查从库的复制延迟，更新 readerSlaves
+     */
+    protected class LagChecker extends Thread {
+
+        protected AtomicBoolean running = new AtomicBoolean(false);
+
+        private final long maxLagBytes;
+
+        private final long maxLagSeconds;
+
+        private final long checkIntervalMillis;
+
+        private final Object wakeUpLock = new Object();
+
+        /**
+         * 从库列表变化后请求立即检查，由 wakeUpLock 保护
+         */
+        private boolean wakeUpPending;
+
+        LagChecker(long maxLagBytes, long maxLagSeconds, long checkIntervalMillis) {
+            super("redis-replica-lag-checker");
+            this.maxLagBytes = maxLagBytes;
+            this.maxLagSeconds = maxLagSeconds;
+            this.checkIntervalMillis = checkIntervalMillis;
+        }
+
+        @Override
+        public void run() {
+            running.set(true);
+            while (running.get()) {
+                try {
+                    synchronized (wakeUpLock) {
+                        if (!wakeUpPending) {
+                            wakeUpLock.wait(checkIntervalMillis);
+                        }
+                        wakeUpPending = false;
+                    }
+                } catch (InterruptedException e) {
+                    shutdown();
+                    return;
+                }
+                try {
+                    check();
+                } catch (Exception e) {
+                    log.warn("check replication lag error", e);
+                }
+            }
+        }
+
+        synchronized void check() {
+            long masterOffset = -1;
+            // 主库视角的从库偏移量和距离上次确认的秒数
+            Map<HostAndPort, long[]> acked = new HashMap<>();
+            try (Jedis jedis = getResource()) {
+                Map<String, String> info = RedisUtils.parseInfo(jedis.info("replication"));
+                masterOffset = parseLong(info.get("master_repl_offset"));
+                for (Map.Entry<String, String> entry : info.entrySet()) {
+                    if (entry.getKey().startsWith("slave") && entry.getValue().contains("ip=")) {
+                        Map<String, String> fields = new HashMap<>();
+                        for (String field : entry.getValue().split(",")) {
+                            int index = field.indexOf('=');
+                            if (index > 0) {
+                                fields.put(field.substring(0, index), field.substring(index + 1));
+                            }
+                        }
+                        acked.put(new HostAndPort(fields.get("ip"), (int) parseLong(fields.get("port"))),
+                                new long[]{parseLong(fields.get("offset")), parseLong(fields.get("lag"))});
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("get replication info from master {} error: {}", currentHostMaster, e.getMessage());
+            }
+            List<SlaveJedisPool> readers = new ArrayList<>();
+            for (SlaveJedisPool slave : availableSlaves) {
+                ReplicaLag lag = checkSlave(slave, masterOffset, acked.get(slave.getHostAndPort()));
+                ReplicaLag old = slave.getReplicaLag();
+                slave.setReplicaLag(lag);
+                if (!lag.isExcluded()) {
+                    readers.add(slave);
+                    if (old != null && old.isExcluded()) {
+                        log.info("replica caught up, add back to readers: {}", lag);
+                    }
+                } else if (old == null || !old.isExcluded()) {
+                    log.warn("replica is lagging, remove from readers: {}", lag);
+                }
+            }
+            // 检查期间从库列表可能已经变化，只发布仍然可用的从库
+            lock.readLock().lock();
+            try {
+                readers.retainAll(availableSlaves);
+                readerSlaves = readers;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void wakeUp() {
+            synchronized (wakeUpLock) {
+                wakeUpPending = true;
+                wakeUpLock.notifyAll();
+            }
+        }
+
+        private ReplicaLag checkSlave(SlaveJedisPool slave, long masterOffset, long[] acked) {
+            boolean linkUp;
+            long offset = -1;
+            long lagSeconds = -1;
+            try (Jedis jedis = slave.getResource()) {
+                Map<String, String> info = RedisUtils.parseInfo(jedis.info("replication"));
+                linkUp = "up".equals(info.get("master_link_status")) && !"1".equals(info.get("master_sync_in_progress"));
+                offset = parseLong(info.get("slave_repl_offset"));
+                lagSeconds = parseLong(info.get(linkUp ? "master_last_io_seconds_ago" : "master_link_down_since_seconds"));
+            } catch (Exception e) {
+                log.warn("get replication info from slave {} error: {}", slave.getHostAndPort(), e.getMessage());
+                linkUp = false;
+            }
+            if (acked != null) {
+                // 从库的偏移量在主库之后读取，取两者中较新的；空闲时 master_last_io_seconds_ago 可能达到 ping 周期，
+                // 优先使用主库记录的确认间隔
+                offset = Math.max(offset, acked[0]);
+                if (linkUp && acked[1] >= 0) {
+                    lagSeconds = acked[1];
+                }
+            }
+            long lagBytes = masterOffset >= 0 && offset >= 0 ? Math.max(masterOffset - offset, 0) : -1;
+            boolean excluded = !linkUp || maxLagBytes > 0 && lagBytes > maxLagBytes
+                    || maxLagSeconds > 0 && lagSeconds > maxLagSeconds;
+            return new ReplicaLag(slave.getHostAndPort(), linkUp, offset, lagBytes, lagSeconds, excluded);
+        }
+
+        public void shutdown() {
+            running.set(false);
+            interrupt();
+        }
+    }
+
+    static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     protected class MasterListener extends Thread {
 
         protected String masterName;
@@ -411,7 +810,10 @@ public class CustomJedisSentinelPool extends JedisPool {
                                             Arrays.asList(switchMasterMsg[3], switchMasterMsg[4]));
                                     log.info("switch master and init pool at :{}", hostAddress);
                                     initMasterPool(hostAddress);
-                                    executorService.execute(() -> reloadSlavePools(new Jedis(host, port), masterName));
+                                    executorService.execute(() -> {
+                                        reloadSlavePools(new Jedis(host, port), masterName);
+                                        fireMasterSwitch(hostAddress);
+                                    });
                                 } else {
                                     log.info("Ignoring message on +switch-master for master name " + switchMasterMsg[0]
                                             + ", our master name is " + masterName);
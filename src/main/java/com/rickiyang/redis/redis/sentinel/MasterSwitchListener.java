@@ -0,0 +1,17 @@
+package com.rickiyang.redis.redis.sentinel;
+
+import redis.clients.jedis.HostAndPort;
+
+/**
+ * @date: 2021/12/17 11:20 上午
+ * @author: rickiyang
+ * @Description: 收到 sentinel 的 +switch-master 并重建主从连接池后回调
+ */
+public interface MasterSwitchListener {
+
+    /**
+     * @param sentinelPool 已切换到新master的连接池，从库连接池也已重新加载
+     * @param newMaster    新master地址
+     */
+    void onMasterSwitch(CustomJedisSentinelPool sentinelPool, HostAndPort newMaster);
+}
@@ -1,13 +1,20 @@
 package com.rickiyang.redis.redis.sentinel;
 
 import com.rickiyang.redis.redis.AbstractClientFactory;
+import com.rickiyang.redis.redis.PoolInfo;
+import com.rickiyang.redis.redis.ReplicaLag;
+import com.rickiyang.redis.redis.balance.PoolSelector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.exceptions.JedisConnectionException;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -21,6 +28,9 @@ public class RedisSentinelFactory extends AbstractClientFactory {
     private static final Logger logger = LoggerFactory.getLogger(RedisSentinelFactory.class);
 
     private CustomJedisSentinelPool masterPool;
+
+    private final LongAdder readerFallbackCount = new LongAdder();
+
     private int retries = 3;
 
     private String masterName;
@@ -28,8 +38,19 @@ public class RedisSentinelFactory extends AbstractClientFactory {
     private String password = null;
     private int timeout = 8000;
 
+    /**
+     * 复制延迟检查的阈值，都小于等于0时不检查
+     */
+    private long replicaMaxLagBytes;
+    private long replicaMaxLagSeconds;
+    private long replicaLagCheckIntervalMillis;
+
     private ReentrantLock lock = new ReentrantLock();
 
+    private final List<MasterSwitchListener> masterSwitchListeners = new CopyOnWriteArrayList<>();
+
+    private volatile PoolSelector readerSelector;
+
     public RedisSentinelFactory() {
         // 初始值
         this.config.setMaxWaitMillis(6000L);
@@ -48,7 +69,15 @@ public class RedisSentinelFactory extends AbstractClientFactory {
         }
         try {
             CustomJedisSentinelPool old = masterPool;
-            masterPool = new CustomJedisSentinelPool(masterName, servers, this.config, timeout, password);
+            CustomJedisSentinelPool pool = new CustomJedisSentinelPool(masterName, servers, this.config, timeout, password);
+            for (MasterSwitchListener listener : masterSwitchListeners) {
+                pool.addMasterSwitchListener(listener);
+            }
+            pool.setReaderSelector(readerSelector);
+            if (replicaMaxLagBytes > 0 || replicaMaxLagSeconds > 0) {
+                pool.setReplicationLagPolicy(replicaMaxLagBytes, replicaMaxLagSeconds, replicaLagCheckIntervalMillis);
+            }
+            masterPool = pool;
             if (old != null) {
                 old.destroy(); // 不destroy会导致重复创建后台线程
             }
@@ -57,6 +86,36 @@ public class RedisSentinelFactory extends AbstractClientFactory {
         }
     }
 
+    /**
+     * 注册主从切换的回调，重新 init 后的连接池同样生效
+     *
+     * @param listener 回调
+     */
+    public void addMasterSwitchListener(MasterSwitchListener listener) {
+        masterSwitchListeners.add(listener);
+        CustomJedisSentinelPool pool = masterPool;
+        if (pool != null) {
+            pool.addMasterSwitchListener(listener);
+        }
+    }
+
+    /**
+     * 设置选择从库的策略，重新 init 后的连接池同样生效
+     *
+     * @param readerSelector 为null时随机选择
+     */
+    public void setReaderSelector(PoolSelector readerSelector) {
+        this.readerSelector = readerSelector;
+        CustomJedisSentinelPool pool = masterPool;
+        if (pool != null) {
+            pool.setReaderSelector(readerSelector);
+        }
+    }
+
+    public PoolSelector getReaderSelector() {
+        return readerSelector;
+    }
+
     @Override
     public JedisPool getMasterPool() {
         return masterPool;
@@ -67,6 +126,74 @@ public class RedisSentinelFactory extends AbstractClientFactory {
         return getReaderPool();
     }
 
+    @Override
+    public JedisPool getMasterPool(int dbIndex) {
+        return masterPool.getMasterPool(dbIndex);
+    }
+
+    @Override
+    public JedisPool getSlavePool(int dbIndex) {
+        return getReaderPool(dbIndex);
+    }
+
+    /**
+     * 获取所有可用从库上指定db的连接池
+     *
+     * @param dbIndex db的索引值
+     * @return 没有可用从库时返回主库上的连接池
+     */
+    @Override
+    public List<JedisPool> getSlavePools(int dbIndex) {
+        List<JedisPool> pools = masterPool.getReaderPools(dbIndex);
+        if (pools.isEmpty()) {
+            readerFallbackCount.increment();
+            return Collections.singletonList(masterPool.getMasterPool(dbIndex));
+        }
+        return pools;
+    }
+
+    /**
+     * 获取复制偏移量已经达到 minOffset 的从库上指定db的连接池
+     *
+     * @param dbIndex   db的索引值
+     * @param minOffset 需要达到的主库复制偏移量
+     * @return 没有追上的从库时返回主库上的连接池
+     */
+    @Override
+    public JedisPool getSlavePool(int dbIndex, long minOffset) {
+        JedisPool pool = masterPool.getReaderPool(dbIndex, minOffset);
+        if (pool != null) {
+            return pool;
+        }
+        readerFallbackCount.increment();
+        return masterPool.getMasterPool(dbIndex);
+    }
+
+    @Override
+    public long getMasterReplicationOffset() {
+        return masterPool.getMasterOffset();
+    }
+
+    @Override
+    public PoolInfo describePool(JedisPool pool) {
+        return masterPool == null ? null : masterPool.describePool(pool);
+    }
+
+    @Override
+    public List<JedisPool> getPools() {
+        return masterPool == null ? Collections.emptyList() : masterPool.getPools();
+    }
+
+    @Override
+    public List<ReplicaLag> getReplicaLags() {
+        return masterPool == null ? Collections.emptyList() : masterPool.getReplicaLags();
+    }
+
+    @Override
+    public long getReaderFallbackCount() {
+        return readerFallbackCount.sum();
+    }
+
     private void checkArguments() {
         if (servers == null || servers.size() < 0) {
             throw new IllegalArgumentException(
@@ -116,9 +243,28 @@ public class RedisSentinelFactory extends AbstractClientFactory {
             }
         }
         // return master pool when can not get the reader pool
+        readerFallbackCount.increment();
         return masterPool;
     }
 
+    /**
+     * 从Jedis池中获取1个指定db的Pool
+     *
+     * @param dbIndex db的索引值
+     * @return 连接已经选中dbIndex的连接池
+     */
+    public JedisPool getReaderPool(int dbIndex) {
+        JedisPool pool = null;
+        for (int i = 0; i < retries; i++) {
+            pool = masterPool.getReaderPool(dbIndex);
+            if (pool != null) {
+                return pool;
+            }
+        }
+        readerFallbackCount.increment();
+        return masterPool.getMasterPool(dbIndex);
+    }
+
     /**
      * 获取只读Jedis实例
      *
@@ -217,5 +363,29 @@ public class RedisSentinelFactory extends AbstractClientFactory {
         this.timeout = timeout;
     }
 
+    public long getReplicaMaxLagBytes() {
+        return replicaMaxLagBytes;
+    }
+
+    public void setReplicaMaxLagBytes(long replicaMaxLagBytes) {
+        this.replicaMaxLagBytes = replicaMaxLagBytes;
+    }
+
+    public long getReplicaMaxLagSeconds() {
+        return replicaMaxLagSeconds;
+    }
+
+    public void setReplicaMaxLagSeconds(long replicaMaxLagSeconds) {
+        this.replicaMaxLagSeconds = replicaMaxLagSeconds;
+    }
+
+    public long getReplicaLagCheckIntervalMillis() {
+        return replicaLagCheckIntervalMillis;
+    }
+
+    public void setReplicaLagCheckIntervalMillis(long replicaLagCheckIntervalMillis) {
+        this.replicaLagCheckIntervalMillis = replicaLagCheckIntervalMillis;
+    }
+
 }
 
@@ -1,29 +1,133 @@
 package com.rickiyang.redis.redis.sentinel;
 
 
+import com.rickiyang.redis.redis.CountingJedisPool;
+import com.rickiyang.redis.redis.DatabasePools;
+import com.rickiyang.redis.redis.ReplicaLag;
+import com.rickiyang.redis.util.RedisUtils;
 import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.Protocol;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * @date: 2021/11/16 11:45 上午
  * @author: rickiyang
  * @Description: 方便获取从库的host port
  */
-public class SlaveJedisPool extends JedisPool {
+public class SlaveJedisPool extends CountingJedisPool {
 
     private final HostAndPort hostAndPort;
 
+    private final DatabasePools databasePools;
+
+    private volatile ReplicaLag replicaLag;
+
+    /**
+     * 已知的复制偏移量，来自复制延迟检查和读自己写时的查询，只增不减
+     */
+    private final AtomicLong replicationOffset = new AtomicLong(-1);
+
     public SlaveJedisPool(final JedisPoolConfig poolConfig, final HostAndPort hostAndPort, final int timeout) {
-        super(poolConfig, hostAndPort.getHost(), hostAndPort.getPort(), timeout, null, Protocol.DEFAULT_DATABASE, null);
-        this.hostAndPort = hostAndPort;
+        this(poolConfig, hostAndPort, timeout, new AtomicInteger());
+    }
 
+    private SlaveJedisPool(final JedisPoolConfig poolConfig, final HostAndPort hostAndPort, final int timeout,
+                           final AtomicInteger outstanding) {
+        super(poolConfig, hostAndPort.getHost(), hostAndPort.getPort(), timeout, null, Protocol.DEFAULT_DATABASE,
+                outstanding);
+        this.hostAndPort = hostAndPort;
+        this.databasePools = new DatabasePools(this, Protocol.DEFAULT_DATABASE, poolConfig, hostAndPort.getHost(),
+                hostAndPort.getPort(), timeout, null, outstanding);
     }
 
     public HostAndPort getHostAndPort() {
         return hostAndPort;
     }
 
-}
+    /**
+     * 获取该从库上指定db的连接池
+     *
+     * @param dbIndex db的索引值
+     * @return 连接已经选中dbIndex的连接池
+     */
+    public JedisPool getDbPool(int dbIndex) {
+        return databasePools.getPool(dbIndex);
+    }
+
+    /**
+     * @return pool 所在的db，不是该从库的连接池时返回-1
+     */
+    public int getDatabase(JedisPool pool) {
+        return databasePools.getDatabase(pool);
+    }
+
+    /**
+     * @return 该从库上已经创建的所有db的连接池
+     */
+    public List<JedisPool> getDbPools() {
+        return databasePools.getPools();
+    }
+
+    /**
+     * @return 最近一次检查的复制状态，没有开启复制延迟检查时为null
+     */
+    public ReplicaLag getReplicaLag() {
+        return replicaLag;
+    }
+
+    void setReplicaLag(ReplicaLag replicaLag) {
+        this.replicaLag = replicaLag;
+        updateReplicationOffset(replicaLag.getOffset());
+    }
+
+    /**
+     * @return 已知的复制偏移量，未知时为-1
+     */
+    public long getReplicationOffset() {
+        return replicationOffset.get();
+    }
+
+    /**
+     * 查询从库当前的复制偏移量并更新已知值
+     *
+     * @return 查询到的偏移量，查询失败或者和主库断开时返回-1
+     */
+    public long fetchReplicationOffset() {
+        try (Jedis jedis = getResource()) {
+            Map<String, String> info = RedisUtils.parseInfo(jedis.info("replication"));
+            if (!"up".equals(info.get("master_link_status"))) {
+                return -1;
+            }
+            long offset = CustomJedisSentinelPool.parseLong(info.get("slave_repl_offset"));
+            updateReplicationOffset(offset);
+            return offset;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
 
+    void updateReplicationOffset(long offset) {
+        replicationOffset.accumulateAndGet(offset, Math::max);
+    }
+
+    /**
+     * 主库切换后偏移量不再可比，清除已知值
+     */
+    void resetReplicationOffset() {
+        replicationOffset.set(-1);
+    }
+
+    @Override
+    public void destroy() {
+        databasePools.destroy();
+        super.destroy();
+    }
+
+}
@@ -0,0 +1,215 @@
+package com.rickiyang.redis.redis.slowlog;
+
+import com.google.common.hash.Hashing;
+import com.rickiyang.redis.redis.AbstractClientFactory;
+import com.rickiyang.redis.redis.PoolInfo;
+import com.rickiyang.redis.redis.monitor.CommandContext;
+import com.rickiyang.redis.redis.monitor.CommandListener;
+import com.rickiyang.redis.redis.monitor.JmxSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.JedisPool;
+
+import javax.management.ObjectName;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @date: 2022/01/05 10:00 上午
+ * @author: rickiyang
+ * @Description: 客户端慢命令日志，作为 {@link CommandListener} 挂在 RedisClient 上
+ * </br>
+ * redis 的 SLOWLOG 只有服务端的执行时间，这里按调用方看到的耗时(借连接+网络+解析回复)判断，
+ * 超过 thresholdMicros 的命令按 sampleRate 采样后写入定长的环形缓冲区，写入只做一次 CAS 自增和数组赋值，不加锁
+ * </br>
+ * 未超过阈值的命令只做一次比较；开启 hashKeys 时只记录key的散列值，避免敏感数据出现在监控里
+ */
+public class SlowLog implements CommandListener, SlowLogMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(SlowLog.class);
+
+    public static final long DEFAULT_THRESHOLD_MICROS = 10 * 1000;
+
+    public static final int DEFAULT_CAPACITY = 128;
+
+    private static final String UNKNOWN = "unknown";
+
+    private final AbstractClientFactory factory;
+
+    private final AtomicReferenceArray<SlowLogEntry> entries;
+
+    private final int mask;
+
+    /**
+     * 下一条记录的序号，序号对容量取模即为写入位置
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongAdder slowCount = new LongAdder();
+
+    private volatile long thresholdNanos;
+
+    private volatile double sampleRate;
+
+    private volatile boolean hashKeys;
+
+    private volatile ObjectName objectName;
+
+    /**
+     * @param factory         用于查询连接池对应的实例
+     * @param thresholdMicros 慢命令阈值，小于等于0时使用默认值10ms
+     * @param capacity        环形缓冲区大小，向上取2的幂，小于等于0时使用默认值
+     * @param sampleRate      慢命令的采样率，(0, 1]，超出范围时全部记录
+     * @param hashKeys        是否只记录key的散列值
+     */
+    public SlowLog(AbstractClientFactory factory, long thresholdMicros, int capacity, double sampleRate,
+                   boolean hashKeys) {
+        this.factory = factory;
+        int size = capacity > 0 ? capacity : DEFAULT_CAPACITY;
+        size = size > (1 << 30) ? 1 << 30 : Integer.highestOneBit(size - 1) << 1;
+        this.entries = new AtomicReferenceArray<>(Math.max(size, 1));
+        this.mask = entries.length() - 1;
+        setThresholdMicros(thresholdMicros);
+        setSampleRate(sampleRate);
+        this.hashKeys = hashKeys;
+    }
+
+    public SlowLog(AbstractClientFactory factory) {
+        this(factory, DEFAULT_THRESHOLD_MICROS, DEFAULT_CAPACITY, 1, false);
+    }
+
+    @Override
+    public void onCommand(CommandContext context) {
+        long total = context.getTotalNanos();
+        if (total < thresholdNanos) {
+            return;
+        }
+        slowCount.increment();
+        double rate = sampleRate;
+        if (rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate) {
+            return;
+        }
+        long id = sequence.getAndIncrement();
+        Exception failure = context.getFailure();
+        SlowLogEntry entry = new SlowLogEntry(id, System.currentTimeMillis(), context.getCommand(),
+                key(context.getKey()), context.getKeyCount(), describe(context.getPool()),
+                TimeUnit.NANOSECONDS.toMicros(context.getBorrowNanos()),
+                TimeUnit.NANOSECONDS.toMicros(context.getExecuteNanos()), TimeUnit.NANOSECONDS.toMicros(total),
+                context.getReplyBytes(), context.getReplyElements(), Thread.currentThread().getName(),
+                failure == null ? null : failure.getClass().getSimpleName());
+        entries.set((int) (id & mask), entry);
+        if (log.isDebugEnabled()) {
+            log.debug("redis slow command: {}", entry);
+        }
+    }
+
+    /**
+     * @return 环形缓冲区中的慢命令，最新的在前
+     */
+    public List<SlowLogEntry> getEntries() {
+        long last = sequence.get() - 1;
+        List<SlowLogEntry> result = new ArrayList<>(entries.length());
+        for (long id = last; id >= 0 && id > last - entries.length(); id--) {
+            SlowLogEntry entry = entries.get((int) (id & mask));
+            // 并发写入时槽位可能还是旧记录或已经被更新的记录覆盖，按序号过滤
+            if (entry != null && entry.getId() == id) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String[] getSlowLogList() {
+        List<SlowLogEntry> list = getEntries();
+        String[] lines = new String[list.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = list.get(i).toString();
+        }
+        return lines;
+    }
+
+    @Override
+    public long getSlowCount() {
+        return slowCount.sum();
+    }
+
+    @Override
+    public long getRecordedCount() {
+        return sequence.get();
+    }
+
+    @Override
+    public int getCapacity() {
+        return entries.length();
+    }
+
+    @Override
+    public long getThresholdMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(thresholdNanos);
+    }
+
+    @Override
+    public void setThresholdMicros(long thresholdMicros) {
+        this.thresholdNanos = TimeUnit.MICROSECONDS.toNanos(thresholdMicros > 0 ? thresholdMicros
+                : DEFAULT_THRESHOLD_MICROS);
+    }
+
+    @Override
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate > 0 && sampleRate <= 1 ? sampleRate : 1;
+    }
+
+    @Override
+    public boolean isHashKeys() {
+        return hashKeys;
+    }
+
+    @Override
+    public void setHashKeys(boolean hashKeys) {
+        this.hashKeys = hashKeys;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < entries.length(); i++) {
+            entries.set(i, null);
+        }
+    }
+
+    /**
+     * 注册到 platform MBeanServer，shutdown 时注销
+     */
+    public void registerMBean() {
+        objectName = JmxSupport.register("SlowLog", this);
+    }
+
+    public void shutdown() {
+        JmxSupport.unregister(objectName);
+        log.info("SlowLog shutdown...");
+    }
+
+    private String key(Object key) {
+        String keyString = CommandContext.keyToString(key);
+        if (keyString == null || !hashKeys) {
+            return keyString;
+        }
+        return Hashing.sha256().hashString(keyString, StandardCharsets.UTF_8).toString().substring(0, 16);
+    }
+
+    private String describe(JedisPool pool) {
+        PoolInfo info = pool == null || factory == null ? null : factory.describePool(pool);
+        return info == null ? UNKNOWN : info.getName();
+    }
+}
@@ -0,0 +1,150 @@
+package com.rickiyang.redis.redis.slowlog;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * @date: 2022/01/05 10:00 上午
+ * @author: rickiyang
+ * @Description: 一条客户端慢命令记录，耗时单位微秒，回复大小未统计时为-1
+ */
+public class SlowLogEntry {
+
+    private final long id;
+
+    private final long timestampMillis;
+
+    private final String command;
+
+    private final String key;
+
+    private final int keyCount;
+
+    private final String host;
+
+    private final long borrowMicros;
+
+    private final long executeMicros;
+
+    private final long totalMicros;
+
+    private final long replyBytes;
+
+    private final long replyElements;
+
+    private final String thread;
+
+    private final String failure;
+
+    SlowLogEntry(long id, long timestampMillis, String command, String key, int keyCount, String host,
+                 long borrowMicros, long executeMicros, long totalMicros, long replyBytes, long replyElements,
+                 String thread, String failure) {
+        this.id = id;
+        this.timestampMillis = timestampMillis;
+        this.command = command;
+        this.key = key;
+        this.keyCount = keyCount;
+        this.host = host;
+        this.borrowMicros = borrowMicros;
+        this.executeMicros = executeMicros;
+        this.totalMicros = totalMicros;
+        this.replyBytes = replyBytes;
+        this.replyElements = replyElements;
+        this.thread = thread;
+        this.failure = failure;
+    }
+
+    /**
+     * @return 递增的序号
+     */
+    public long getId() {
+        return id;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return 第一个key，开启 hashKeys 时为散列值
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    /**
+     * @return 形如 slave@127.0.0.1:6380
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return 从连接池借连接的耗时
+     */
+    public long getBorrowMicros() {
+        return borrowMicros;
+    }
+
+    /**
+     * @return 借到连接之后发送命令、等待和解析回复的耗时
+     */
+    public long getExecuteMicros() {
+        return executeMicros;
+    }
+
+    public long getTotalMicros() {
+        return totalMicros;
+    }
+
+    public long getReplyBytes() {
+        return replyBytes;
+    }
+
+    public long getReplyElements() {
+        return replyElements;
+    }
+
+    public String getThread() {
+        return thread;
+    }
+
+    /**
+     * @return 命令失败时的异常类名，成功时为null
+     */
+    public String getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append('#').append(id).append(' ')
+                .append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(timestampMillis)))
+                .append(' ').append(host).append(' ').append(command);
+        if (key != null) {
+            sb.append(' ').append(key);
+            if (keyCount > 1) {
+                sb.append(" (+").append(keyCount - 1).append(" keys)");
+            }
+        }
+        sb.append(" total=").append(totalMicros).append("us borrow=").append(borrowMicros)
+                .append("us execute=").append(executeMicros).append("us");
+        if (replyBytes >= 0) {
+            sb.append(" replyBytes=").append(replyBytes).append(" replyElements=").append(replyElements);
+        }
+        sb.append(" thread=").append(thread);
+        if (failure != null) {
+            sb.append(" failure=").append(failure);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,40 @@
+package com.rickiyang.redis.redis.slowlog;
+
+/**
+ * @date: 2022/01/05 10:00 上午
+ * @author: rickiyang
+ * @Description: 通过JMX查看客户端慢命令和调整阈值、采样率
+ */
+public interface SlowLogMXBean {
+
+    /**
+     * @return 环形缓冲区中的慢命令，最新的在前
+     */
+    String[] getSlowLogList();
+
+    /**
+     * @return 超过阈值的命令总数，包括没有被采样记录的
+     */
+    long getSlowCount();
+
+    long getRecordedCount();
+
+    int getCapacity();
+
+    long getThresholdMicros();
+
+    void setThresholdMicros(long thresholdMicros);
+
+    double getSampleRate();
+
+    void setSampleRate(double sampleRate);
+
+    boolean isHashKeys();
+
+    void setHashKeys(boolean hashKeys);
+
+    /**
+     * 清空环形缓冲区
+     */
+    void reset();
+}
@@ -0,0 +1,375 @@
+package com.rickiyang.redis.redis.writebehind;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rickiyang.redis.redis.RedisClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @date: 2021/12/29 3:00 下午
+ * @author: rickiyang
+ * @Description: 异步写缓冲，适用于后写覆盖前写、允许延迟生效的 hset/hmset/zadd/expire
+ * </br>
+ * 调用方只把写操作放入内存中的待写表，同一 key/field 在一个 flush 间隔内的多次写入合并为最后一次；
+ * flush 线程按间隔把剩余的写操作用流式 pipeline 批量发送，expire 排在其他写之后执行
+ * </br>
+ * 待写条目达到 maxPending 时，新的 key/field 写入最多阻塞 offerTimeoutMillis 等待 flush，仍然放不下则返回false；
+ * 已存在的 key/field 覆盖写不受限制。进程崩溃时未 flush 的写操作会丢失；shutdown 之后的写入返回false
+ */
+public class WriteBehindQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+
+    public static final int DEFAULT_MAX_PENDING = 100000;
+
+    public static final long DEFAULT_OFFER_TIMEOUT_MILLIS = 1000;
+
+    private final RedisClient redisClient;
+
+    private final int dbIndex;
+
+    private final long flushIntervalMillis;
+
+    private final int maxPending;
+
+    private final long offerTimeoutMillis;
+
+    private final ConcurrentHashMap<WriteKey, Write> pending = new ConcurrentHashMap<>();
+
+    private final Object capacityLock = new Object();
+
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    private volatile long lastFlushLagMillis;
+
+    private volatile long maxFlushLagMillis;
+
+    private final LongAdder coalesced = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * shutdown 后不再接受写入；写入在读锁内检查并放入待写表，shutdown 在写锁内设置，
+     * 保证最后一次 flush 之后不会再有写入进入待写表
+     */
+    private volatile boolean closed;
+
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    /**
+     * @param redisClient         redis客户端
+     * @param dbIndex             写入的db
+     * @param flushIntervalMillis flush 间隔，小于等于0时使用默认值100ms
+     * @param maxPending          最多待写条目数，小于等于0时使用默认值
+     * @param offerTimeoutMillis  队列满时最长阻塞时间，小于0时使用默认值，为0时不阻塞
+     */
+    public WriteBehindQueue(RedisClient redisClient, int dbIndex, long flushIntervalMillis, int maxPending,
+                            long offerTimeoutMillis) {
+        this.redisClient = redisClient;
+        this.dbIndex = dbIndex;
+        this.flushIntervalMillis = flushIntervalMillis > 0 ? flushIntervalMillis : DEFAULT_FLUSH_INTERVAL_MILLIS;
+        this.maxPending = maxPending > 0 ? maxPending : DEFAULT_MAX_PENDING;
+        this.offerTimeoutMillis = offerTimeoutMillis >= 0 ? offerTimeoutMillis : DEFAULT_OFFER_TIMEOUT_MILLIS;
+        this.scheduler = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("redis-write-behind-%d").setDaemon(true).build());
+        this.scheduler.scheduleWithFixedDelay(this::flushQuietly, this.flushIntervalMillis, this.flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public WriteBehindQueue(RedisClient redisClient) {
+        this(redisClient, 0, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_MAX_PENDING, DEFAULT_OFFER_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * 异步 HSET key field value
+     *
+     * @return 队列已满且等待超时或者已经 shutdown 时返回false，写操作被丢弃
+     */
+    public boolean hset(String key, String field, String value) {
+        return offer(new WriteKey(Type.HSET, key, field), value, 0);
+    }
+
+    /**
+     * 异步 HMSET，按 field 拆开合并
+     *
+     * @return 任意一个 field 放不进队列时返回false，已放入的 field 仍会写入
+     */
+    public boolean hmset(String key, Map<String, String> hash) {
+        boolean accepted = true;
+        for (Map.Entry<String, String> entry : hash.entrySet()) {
+            accepted &= offer(new WriteKey(Type.HSET, key, entry.getKey()), entry.getValue(), 0);
+        }
+        return accepted;
+    }
+
+    /**
+     * 异步 ZADD key score member
+     *
+     * @return 队列已满且等待超时或者已经 shutdown 时返回false，写操作被丢弃
+     */
+    public boolean zadd(String key, double score, String member) {
+        return offer(new WriteKey(Type.ZADD, key, member), null, score);
+    }
+
+    /**
+     * 异步 EXPIRE key seconds，在同一批次的其他写之后执行
+     *
+     * @return 队列已满且等待超时或者已经 shutdown 时返回false，写操作被丢弃
+     */
+    public boolean expire(String key, int seconds) {
+        return offer(new WriteKey(Type.EXPIRE, key, null), null, seconds);
+    }
+
+    /**
+     * @return 待写条目数
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return 最近一次 flush 时最早的待写条目已等待的时间
+     */
+    public long getLastFlushLagMillis() {
+        return lastFlushLagMillis;
+    }
+
+    public long getMaxFlushLagMillis() {
+        return maxFlushLagMillis;
+    }
+
+    /**
+     * @return 被后续写覆盖而省掉的写操作数
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return 队列满或者 shutdown 后被丢弃的写操作数
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * 立即发送所有待写的操作
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long oldest = now;
+        final List<Write> writes = new ArrayList<>(pending.size());
+        final List<Write> expires = new ArrayList<>();
+        // remove 拿到的是该 key/field 最后一次写入，之后的写入进入下一批
+        for (WriteKey key : pending.keySet()) {
+            Write write = pending.remove(key);
+            if (write != null) {
+                (key.type == Type.EXPIRE ? expires : writes).add(write);
+                oldest = Math.min(oldest, write.enqueuedAt);
+            }
+        }
+        synchronized (capacityLock) {
+            capacityLock.notifyAll();
+        }
+        writes.addAll(expires);
+        lastFlushLagMillis = now - oldest;
+        maxFlushLagMillis = Math.max(maxFlushLagMillis, lastFlushLagMillis);
+        final int[] acked = new int[1];
+        try {
+            redisClient.doStreamingPipline(dbIndex, 0, 0, pipeline -> {
+                for (Write write : writes) {
+                    write.apply(pipeline);
+                }
+            }, result -> {
+                if (result instanceof JedisDataException) {
+                    log.warn("write behind {} fail: {}", writes.get(acked[0]).key,
+                            ((JedisDataException) result).getMessage());
+                }
+                acked[0]++;
+            });
+        } catch (Exception e) {
+            log.warn("write behind flush fail, retry " + (writes.size() - acked[0]) + " of " + writes.size()
+                    + " next round", e);
+            for (int i = acked[0]; i < writes.size(); i++) {
+                // 不覆盖失败期间新写入的值
+                pending.putIfAbsent(writes.get(i).key, writes.get(i));
+            }
+        } finally {
+            invalidateNearCache(writes.subList(0, acked[0]));
+        }
+    }
+
+    /**
+     * 停止定时 flush，并发送剩余的写操作
+     */
+    public void shutdown() {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(flushIntervalMillis * 10, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+        log.info("WriteBehindQueue shutdown...");
+    }
+
+    private boolean offer(WriteKey key, String value, double number) {
+        Write write = new Write(key, value, number, System.currentTimeMillis());
+        if (closed || pending.size() >= maxPending && !pending.containsKey(key) && !awaitCapacity()) {
+            rejected.increment();
+            return false;
+        }
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                rejected.increment();
+                return false;
+            }
+            Write old = pending.merge(key, write, (previous, current) -> current.coalesce(previous));
+            if (old != write) {
+                coalesced.increment();
+            }
+            return true;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private boolean awaitCapacity() {
+        long deadline = System.currentTimeMillis() + offerTimeoutMillis;
+        synchronized (capacityLock) {
+            while (pending.size() >= maxPending) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    capacityLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void invalidateNearCache(List<Write> writes) {
+        if (redisClient.getNearCache() == null || writes.isEmpty()) {
+            return;
+        }
+        Set<String> keys = new LinkedHashSet<>();
+        for (Write write : writes) {
+            keys.add(write.key.key);
+        }
+        redisClient.invalidateNearCache(dbIndex, keys.toArray(new String[0]));
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.warn("write behind flush fail", e);
+        }
+    }
+
+    private enum Type {
+        HSET, ZADD, EXPIRE
+    }
+
+    private static final class Write {
+        private final WriteKey key;
+        private final String value;
+        private final double number;
+        /**
+         * 合并后保留最早一次写入的时间，用于计算 flush 延迟
+         */
+        private final long enqueuedAt;
+
+        Write(WriteKey key, String value, double number, long enqueuedAt) {
+            this.key = key;
+            this.value = value;
+            this.number = number;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        Write coalesce(Write previous) {
+            return new Write(key, value, number, Math.min(enqueuedAt, previous.enqueuedAt));
+        }
+
+        void apply(Pipeline pipeline) {
+            switch (key.type) {
+                case HSET:
+                    pipeline.hset(key.key, key.field, value);
+                    break;
+                case ZADD:
+                    pipeline.zadd(key.key, number, key.field);
+                    break;
+                case EXPIRE:
+                    pipeline.expire(key.key, (int) number);
+                    break;
+                default:
+                    throw new IllegalStateException("unknown write type " + key.type);
+            }
+        }
+    }
+
+    private static final class WriteKey {
+        private final Type type;
+        private final String key;
+        private final String field;
+
+        WriteKey(Type type, String key, String field) {
+            this.type = type;
+            this.key = key;
+            this.field = field;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof WriteKey)) {
+                return false;
+            }
+            WriteKey that = (WriteKey) o;
+            return type == that.type && key.equals(that.key) && Objects.equals(field, that.field);
+        }
+
+        @Override
+        public int hashCode() {
+            return (type.hashCode() * 31 + key.hashCode()) * 31 + Objects.hashCode(field);
+        }
+
+        @Override
+        public String toString() {
+            return field == null ? key : key + ":" + field;
+        }
+    }
+}
@@ -7,6 +7,8 @@ import redis.clients.jedis.JedisPoolConfig;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -82,6 +84,26 @@ public class RedisUtils {
         return false;
     }
 
+    /**
+     * 把 info 命令的返回解析为 key-value，忽略 # 开头的分组标题
+     *
+     * @param info redis服务器的相关配置信息
+     * @return 为空时返回空的map
+     */
+    public static Map<String, String> parseInfo(String info) {
+        Map<String, String> result = new HashMap<>();
+        if (info == null || "".equals(info)) {
+            return result;
+        }
+        for (String line : info.split("\r?\n")) {
+            int index = line.indexOf(':');
+            if (index > 0 && !line.startsWith("#")) {
+                result.put(line.substring(0, index), line.substring(index + 1).trim());
+            }
+        }
+        return result;
+    }
+
     /**
      * @param serverInfo 格式如 ip:port:password:timeout
      * @return String数组，分别为ip,port，password,timeout